@@ -3,12 +3,23 @@ package org.opendatakit.aggregate.cli;
 
 import static org.opendatakit.aggregate.cli.operations.CommonParams.CONFIGURATION_PATH;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
 import org.opendatakit.aggregate.cli.operations.Exceptions.ConfigurationException;
+import org.opendatakit.aggregate.cli.operations.HttpSummary;
 import org.opendatakit.aggregate.cli.operations.InstallOperation;
 import org.opendatakit.aggregate.cli.operations.ListAvailableVersions;
+import org.opendatakit.aggregate.cli.operations.RestoreBackup;
+import org.opendatakit.aggregate.cli.operations.ServeCache;
 import org.opendatakit.aggregate.cli.operations.UpdateOperation;
+import org.opendatakit.aggregate.cli.reused.http.CachingHttp;
 import org.opendatakit.aggregate.cli.reused.http.CommonsHttp;
 import org.opendatakit.aggregate.cli.reused.http.Http;
+import org.opendatakit.aggregate.cli.reused.http.HttpBackend;
+import org.opendatakit.aggregate.cli.reused.http.HttpMetrics;
+import org.opendatakit.aggregate.cli.reused.http.PooledHttp;
+import org.opendatakit.aggregate.cli.reused.http.RetryingHttp;
 import org.opendatakit.cli.Cli;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,12 +28,15 @@ public class Launcher {
   private static final Logger log = LoggerFactory.getLogger(Launcher.class);
 
   public static void main(String[] args) {
-    Http http = new CommonsHttp();
+    HttpMetrics metrics = new HttpMetrics();
+    Http http = CachingHttp.at(getHttpCacheDir(), RetryingHttp.wrap(buildHttp(metrics)));
 
     Cli.std("aggregate-cli")
-        .register(ListAvailableVersions.build(http))
-        .register(UpdateOperation.build(http))
-        .register(InstallOperation.build(http))
+        .register(ListAvailableVersions.build(http, metrics))
+        .register(UpdateOperation.build(http, metrics))
+        .register(InstallOperation.build(http, metrics))
+        .register(ServeCache.build())
+        .register(RestoreBackup.build())
         .onMissingParam((params, console) -> {
           if (params.contains(CONFIGURATION_PATH))
             throw new ConfigurationException("Configuration not provided");
@@ -36,7 +50,41 @@ public class Launcher {
           } else
             console.error("Error: " + t.getMessage());
           console.error();
+          HttpSummary.print(console, metrics);
         })
         .run(args);
   }
+
+  /**
+   * Returns the {@link Http} implementation shared by all the operations of this run.
+   * <p>
+   * By default, it's the JDK's HTTP/2 client on Java 11 or greater, and pooled
+   * connections with Apache HttpClient on Java 8 (see {@link HttpBackend}). Set
+   * the AGGREGATE_CLI_HTTP environment variable to "pooled" to force the latter,
+   * or to "commons" to use a new connection on every request.
+   * <p>
+   * The timing of every request is recorded into the given metrics, which
+   * operations print in verbose mode.
+   */
+  private static Http buildHttp(HttpMetrics metrics) {
+    String backend = Optional.ofNullable(System.getenv("AGGREGATE_CLI_HTTP")).map(String::trim).orElse("");
+    if (backend.equalsIgnoreCase("commons")) {
+      log.info("Using a new HTTP connection on every request");
+      return new CommonsHttp(metrics);
+    }
+    if (backend.equalsIgnoreCase("pooled")) {
+      log.info("Using pooled HTTP connections");
+      return new PooledHttp(metrics);
+    }
+    log.info("Using {}", HttpBackend.describe());
+    return HttpBackend.build(metrics);
+  }
+
+  /**
+   * Returns the directory where cacheable HTTP responses are stored, at the
+   * user's home directory.
+   */
+  private static Path getHttpCacheDir() {
+    return Paths.get(System.getProperty("user.home"), ".aggregate-cli", "cache", "http");
+  }
 }
@@ -0,0 +1,137 @@
+package org.opendatakit.aggregate.cli.operations;
+
+import static java.lang.String.format;
+import static java.time.LocalDateTime.now;
+import static org.opendatakit.aggregate.cli.reused.http.DownloadProgress.humanReadable;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import org.opendatakit.aggregate.cli.reused.fs.ContentStore;
+import org.opendatakit.aggregate.cli.reused.fs.DirectorySnapshot;
+import org.opendatakit.aggregate.cli.reused.fs.UncheckedFiles;
+import org.opendatakit.aggregate.cli.reused.fs.ZipArchiver;
+import org.opendatakit.cli.Console;
+
+final class Backup {
+  static void backup(Console console, EnvironmentConfiguration conf, BackupMode mode, int compressionLevel) {
+    console.execute(format("mkdir -p %s", conf.getBackupPath()), true);
+    // The catalog is opened first to index any zip backups made before it existed
+    BackupCatalog catalog = BackupCatalog.open(conf);
+    LocalDateTime date = now();
+    long size;
+    switch (mode) {
+      case ZIP:
+        size = archive(console, conf, date, compressionLevel);
+        break;
+      case SNAPSHOT:
+        size = snapshot(console, conf, date);
+        break;
+      case DEDUP:
+        size = store(console, conf, date);
+        break;
+      default:
+        throw new IllegalStateException("Unknown backup mode " + mode);
+    }
+    catalog.add(new BackupCatalog.Entry(EnvironmentConfiguration.buildBackupName(date), mode, date, size));
+    catalog.save();
+  }
+
+  /**
+   * Deletes the backups that the given policy doesn't keep, using the sizes
+   * recorded in the catalog instead of measuring the backups again.
+   * <p>
+   * Pruning dedup backups can leave blobs that the remaining ones still have,
+   * which the catalog then attributes to the oldest remaining dedup backup.
+   * Since that can push the total size over the limit again, pruning goes on
+   * until the policy keeps every remaining backup.
+   */
+  static void prune(Console console, EnvironmentConfiguration conf, RetentionPolicy policy) {
+    BackupCatalog catalog = BackupCatalog.open(conf);
+    int prunedBackups = 0;
+    long freedBytes = 0;
+    List<BackupCatalog.Entry> pruned;
+    while (!(pruned = policy.selectPruned(catalog.getEntries(), now())).isEmpty()) {
+      boolean storeChanged = false;
+      for (BackupCatalog.Entry entry : pruned) {
+        console.verbose("Deleting backup " + entry);
+        switch (entry.getMode()) {
+          case ZIP:
+            UncheckedFiles.deleteIfExists(conf.buildBackupFilePath(entry.getCreated()));
+            freedBytes += entry.getSize();
+            break;
+          case SNAPSHOT:
+            UncheckedFiles.deleteTree(conf.buildBackupDirectoryPath(entry.getCreated()));
+            freedBytes += entry.getSize();
+            break;
+          case DEDUP:
+            openBackupStore(conf).delete(entry.getName());
+            storeChanged = true;
+            break;
+          default:
+            throw new IllegalStateException("Unknown backup mode " + entry.getMode());
+        }
+        catalog.remove(entry);
+        prunedBackups++;
+      }
+      // Blobs can be shared with the remaining backups, so only the garbage collection knows what's freed
+      if (storeChanged) {
+        ContentStore store = openBackupStore(conf);
+        freedBytes += store.collectGarbage();
+        catalog.attributeStoreSize(store.getSize());
+      }
+      catalog.save();
+    }
+    console.out(format(
+        "  Pruned %d backups, freeing %s. Kept %d backups",
+        prunedBackups,
+        humanReadable(freedBytes),
+        catalog.getEntries().size()
+    ));
+  }
+
+  private static long archive(Console console, EnvironmentConfiguration conf, LocalDateTime date, int compressionLevel) {
+    Path backupFile = conf.buildBackupFilePath(date);
+    console.verbose("Archiving " + conf.getRootWebappPath() + " to " + backupFile);
+    int files = ZipArchiver.parallel(compressionLevel).archive(conf.getRootWebappPath(), backupFile);
+    console.verbose("Archived " + files + " files");
+    return backupFile.toFile().length();
+  }
+
+  static ContentStore openBackupStore(EnvironmentConfiguration conf) {
+    return ContentStore.at(conf.getBackupStorePath());
+  }
+
+  /**
+   * Stores the ROOT webapp in the backup store, which only adds the files
+   * that have changed since the previous backups.
+   */
+  private static long store(Console console, EnvironmentConfiguration conf, LocalDateTime date) {
+    String name = EnvironmentConfiguration.buildBackupName(date);
+    console.verbose("Storing " + conf.getRootWebappPath() + " as " + name + " in " + conf.getBackupStorePath());
+    ContentStore.Stats stats = openBackupStore(conf).store(name, conf.getRootWebappPath());
+    console.out(format(
+        "  Stored %s with %d files, %d of them new (%s)",
+        name,
+        stats.getFiles(),
+        stats.getStoredFiles(),
+        humanReadable(stats.getStoredBytes())
+    ));
+    return stats.getStoredBytes();
+  }
+
+  /**
+   * Takes a snapshot of the ROOT webapp made of hard links, which is safe
+   * because the update deploys the new version in a new ROOT webapp, copying
+   * the unchanged files instead of linking them (see {@link BackupMode#isIsolated()}).
+   */
+  private static long snapshot(Console console, EnvironmentConfiguration conf, LocalDateTime date) {
+    Path backupDir = conf.buildBackupDirectoryPath(date);
+    console.verbose("Taking a snapshot of " + conf.getRootWebappPath() + " at " + backupDir);
+    DirectorySnapshot snapshot = DirectorySnapshot.take(conf.getRootWebappPath(), backupDir);
+    console.out(snapshot.isLinked()
+        ? "  Linked " + snapshot.getFiles() + " files"
+        : "  Copied " + snapshot.getFiles() + " files, since the backup path is in another file system than the ROOT webapp");
+    return snapshot.getBytes();
+  }
+}
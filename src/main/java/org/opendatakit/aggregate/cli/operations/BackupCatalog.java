@@ -0,0 +1,194 @@
+package org.opendatakit.aggregate.cli.operations;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toList;
+import static org.opendatakit.aggregate.cli.operations.EnvironmentConfiguration.BACKUP_DATE_TIME_FORMATTER;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.opendatakit.aggregate.cli.reused.Json;
+
+/**
+ * This class keeps an index of the backups made by the update operation at
+ * backup/index.json, with their mode, date and size, which lets retention
+ * rules be enforced without measuring the backups again.
+ * <p>
+ * When the index doesn't exist, it's built from the zip backups made before
+ * it was introduced.
+ */
+final class BackupCatalog {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final Pattern LEGACY_BACKUP = Pattern.compile("aggregate-(\\d{8}-\\d{6})\\.zip");
+  private final Path indexFile;
+  private final List<Entry> entries;
+
+  private BackupCatalog(Path indexFile, List<Entry> entries) {
+    this.indexFile = indexFile;
+    this.entries = entries;
+  }
+
+  static BackupCatalog open(EnvironmentConfiguration conf) {
+    Path indexFile = conf.getBackupPath().resolve("index.json");
+    if (Files.exists(indexFile)) {
+      List<Entry> entries = new ArrayList<>();
+      for (JsonNode node : Json.parseNode(indexFile).get("backups"))
+        entries.add(Entry.from(node));
+      return new BackupCatalog(indexFile, entries);
+    }
+    return new BackupCatalog(indexFile, findLegacyBackups(conf.getBackupPath()));
+  }
+
+  private static List<Entry> findLegacyBackups(Path backupPath) {
+    if (!Files.isDirectory(backupPath))
+      return new ArrayList<>();
+    try (Stream<Path> files = Files.list(backupPath)) {
+      return files
+          .map(file -> parseLegacyBackup(file))
+          .filter(Optional::isPresent)
+          .map(Optional::get)
+          .collect(toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static Optional<Entry> parseLegacyBackup(Path file) {
+    Matcher matcher = LEGACY_BACKUP.matcher(file.getFileName().toString());
+    if (!matcher.matches())
+      return Optional.empty();
+    try {
+      LocalDateTime created = LocalDateTime.parse(matcher.group(1), BACKUP_DATE_TIME_FORMATTER);
+      return Optional.of(new Entry(EnvironmentConfiguration.buildBackupName(created), BackupMode.ZIP, created, file.toFile().length()));
+    } catch (DateTimeParseException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Returns the backups, from oldest to newest.
+   */
+  List<Entry> getEntries() {
+    List<Entry> sorted = new ArrayList<>(entries);
+    sorted.sort(comparing(Entry::getCreated));
+    return Collections.unmodifiableList(sorted);
+  }
+
+  void add(Entry entry) {
+    entries.add(entry);
+  }
+
+  void remove(Entry entry) {
+    entries.remove(entry);
+  }
+
+  /**
+   * Makes the sizes of the dedup backups add up to the given size of the
+   * store. Each backup keeps the size of what it added to the store, except
+   * for the oldest one, which also takes the blobs that pruned backups added
+   * and the remaining ones still have.
+   */
+  void attributeStoreSize(long storeSize) {
+    List<Entry> dedupEntries = getEntries().stream()
+        .filter(entry -> entry.getMode() == BackupMode.DEDUP)
+        .collect(toList());
+    if (dedupEntries.isEmpty())
+      return;
+    Entry oldest = dedupEntries.get(0);
+    long othersSize = dedupEntries.stream().skip(1).mapToLong(Entry::getSize).sum();
+    entries.remove(oldest);
+    entries.add(new Entry(oldest.getName(), oldest.getMode(), oldest.getCreated(), Math.max(0, storeSize - othersSize)));
+  }
+
+  void save() {
+    ObjectNode root = MAPPER.createObjectNode();
+    ArrayNode backups = root.putArray("backups");
+    getEntries().forEach(entry -> backups.add(entry.toJson()));
+    try {
+      Files.createDirectories(indexFile.getParent());
+      Path tempFile = Files.createTempFile(indexFile.getParent(), "index.json", ".tmp");
+      try {
+        Files.write(tempFile, MAPPER.writerWithDefaultPrettyPrinter().writeValueAsBytes(root));
+        Files.move(tempFile, indexFile, REPLACE_EXISTING, ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static final class Entry {
+    private final String name;
+    private final BackupMode mode;
+    private final LocalDateTime created;
+    private final long size;
+
+    Entry(String name, BackupMode mode, LocalDateTime created, long size) {
+      this.name = name;
+      this.mode = mode;
+      this.created = created;
+      this.size = size;
+    }
+
+    static Entry from(JsonNode node) {
+      return new Entry(
+          node.get("name").asText(),
+          BackupMode.parse(node.get("mode").asText()),
+          LocalDateTime.parse(node.get("created").asText()),
+          node.get("size").asLong()
+      );
+    }
+
+    ObjectNode toJson() {
+      ObjectNode node = MAPPER.createObjectNode();
+      node.put("name", name);
+      node.put("mode", mode.getName());
+      node.put("created", created.toString());
+      node.put("size", size);
+      return node;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    BackupMode getMode() {
+      return mode;
+    }
+
+    LocalDateTime getCreated() {
+      return created;
+    }
+
+    /**
+     * Returns the disk space taken by the backup. For dedup backups, it's the
+     * size of the contents that weren't in the store when it was made, plus,
+     * for the oldest one, the contents left by pruned dedup backups.
+     */
+    long getSize() {
+      return size;
+    }
+
+    @Override
+    public String toString() {
+      return name + " (" + mode.getName() + ")";
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package org.opendatakit.aggregate.cli.operations;
+
+import static java.util.stream.Collectors.joining;
+
+import java.util.stream.Stream;
+
+enum BackupMode {
+  /**
+   * A ZIP file with the compressed files of the ROOT webapp.
+   */
+  ZIP,
+  /**
+   * A directory with hard links to the files of the ROOT webapp. Updates
+   * deploy a new ROOT webapp instead of modifying the files of the current
+   * one, but they must copy the unchanged files instead of linking them, or
+   * applying the ownership of the new ROOT webapp would change the backup too.
+   */
+  SNAPSHOT,
+  /**
+   * A manifest in a content-addressed store, which keeps a single copy of
+   * the files that don't change between versions.
+   */
+  DEDUP;
+
+  static BackupMode parse(String value) {
+    return Stream.of(values())
+        .filter(mode -> mode.getName().equals(value.trim().toLowerCase()))
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("The backup mode must be one of " + Stream.of(values()).map(BackupMode::getName).collect(joining(", "))));
+  }
+
+  /**
+   * Tells if backups in this mode don't share their files with the ROOT
+   * webapp, which lets updates link its unchanged files into the new one.
+   */
+  boolean isIsolated() {
+    return this != SNAPSHOT;
+  }
+
+  String getName() {
+    return name().toLowerCase();
+  }
+}
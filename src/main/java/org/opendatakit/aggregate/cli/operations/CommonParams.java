@@ -3,6 +3,10 @@ package org.opendatakit.aggregate.cli.operations;
 import static org.opendatakit.cli.Param.arg;
 import static org.opendatakit.cli.Param.flag;
 
+import java.time.Duration;
+import org.opendatakit.aggregate.cli.reused.http.BandwidthLimiter;
+import org.opendatakit.aggregate.cli.reused.http.Request;
+import org.opendatakit.cli.Args;
 import org.opendatakit.cli.Param;
 
 public final class CommonParams {
@@ -10,6 +14,42 @@ public final class CommonParams {
   static final Param<Void> ALWAYS_YES = flag("y", "yes", "Always answer 'yes' to confirm prompts");
   static final Param<Void> VERBOSE = flag("vv", "verbose", "Verbose mode. Shows all commands");
   static final Param<Void> INCLUDE_PRE_RELEASES = Param.flag("ip", "include-pre-releases", "Include pre-release versions");
+  static final Param<Integer> DOWNLOAD_CONNECTIONS = arg(
+      "dc",
+      "download-connections",
+      "Number of parallel connections used to download the Aggregate WAR package (1 by default, up to 8)",
+      value -> {
+        int connections = Integer.parseInt(value.trim());
+        if (connections < 1 || connections > 8)
+          throw new IllegalArgumentException("The number of download connections must be between 1 and 8");
+        return connections;
+      }
+  );
+  static final Param<BandwidthLimiter> MAX_BANDWIDTH = arg(
+      "mb",
+      "max-bandwidth",
+      "Maximum bandwidth used to download the Aggregate WAR package, in bytes per second with an optional K, M or G suffix. Add a time window to apply it only during part of the day (e.g. 512K or 1M,08:00-18:00)",
+      BandwidthLimiter::parse
+  );
+  static final Param<Void> STREAM = flag("st", "stream", "Extract the Aggregate WAR package while it's downloaded, without writing it to a file. The package is not cached");
+  static final Param<String> SHA256 = arg(
+      "sha",
+      "sha256",
+      "Expected SHA-256 checksum of the Aggregate WAR package. Overrides the checksum published with the release",
+      value -> {
+        String sha256 = value.trim().toLowerCase();
+        if (!sha256.matches("[0-9a-f]{64}"))
+          throw new IllegalArgumentException("The SHA-256 checksum must have 64 hexadecimal digits");
+        return sha256;
+      }
+  );
+  static final Param<Void> NO_CACHE = flag("nc", "no-cache", "Don't use cached release information from GitHub");
+  static final Param<Duration> CACHE_MAX_AGE = arg(
+      "cma",
+      "cache-max-age",
+      "Seconds during which cached release information from GitHub is used without revalidating it (60 by default)",
+      value -> Duration.ofSeconds(Long.parseLong(value.trim()))
+  );
   public static final Param<EnvironmentConfiguration> CONFIGURATION_PATH = arg(
       "c",
       "configuration",
@@ -17,4 +57,13 @@ public final class CommonParams {
       EnvironmentConfiguration::from
   );
 
+  /**
+   * Marks the given request as cacheable, unless the {@link #NO_CACHE} param
+   * has been used.
+   */
+  static <T> Request<T> applyCachePolicy(Args args, Request<T> request) {
+    return args.has(NO_CACHE)
+        ? request
+        : request.cached(args.getOptional(CACHE_MAX_AGE).orElse(Duration.ofSeconds(60)));
+  }
 }
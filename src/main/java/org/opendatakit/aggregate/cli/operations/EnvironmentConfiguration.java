@@ -11,6 +11,8 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -18,8 +20,10 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.temporal.ChronoField;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import org.opendatakit.aggregate.cli.operations.Exceptions.ConfigurationException;
@@ -30,6 +34,7 @@ class EnvironmentConfiguration {
   private final JdbcConfiguration jdbc;
   private final SecurityConfiguration security;
   final TomcatConfiguration tomcat;
+  private final List<URL> mirrors;
   private static final PebbleEngine PEEBLE = new PebbleEngine.Builder()
       .newLineTrimming(false)
       .loader(new ClasspathLoader())
@@ -47,11 +52,12 @@ class EnvironmentConfiguration {
       .appendValue(ChronoField.SECOND_OF_MINUTE, 2)
       .toFormatter();
 
-  private EnvironmentConfiguration(Path home, JdbcConfiguration jdbc, SecurityConfiguration security, TomcatConfiguration tomcat) {
+  private EnvironmentConfiguration(Path home, JdbcConfiguration jdbc, SecurityConfiguration security, TomcatConfiguration tomcat, List<URL> mirrors) {
     this.home = home;
     this.jdbc = jdbc;
     this.security = security;
     this.tomcat = tomcat;
+    this.mirrors = mirrors;
   }
 
 
@@ -62,7 +68,8 @@ class EnvironmentConfiguration {
           Paths.get(root.get("home").asText()),
           JdbcConfiguration.from(toMap(root.get("jdbc"))),
           SecurityConfiguration.from(toMap(root.get("security"))),
-          TomcatConfiguration.from(toMap(root.get("tomcat")))
+          TomcatConfiguration.from(toMap(root.get("tomcat"))),
+          parseMirrors(root.get("mirrors"))
       );
     } catch (NullPointerException e) {
       throw new ConfigurationException("Missing values");
@@ -73,28 +80,98 @@ class EnvironmentConfiguration {
     }
   }
 
+  /**
+   * Mirrors are optional. Each one is the base URL of a copy of the files of
+   * Aggregate's GitHub releases, organized in a directory per release tag.
+   */
+  private static List<URL> parseMirrors(JsonNode mirrors) {
+    if (mirrors == null || mirrors.isNull())
+      return Collections.emptyList();
+    if (!mirrors.isArray())
+      throw new ConfigurationException("The mirrors must be a list of URLs");
+    List<URL> urls = new ArrayList<>();
+    mirrors.forEach(mirror -> {
+      String baseUrl = mirror.asText().trim();
+      try {
+        urls.add(new URL(baseUrl.endsWith("/") ? baseUrl : baseUrl + "/"));
+      } catch (MalformedURLException e) {
+        throw new ConfigurationException("Invalid mirror URL " + baseUrl);
+      }
+    });
+    return urls;
+  }
+
+  List<URL> getMirrors() {
+    return mirrors;
+  }
+
   Path getBackupPath() {
     return home.resolve("backup");
   }
 
+  static String buildBackupName(LocalDateTime date) {
+    return "aggregate-" + date.format(BACKUP_DATE_TIME_FORMATTER);
+  }
+
   Path buildBackupFilePath(LocalDateTime date) {
-    return getBackupPath().resolve("aggregate-" + date.format(BACKUP_DATE_TIME_FORMATTER) + ".zip");
+    return getBackupPath().resolve(buildBackupName(date) + ".zip");
+  }
+
+  Path buildBackupDirectoryPath(LocalDateTime date) {
+    return getBackupPath().resolve(buildBackupName(date));
+  }
+
+  /**
+   * Returns the directory of the content-addressed store of deduplicated
+   * backups.
+   */
+  Path getBackupStorePath() {
+    return getBackupPath().resolve("store");
+  }
+
+  Path getWarCachePath() {
+    return home.resolve("cache").resolve("wars");
   }
 
   Path getVersionFilePath() {
     return home.resolve("aggregate.version");
   }
 
+  /**
+   * Returns the file that lists the files of the deployed ROOT webapp.
+   */
+  Path getManifestFilePath() {
+    return home.resolve("aggregate.manifest");
+  }
+
   Path getRootWebappPath() {
     return tomcat.webappsLocation.resolve("ROOT");
   }
 
-  Path getJdbcConfigurationPath() {
-    return getRootWebappPath().resolve("WEB-INF/classes/jdbc.properties");
+  /**
+   * Returns the directory where the new ROOT webapp is prepared while Tomcat
+   * is running. It's next to the webapps directory, which keeps Tomcat from
+   * deploying it, and usually in the same file system, which lets it be
+   * moved into place with a rename.
+   */
+  Path getStagingWebappPath() {
+    return tomcat.webappsLocation.resolveSibling("ROOT-staging");
+  }
+
+  /**
+   * Returns the directory where the replaced ROOT webapp is kept until the
+   * new one has been deployed.
+   */
+  Path getPreviousWebappPath() {
+    return tomcat.webappsLocation.resolveSibling("ROOT-previous");
+  }
+
+  static Path getJdbcConfigurationPath(Path webapp) {
+    return webapp.resolve("WEB-INF/classes/jdbc.properties");
   }
 
-  Path getSecurityConfigurationPath() {
-    return getRootWebappPath().resolve("WEB-INF/classes/security.properties");
+  static Path getSecurityConfigurationPath(Path webapp) {
+    return webapp.resolve("WEB-INF/classes/security.properties");
   }
 
   static String renderConfigurationTemplate() {
@@ -0,0 +1,58 @@
+package org.opendatakit.aggregate.cli.operations;
+
+import static java.util.stream.Collectors.toList;
+import static org.opendatakit.aggregate.cli.reused.http.DownloadProgress.humanReadable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import org.opendatakit.aggregate.cli.reused.http.HttpMetrics;
+import org.opendatakit.aggregate.cli.reused.http.RequestTiming;
+import org.opendatakit.cli.Console;
+
+/**
+ * This class prints how long the HTTP requests of a run took, phase by phase,
+ * when the verbose mode is enabled.
+ */
+public final class HttpSummary {
+  private HttpSummary() {
+  }
+
+  public static void print(Console console, HttpMetrics metrics) {
+    List<RequestTiming> timings = metrics.getTimings();
+    if (timings.isEmpty())
+      return;
+    List<List<String>> rows = new ArrayList<>(timings.stream().map(HttpSummary::row).collect(toList()));
+    rows.add(Arrays.asList(
+        timings.size() + " requests", "", "", "", "", "", "",
+        format(timings.stream().map(RequestTiming::getTotal).reduce(Duration.ZERO, Duration::plus)),
+        humanReadable(timings.stream().mapToLong(RequestTiming::getBytesReceived).sum())
+    ));
+    console.verbose("HTTP requests:");
+    console.verboseTable(rows, "Request", "Status", "DNS", "Connect", "TLS", "TTFB", "Transfer", "Total", "Received");
+  }
+
+  private static List<String> row(RequestTiming timing) {
+    return Arrays.asList(
+        timing.getRequest(),
+        timing.getStatusCode().isPresent() ? String.valueOf(timing.getStatusCode().getAsInt()) : timing.getFailure().orElse("-"),
+        format(timing.getDns()),
+        timing.isReusedConnection() ? "reused" : format(timing.getConnect()),
+        format(timing.getTls()),
+        format(timing.getTimeToFirstByte()),
+        format(timing.getTransfer()),
+        format(timing.getTotal()),
+        humanReadable(timing.getBytesReceived())
+    );
+  }
+
+  private static String format(Optional<Duration> duration) {
+    return duration.map(HttpSummary::format).orElse("-");
+  }
+
+  private static String format(Duration duration) {
+    return String.format("%.1f ms", duration.toNanos() / 1_000_000D);
+  }
+}
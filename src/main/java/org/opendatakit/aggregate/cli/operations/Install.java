@@ -1,56 +1,369 @@
 package org.opendatakit.aggregate.cli.operations;
 
 import static java.lang.String.format;
+import static java.util.stream.Collectors.toSet;
+import static org.opendatakit.aggregate.cli.reused.fs.UncheckedFiles.copy;
 import static org.opendatakit.aggregate.cli.reused.fs.UncheckedFiles.createTempDirectory;
+import static org.opendatakit.aggregate.cli.reused.fs.UncheckedFiles.deleteIfExists;
+import static org.opendatakit.aggregate.cli.reused.fs.UncheckedFiles.deleteTree;
+import static org.opendatakit.aggregate.cli.reused.fs.UncheckedFiles.linkOrCopy;
+import static org.opendatakit.aggregate.cli.reused.fs.UncheckedFiles.moveTree;
 import static org.opendatakit.aggregate.cli.reused.fs.UncheckedFiles.write;
+import static org.opendatakit.aggregate.cli.reused.http.DownloadProgress.humanReadable;
 
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import org.opendatakit.aggregate.cli.operations.Exceptions.OperationException;
+import org.opendatakit.aggregate.cli.reused.fs.ArtifactCache;
+import org.opendatakit.aggregate.cli.reused.fs.FileManifest;
+import org.opendatakit.aggregate.cli.reused.fs.Ownership;
+import org.opendatakit.aggregate.cli.reused.fs.ZipDirectory;
+import org.opendatakit.aggregate.cli.reused.fs.ZipExtractor;
+import org.opendatakit.aggregate.cli.reused.http.BandwidthLimiter;
+import org.opendatakit.aggregate.cli.reused.http.DeltaDownloader;
+import org.opendatakit.aggregate.cli.reused.http.DownloadProgress;
+import org.opendatakit.aggregate.cli.reused.http.Downloader;
+import org.opendatakit.aggregate.cli.reused.http.Http;
+import org.opendatakit.aggregate.cli.reused.http.HttpException;
+import org.opendatakit.aggregate.cli.reused.http.Mirrors;
+import org.opendatakit.aggregate.cli.reused.http.Response;
 import org.opendatakit.aggregate.cli.reused.releases.Version;
 import org.opendatakit.cli.Console;
 
 final class Install {
-  static void install(Console console, EnvironmentConfiguration conf, Version version, String warUrl) {
+  // Enough room for the last ten Aggregate releases
+  private static final long WAR_CACHE_MAX_SIZE = 512L * 1024 * 1024;
+  private static final Duration MIRROR_PROBE_TIMEOUT = Duration.ofSeconds(5);
+
+  /**
+   * Installs the given WAR package in two phases, to keep Aggregate down for
+   * as short as possible:
+   * <ul>
+   * <li>The prepare phase fetches, verifies and extracts the WAR package, and
+   * renders its configuration, into a staging directory while Tomcat is still
+   * running. Any failure leaves the current installation untouched. Files
+   * that haven't changed since the last installation are linked instead of
+   * extracted, or copied when the current ROOT webapp has to stay isolated
+   * from the new one (e.g. when it's been backed up with hard links).</li>
+   * <li>The commit phase stops Tomcat, swaps the ROOT webapp with the staging
+   * directory and starts Tomcat again.</li>
+   * </ul>
+   * The installed version and manifest are only recorded once the new ROOT
+   * webapp is running, so that a failure while recording them doesn't roll
+   * it back.
+   */
+  static void install(Console console, Http http, EnvironmentConfiguration conf, WarPackage war, Optional<Version> previousVersion, int downloadConnections, BandwidthLimiter bandwidthLimiter, boolean stream, boolean linkUnchanged) {
+    // Fail before stopping Tomcat if its user or group don't exist
+    Ownership ownership = Ownership.of(conf.tomcat.uid, conf.tomcat.gid);
+    Path stagingDir = conf.getStagingWebappPath();
+    FileManifest manifest = prepare(console, http, conf, war, previousVersion, stagingDir, ownership, downloadConnections, bandwidthLimiter, stream, linkUnchanged);
+    Duration downtime = commit(console, conf, stagingDir);
+    try {
+      console.block("Recording the installation", () -> record(conf, war.version, manifest));
+    } finally {
+      console.block("Cleaning up", () -> deleteTree(conf.getPreviousWebappPath()));
+      printDowntime(console, downtime);
+    }
+  }
+
+  private static FileManifest prepare(Console console, Http http, EnvironmentConfiguration conf, WarPackage war, Optional<Version> previousVersion, Path stagingDir, Ownership ownership, int downloadConnections, BandwidthLimiter bandwidthLimiter, boolean stream, boolean linkUnchanged) {
+    Path tmpDir = createTempDirectory("aggregate-cli");
+    Path warFile = tmpDir.resolve("aggregate.war");
+    // Leftovers of an interrupted installation
+    deleteTree(stagingDir);
+    AtomicReference<FileManifest> manifest = new AtomicReference<>();
+    try {
+      console.block("Fetching Aggregate", () -> fetch(console, http, conf, war, previousVersion, warFile, stream, stagingDir, ownership, downloadConnections, bandwidthLimiter));
+      console.block("Preparing Aggregate", () -> {
+        // Streamed WAR packages have already been extracted
+        if (Files.isDirectory(stagingDir))
+          manifest.set(FileManifest.scan(stagingDir));
+        else
+          manifest.set(extract(console, conf, warFile, stagingDir, ownership, linkUnchanged));
+        deployConfiguration(conf, stagingDir, ownership);
+      });
+      return manifest.get();
+    } catch (RuntimeException e) {
+      deleteTree(stagingDir);
+      throw e;
+    } finally {
+      deleteTree(tmpDir);
+    }
+  }
+
+  /**
+   * Returns how long Tomcat was stopped. If the ROOT webapp can't be swapped,
+   * the previous one is restored and Tomcat is started again anyway.
+   */
+  private static Duration commit(Console console, EnvironmentConfiguration conf, Path stagingDir) {
+    long stoppedAt = System.nanoTime();
     console.block("Stopping Tomcat", () -> stopTomcat(console));
-    console.block("Cleaning ROOT webapp", () -> cleanRootWebapp(console, conf));
-    console.block("Deploying Aggregate", () -> deploy(console, conf, warUrl));
-    console.block("Deploying configuration", () -> deployConfiguration(conf));
-    console.block("Completing installation & cleanup", () -> {
-      fixWebappsPermissions(console, conf);
-      writeVersion(conf, version);
-    });
+    try {
+      console.block("Replacing ROOT webapp", () -> {
+        // The manifest of the current ROOT webapp would describe the new one
+        // if this run failed or died before writing the new manifest
+        deleteIfExists(conf.getManifestFilePath());
+        swapRootWebapp(console, conf, stagingDir);
+      });
+    } catch (RuntimeException e) {
+      console.block("Starting Tomcat", () -> startTomcat(console));
+      printDowntime(console, Duration.ofNanos(System.nanoTime() - stoppedAt));
+      throw e;
+    }
     console.block("Starting Tomcat", () -> startTomcat(console));
+    return Duration.ofNanos(System.nanoTime() - stoppedAt);
   }
 
-  private static void startTomcat(Console console) {
-    console.execute("service tomcat8 start", true);
+  private static void printDowntime(Console console, Duration downtime) {
+    console.out(format("Tomcat was stopped for %.1f seconds", downtime.toMillis() / 1000.0));
   }
 
-  private static void writeVersion(EnvironmentConfiguration conf, Version version) {
-    write(conf.getVersionFilePath(), version.toString().getBytes());
+  private static void startTomcat(Console console) {
+    console.execute("service tomcat8 start", true);
   }
 
-  private static void fixWebappsPermissions(Console console, EnvironmentConfiguration conf) {
-    console.execute(format("chown -R %s:%s %s", conf.tomcat.uid, conf.tomcat.gid, conf.getRootWebappPath()), true);
+  /**
+   * Records the version and the manifest of the deployed ROOT webapp. The
+   * manifest is written last, since the next installation links the files it
+   * lists from the deployed ROOT webapp.
+   */
+  private static void record(EnvironmentConfiguration conf, Version version, FileManifest manifest) {
+    try {
+      write(conf.getVersionFilePath(), version.toString().getBytes());
+      manifest.write(conf.getManifestFilePath());
+    } catch (RuntimeException e) {
+      throw new OperationException(format(
+          "Aggregate %s was installed, but it couldn't be recorded at %s: %s",
+          version,
+          conf.getVersionFilePath().getParent(),
+          e.getMessage()
+      ), e);
+    }
   }
 
-  private static void deployConfiguration(EnvironmentConfiguration conf) {
-    write(conf.getJdbcConfigurationPath(), conf.renderJdbcConfiguration().getBytes());
-    write(conf.getSecurityConfigurationPath(), conf.renderSecurityConfiguration().getBytes());
+  private static void deployConfiguration(EnvironmentConfiguration conf, Path webapp, Ownership ownership) {
+    Path jdbcConfiguration = EnvironmentConfiguration.getJdbcConfigurationPath(webapp);
+    Path securityConfiguration = EnvironmentConfiguration.getSecurityConfigurationPath(webapp);
+    // They could be links to the files of the running ROOT webapp
+    deleteIfExists(jdbcConfiguration);
+    deleteIfExists(securityConfiguration);
+    write(jdbcConfiguration, conf.renderJdbcConfiguration().getBytes());
+    write(securityConfiguration, conf.renderSecurityConfiguration().getBytes());
+    ownership.apply(jdbcConfiguration);
+    ownership.apply(securityConfiguration);
   }
 
   private static void stopTomcat(Console console) {
     console.execute("service tomcat8 stop", true);
   }
 
-  private static void cleanRootWebapp(Console console, EnvironmentConfiguration conf) {
-    console.execute(format("rm -rf %s", conf.getRootWebappPath().toAbsolutePath()));
+  /**
+   * Replaces the ROOT webapp with the prepared one, using renames when the
+   * staging directory and the webapps directory share a file system. The
+   * previous ROOT webapp is restored if the prepared one can't be moved.
+   */
+  private static void swapRootWebapp(Console console, EnvironmentConfiguration conf, Path stagingDir) {
+    Path root = conf.getRootWebappPath();
+    Path previous = conf.getPreviousWebappPath();
+    console.verbose("Moving " + root + " to " + previous + " and " + stagingDir + " to " + root);
+    deleteTree(previous);
+    if (Files.exists(root))
+      moveTree(root, previous);
+    try {
+      moveTree(stagingDir, root);
+    } catch (RuntimeException e) {
+      deleteTree(root);
+      if (Files.exists(previous))
+        moveTree(previous, root);
+      throw e;
+    }
   }
 
-  private static void deploy(Console console, EnvironmentConfiguration conf, String warUrl) {
-    Path tmpDir = createTempDirectory("aggregate-cli");
-    Path tmpAggregateWar = tmpDir.resolve("aggregate.war");
-    console.execute(format("wget -O %s %s", tmpAggregateWar, warUrl));
-    console.execute(format("unzip -qq %s -d %s", tmpAggregateWar, conf.getRootWebappPath()));
-    console.execute(format("rm -rf %s", tmpDir));
+  private static void fetch(Console console, Http http, EnvironmentConfiguration conf, WarPackage war, Optional<Version> previousVersion, Path target, boolean stream, Path stagingDir, Ownership ownership, int downloadConnections, BandwidthLimiter bandwidthLimiter) {
+    Optional<String> expectedSha256 = getExpectedSha256(console, http, war);
+    ArtifactCache cache = openWarCache(conf);
+    boolean fetchedFromCache = war.cacheKey
+        .flatMap(key -> cache.read(key, expectedSha256, cachedWar -> {
+          console.out("  Using cached " + cachedWar.getFileName());
+          linkOrCopy(cachedWar, target);
+          return true;
+        }))
+        .orElse(false);
+    if (fetchedFromCache)
+      return;
+
+    List<URL> sources = Mirrors.byLatency(http, war.getSources(conf.getMirrors()), MIRROR_PROBE_TIMEOUT);
+    if (bandwidthLimiter != BandwidthLimiter.UNLIMITED)
+      console.out("  Limiting the bandwidth to " + bandwidthLimiter);
+    if (stream && fetchStreaming(console, http, sources.get(0), stagingDir, expectedSha256, ownership, bandwidthLimiter))
+      return;
+
+    console.verbose("Downloading " + sources.get(0) + " to " + target);
+    DownloadProgress download = previousVersion
+        .filter(previous -> !previous.equals(war.version))
+        .flatMap(previous -> fetchDelta(console, http, cache, previous, sources.get(0), target, expectedSha256, downloadConnections, bandwidthLimiter))
+        .orElseGet(() -> new Downloader(http, bandwidthLimiter).download(
+            sources,
+            target,
+            war.size,
+            downloadConnections,
+            progress -> console.verbose("  " + progress)
+        ));
+    console.out("  Downloaded " + download);
+    String sha256 = download.getSha256().orElseThrow(IllegalStateException::new);
+    verifySha256(console, sha256, expectedSha256);
+
+    war.cacheKey.ifPresent(key -> {
+      Path cacheCopy = target.resolveSibling("cached.war");
+      linkOrCopy(target, cacheCopy);
+      cache.put(key, cacheCopy, sha256);
+    });
+  }
+
+  /**
+   * Extracts the WAR package into the staging directory while it's downloaded,
+   * without writing it to a file, which means that it won't be cached.
+   * <p>
+   * Returns false if the download or the extraction fail, after discarding
+   * whatever was extracted, to let the caller download the WAR package to a
+   * file instead.
+   */
+  private static boolean fetchStreaming(Console console, Http http, URL source, Path stagingDir, Optional<String> expectedSha256, Ownership ownership, BandwidthLimiter bandwidthLimiter) {
+    console.verbose("Downloading " + source + " and extracting it to " + stagingDir);
+    DownloadProgress download;
+    try {
+      download = new Downloader(http, bandwidthLimiter).stream(
+          source,
+          contents -> ZipExtractor.parallel(ownership).extract(contents, stagingDir),
+          progress -> console.verbose("  " + progress)
+      );
+    } catch (HttpException | UncheckedIOException e) {
+      deleteTree(stagingDir);
+      console.out("  Can't extract the WAR package while it's downloaded (" + e.getMessage() + "). Downloading it to a file instead");
+      return false;
+    }
+    console.out("  Downloaded and extracted " + download);
+    String sha256 = download.getSha256().orElseThrow(IllegalStateException::new);
+    try {
+      verifySha256(console, sha256, expectedSha256);
+    } catch (OperationException e) {
+      deleteTree(stagingDir);
+      throw e;
+    }
+    return true;
+  }
+
+  private static void verifySha256(Console console, String sha256, Optional<String> expectedSha256) {
+    if (expectedSha256.isPresent() && !expectedSha256.get().equals(sha256))
+      throw new OperationException(format(
+          "The SHA-256 checksum of the downloaded WAR package is %s, but %s was expected. The installed Aggregate hasn't been modified",
+          sha256,
+          expectedSha256.get()
+      ));
+    console.out(expectedSha256.isPresent()
+        ? "  Verified SHA-256 checksum " + sha256
+        : "  No checksum is available to verify the WAR package. Its SHA-256 checksum is " + sha256);
+  }
+
+  /**
+   * Consecutive Aggregate versions share most of the entries of their WAR
+   * packages (e.g. the libraries at WEB-INF/lib), which can be taken from
+   * the cached WAR package of the previous version instead of downloading them.
+   */
+  private static Optional<DownloadProgress> fetchDelta(Console console, Http http, ArtifactCache cache, Version previousVersion, URL source, Path target, Optional<String> expectedSha256, int downloadConnections, BandwidthLimiter bandwidthLimiter) {
+    Path base = target.resolveSibling("previous.war");
+    boolean baseFetched = cache.read(WarPackage.cacheKey(previousVersion.toString()), cachedWar -> {
+      linkOrCopy(cachedWar, base);
+      return true;
+    }).orElse(false);
+    if (!baseFetched)
+      return Optional.empty();
+
+    console.out("  Downloading the differences with the cached Aggregate " + previousVersion);
+    Optional<DownloadProgress> download = new DeltaDownloader(http, bandwidthLimiter).download(source, base, target, expectedSha256, downloadConnections);
+    deleteIfExists(base);
+    if (download.isPresent()) {
+      DownloadProgress delta = download.get();
+      console.out(format(
+          "  Saved %s (%d%%) of the download by reusing the cached Aggregate %s",
+          humanReadable(delta.getReusedBytes()),
+          delta.getReusedBytes() * 100 / delta.getTotalBytes().orElse(delta.getReusedBytes()),
+          previousVersion
+      ));
+    } else
+      console.out("  Can't download only the differences. Downloading the whole WAR package");
+    return download;
+  }
+
+  static ArtifactCache openWarCache(EnvironmentConfiguration conf) {
+    return ArtifactCache.at(conf.getWarCachePath(), WAR_CACHE_MAX_SIZE);
+  }
+
+  private static Optional<String> getExpectedSha256(Console console, Http http, WarPackage war) {
+    if (war.sha256.isPresent() || !war.checksum.isPresent())
+      return war.sha256;
+    Response<Optional<String>> response = http.execute(war.checksum.get());
+    if (!response.isSuccess() || !response.get().isPresent())
+      console.out("  Can't get the published checksum of the WAR package");
+    return response.orElse(Optional.empty());
+  }
+
+  /**
+   * Extracts the WAR package in parallel, owned by Tomcat's user and group.
+   * <p>
+   * Files listed with the same checksum and size in the manifest of the
+   * deployed ROOT webapp are hard linked from it instead, which avoids
+   * rewriting them and keeps them in the page cache, or copied from it when
+   * they must not share their inodes with it. Files that don't have
+   * their deployed size anymore (e.g. the configuration files) are extracted
+   * again.
+   *
+   * @return the manifest of the extracted WAR package
+   */
+  private static FileManifest extract(Console console, EnvironmentConfiguration conf, Path war, Path targetDir, Ownership ownership, boolean linkUnchanged) {
+    Path root = conf.getRootWebappPath();
+    FileManifest manifest = FileManifest.of(ZipDirectory.read(war));
+    Optional<FileManifest> deployed = FileManifest.read(conf.getManifestFilePath()).filter(m -> Files.isDirectory(root));
+    Set<String> unchanged = deployed
+        .map(manifest::getUnchangedNames)
+        .orElse(Collections.emptyList())
+        .stream()
+        .filter(name -> Files.isRegularFile(root.resolve(name)) && root.resolve(name).toFile().length() == manifest.getSize(name))
+        .collect(toSet());
+
+    console.verbose("Extracting " + war + " to " + targetDir);
+    int files = ZipExtractor.parallel(ownership).extract(war, targetDir, name -> !unchanged.contains(name));
+    for (String name : unchanged) {
+      // Applying the ownership to a linked file changes the deployed one too
+      if (linkUnchanged)
+        linkOrCopy(root.resolve(name), targetDir.resolve(name));
+      else
+        copy(root.resolve(name), targetDir.resolve(name));
+      ownership.apply(targetDir.resolve(name));
+    }
+
+    long bytes = manifest.getNames().stream()
+        .filter(name -> !unchanged.contains(name))
+        .mapToLong(manifest::getSize)
+        .sum();
+    if (deployed.isPresent())
+      console.out(format(
+          "  Wrote %d files (%s), kept %d unchanged files and deleted %d files",
+          files,
+          humanReadable(bytes),
+          unchanged.size(),
+          deployed.get().getNames().stream().filter(name -> !manifest.getNames().contains(name)).count()
+      ));
+    else
+      console.out(format("  Extracted %d files (%s)", files, humanReadable(bytes)));
+    return manifest;
   }
 }
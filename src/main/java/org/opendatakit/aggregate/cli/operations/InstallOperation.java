@@ -5,18 +5,26 @@ import static java.nio.file.Files.exists;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static org.opendatakit.aggregate.cli.operations.CommonParams.ALWAYS_YES;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.CACHE_MAX_AGE;
 import static org.opendatakit.aggregate.cli.operations.CommonParams.CONFIGURATION_PATH;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.DOWNLOAD_CONNECTIONS;
 import static org.opendatakit.aggregate.cli.operations.CommonParams.FORCE;
 import static org.opendatakit.aggregate.cli.operations.CommonParams.INCLUDE_PRE_RELEASES;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.MAX_BANDWIDTH;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.NO_CACHE;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.SHA256;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.STREAM;
 import static org.opendatakit.aggregate.cli.operations.CommonParams.VERBOSE;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.applyCachePolicy;
 import static org.opendatakit.aggregate.cli.operations.Install.install;
 import static org.opendatakit.cli.Param.arg;
 import static org.opendatakit.cli.Param.flag;
 
 import java.util.Optional;
 import org.opendatakit.aggregate.cli.operations.Exceptions.OperationException;
-import org.opendatakit.aggregate.cli.reused.Pair;
+import org.opendatakit.aggregate.cli.reused.http.BandwidthLimiter;
 import org.opendatakit.aggregate.cli.reused.http.Http;
+import org.opendatakit.aggregate.cli.reused.http.HttpMetrics;
 import org.opendatakit.aggregate.cli.reused.releases.Release;
 import org.opendatakit.aggregate.cli.reused.releases.ReleaseQueries;
 import org.opendatakit.aggregate.cli.reused.releases.Version;
@@ -38,16 +46,16 @@ public class InstallOperation {
       Version::from
   );
 
-  public static Operation build(Http http) {
+  public static Operation build(Http http, HttpMetrics metrics) {
     return Operation.of(
         flag("i", "install", "Install ODK Aggregate"),
-        (console, args) -> execute(http, console, args),
+        (console, args) -> execute(http, metrics, console, args),
         singletonList(CONFIGURATION_PATH),
-        asList(INCLUDE_PRE_RELEASES, ALWAYS_YES, FORCE, VERBOSE, CUSTOM_URL, CUSTOM_VERSION)
+        asList(INCLUDE_PRE_RELEASES, ALWAYS_YES, FORCE, VERBOSE, CUSTOM_URL, CUSTOM_VERSION, DOWNLOAD_CONNECTIONS, MAX_BANDWIDTH, STREAM, SHA256, NO_CACHE, CACHE_MAX_AGE)
     );
   }
 
-  private static void execute(Http http, Console console, Args args) {
+  private static void execute(Http http, HttpMetrics metrics, Console console, Args args) {
     console.setVerboseMode(args.has(VERBOSE));
     console.setAlwaysYesMode(args.has(ALWAYS_YES));
 
@@ -72,35 +80,35 @@ public class InstallOperation {
     console.out();
     console.out("Please, read carefully:");
     console.out("- The ROOT webapp will be replaced with the latest available Aggregate release or a custom build you provide.");
-    console.out("- Tomcat will be stopped during the whole process.");
+    console.out("- Tomcat will be stopped only while the new version replaces the ROOT webapp.");
     console.out();
     if (!console.confirm("Are you ready to continue?"))
       console.exit();
 
     // Do the installation
-    Pair<Version, String> selectedVersion = resolveSelectedVersion(http, args);
+    WarPackage war = resolveSelectedVersion(http, args).withSha256(args.getOptional(SHA256));
 
-    console.out("Installing Aggregate " + selectedVersion.getLeft() + " from " + selectedVersion.getRight());
+    console.out("Installing " + war);
     console.out();
 
-    install(console, conf, selectedVersion.getLeft(), selectedVersion.getRight());
+    install(console, http, conf, war, Optional.empty(), args.getOptional(DOWNLOAD_CONNECTIONS).orElse(1), args.getOptional(MAX_BANDWIDTH).orElse(BandwidthLimiter.UNLIMITED), args.has(STREAM), true);
 
+    HttpSummary.print(console, metrics);
     console.exit();
   }
 
-  private static Pair<Version, String> resolveSelectedVersion(Http http, Args args) {
+  private static WarPackage resolveSelectedVersion(Http http, Args args) {
     Optional<String> maybeCustomUrl = args.getOptional(CUSTOM_URL).filter(s -> !s.trim().isEmpty());
     Optional<Version> maybeCustomVersion = args.getOptional(CUSTOM_VERSION);
     if (maybeCustomVersion.isPresent() && maybeCustomUrl.isPresent())
-      return Pair.of(maybeCustomVersion.get(), maybeCustomUrl.get());
+      return WarPackage.custom(maybeCustomVersion.get(), maybeCustomUrl.get());
 
-    Version latestVersion = http.execute(ReleaseQueries.latest(args.has(INCLUDE_PRE_RELEASES))
-        .withMapper(Release::getVersion))
+    Release latestRelease = ReleaseQueries.latest(http, applyCachePolicy(args, ReleaseQueries.all(args.has(INCLUDE_PRE_RELEASES))))
         .orElseThrow(() -> new OperationException(format(
             "No available versions found. Run with %s to include pre-release versions",
             INCLUDE_PRE_RELEASES.getShortCodeSyntax()
         )));
-    return Pair.of(latestVersion, latestVersion.buildGitHubDownloadUrl());
+    return WarPackage.from(latestRelease);
   }
 
   public static String getConfigurationTemplate() {
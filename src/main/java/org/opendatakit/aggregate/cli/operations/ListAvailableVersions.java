@@ -4,10 +4,12 @@ import static java.lang.String.format;
 import static java.time.format.DateTimeFormatter.ofLocalizedDateTime;
 import static java.time.format.FormatStyle.LONG;
 import static java.util.Collections.emptyList;
-import static java.util.Collections.singletonList;
 import static org.opendatakit.aggregate.cli.operations.CommonParams.ALWAYS_YES;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.CACHE_MAX_AGE;
 import static org.opendatakit.aggregate.cli.operations.CommonParams.INCLUDE_PRE_RELEASES;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.NO_CACHE;
 import static org.opendatakit.aggregate.cli.operations.CommonParams.VERBOSE;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.applyCachePolicy;
 import static org.opendatakit.cli.Param.flag;
 
 import java.util.Arrays;
@@ -15,6 +17,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 import org.opendatakit.aggregate.cli.reused.http.Http;
+import org.opendatakit.aggregate.cli.reused.http.HttpMetrics;
 import org.opendatakit.aggregate.cli.reused.releases.Release;
 import org.opendatakit.aggregate.cli.reused.releases.ReleaseQueries;
 import org.opendatakit.cli.Args;
@@ -23,23 +26,23 @@ import org.opendatakit.cli.Operation;
 
 public class ListAvailableVersions {
 
-  public static Operation build(Http http) {
+  public static Operation build(Http http, HttpMetrics metrics) {
     return Operation.of(
         flag("l", "list", "List available versions"),
-        (console, args) -> execute(http, console, args),
+        (console, args) -> execute(http, metrics, console, args),
         emptyList(),
-        singletonList(INCLUDE_PRE_RELEASES)
+        Arrays.asList(INCLUDE_PRE_RELEASES, VERBOSE, NO_CACHE, CACHE_MAX_AGE)
     );
   }
 
-  private static void execute(Http http, Console console, Args args) {
+  private static void execute(Http http, HttpMetrics metrics, Console console, Args args) {
     console.setVerboseMode(args.has(VERBOSE));
     console.setAlwaysYesMode(args.has(ALWAYS_YES));
 
     console.out("List of available releases:");
     console.out();
 
-    List<Release> releases = http.execute(ReleaseQueries.all(args.has(INCLUDE_PRE_RELEASES))).orElse(emptyList());
+    List<Release> releases = ReleaseQueries.fetchAll(http, applyCachePolicy(args, ReleaseQueries.all(args.has(INCLUDE_PRE_RELEASES))));
 
     if (releases.isEmpty()) {
       console.out(format(
@@ -55,6 +58,8 @@ public class ListAvailableVersions {
         .sorted(((Comparator<Release>) Release::compareTo).reversed())
         .map(r -> Arrays.asList(r.getVersion().toString(), r.getPublishedAt().format(ofLocalizedDateTime(LONG))))
         .collect(Collectors.toList()), "Version", "Publish date");
+
+    HttpSummary.print(console, metrics);
   }
 
 }
@@ -0,0 +1,60 @@
+package org.opendatakit.aggregate.cli.operations;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.joining;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.CONFIGURATION_PATH;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.VERBOSE;
+import static org.opendatakit.cli.Param.arg;
+import static org.opendatakit.cli.Param.flag;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import org.opendatakit.aggregate.cli.operations.Exceptions.OperationException;
+import org.opendatakit.aggregate.cli.reused.fs.ContentStore;
+import org.opendatakit.cli.Args;
+import org.opendatakit.cli.Console;
+import org.opendatakit.cli.Operation;
+import org.opendatakit.cli.Param;
+
+/**
+ * This operation rebuilds a ROOT webapp backed up by the update operation in
+ * dedup mode into a directory, from where it can be inspected or moved back
+ * into Tomcat's webapps directory.
+ */
+public class RestoreBackup {
+  private static final Param<String> BACKUP_NAME = arg("bn", "backup-name", "Name of the backup to restore (the latest one by default)", String::trim);
+  private static final Param<Path> RESTORE_PATH = arg("rp", "restore-path", "Directory where the backup is restored. It must not exist", Paths::get);
+
+  public static Operation build() {
+    return Operation.of(
+        flag("rb", "restore-backup", "Restore a dedup backup of the ROOT webapp"),
+        RestoreBackup::execute,
+        asList(CONFIGURATION_PATH, RESTORE_PATH),
+        asList(BACKUP_NAME, VERBOSE)
+    );
+  }
+
+  private static void execute(Console console, Args args) {
+    console.setVerboseMode(args.has(VERBOSE));
+
+    EnvironmentConfiguration conf = args.get(CONFIGURATION_PATH);
+    Path target = args.get(RESTORE_PATH);
+    if (Files.exists(target))
+      throw new OperationException(target + " already exists. Choose a directory that doesn't exist");
+    ContentStore store = Backup.openBackupStore(conf);
+    List<String> backups = store.list();
+    if (backups.isEmpty())
+      throw new OperationException("There are no dedup backups at " + conf.getBackupStorePath());
+    String name = args.getOptional(BACKUP_NAME).orElse(backups.get(backups.size() - 1));
+    if (!backups.contains(name))
+      throw new OperationException("There's no backup named " + name + ". Available backups: " + backups.stream().collect(joining(", ")));
+
+    console.block("Restoring " + name + " to " + target, () -> {
+      int files = store.restore(name, target);
+      console.out("  Restored and verified " + files + " files");
+    });
+    console.exit();
+  }
+}
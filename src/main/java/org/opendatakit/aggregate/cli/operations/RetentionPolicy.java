@@ -0,0 +1,113 @@
+package org.opendatakit.aggregate.cli.operations;
+
+import static java.util.Comparator.comparing;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class decides which backups are pruned after an update.
+ * <p>
+ * A backup is kept if it's one of the last N backups, or if it's younger
+ * than the given age. Then, the oldest of the kept backups are pruned until
+ * their total size is under the given limit. The newest backup is never
+ * pruned.
+ */
+final class RetentionPolicy {
+  private static final Pattern SIZE = Pattern.compile("(?<amount>\\d+(\\.\\d+)?)(?<unit>[KMGkmg]?)");
+  private static final Pattern AGE = Pattern.compile("(?<amount>\\d+)(?<unit>[hdwHDW])");
+  private final Optional<Integer> keepLast;
+  private final Optional<Duration> keepWithin;
+  private final Optional<Long> maxTotalSize;
+
+  private RetentionPolicy(Optional<Integer> keepLast, Optional<Duration> keepWithin, Optional<Long> maxTotalSize) {
+    this.keepLast = keepLast;
+    this.keepWithin = keepWithin;
+    this.maxTotalSize = maxTotalSize;
+  }
+
+  static RetentionPolicy of(Optional<Integer> keepLast, Optional<Duration> keepWithin, Optional<Long> maxTotalSize) {
+    return new RetentionPolicy(keepLast, keepWithin, maxTotalSize);
+  }
+
+  /**
+   * Tells if this policy has no rules, in which case all backups are kept.
+   */
+  boolean isEmpty() {
+    return !keepLast.isPresent() && !keepWithin.isPresent() && !maxTotalSize.isPresent();
+  }
+
+  /**
+   * Returns the backups that have to be pruned, from oldest to newest.
+   *
+   * @param entries the backups, from oldest to newest
+   */
+  List<BackupCatalog.Entry> selectPruned(List<BackupCatalog.Entry> entries, LocalDateTime now) {
+    List<BackupCatalog.Entry> kept = new ArrayList<>();
+    List<BackupCatalog.Entry> pruned = new ArrayList<>();
+    for (int i = 0; i < entries.size(); i++) {
+      BackupCatalog.Entry entry = entries.get(i);
+      if (isKept(entry, entries.size() - i, now))
+        kept.add(entry);
+      else
+        pruned.add(entry);
+    }
+    if (maxTotalSize.isPresent()) {
+      long totalSize = kept.stream().mapToLong(BackupCatalog.Entry::getSize).sum();
+      while (totalSize > maxTotalSize.get() && kept.size() > 1) {
+        BackupCatalog.Entry oldest = kept.remove(0);
+        pruned.add(oldest);
+        totalSize -= oldest.getSize();
+      }
+    }
+    pruned.sort(comparing(BackupCatalog.Entry::getCreated));
+    return pruned;
+  }
+
+  /**
+   * @param position the position of the entry, counting from the newest one, which is 1
+   */
+  private boolean isKept(BackupCatalog.Entry entry, int position, LocalDateTime now) {
+    if (position == 1)
+      return true;
+    if (!keepLast.isPresent() && !keepWithin.isPresent())
+      return true;
+    return keepLast.map(last -> position <= last).orElse(false)
+        || keepWithin.map(age -> entry.getCreated().isAfter(now.minus(age))).orElse(false);
+  }
+
+  /**
+   * Parses a size in bytes, with an optional K, M or G binary suffix (e.g. "500M").
+   */
+  static long parseSize(String spec) {
+    Matcher matcher = SIZE.matcher(spec.trim());
+    if (!matcher.matches())
+      throw new IllegalArgumentException("Invalid size " + spec + ". Use a number of bytes, like 500M or 2G");
+    String unit = matcher.group("unit").toUpperCase();
+    long multiplier = unit.isEmpty() ? 1 : 1L << (10 * ("KMG".indexOf(unit) + 1));
+    return (long) (Double.parseDouble(matcher.group("amount")) * multiplier);
+  }
+
+  /**
+   * Parses an age in hours, days or weeks (e.g. "12h", "30d" or "4w").
+   */
+  static Duration parseAge(String spec) {
+    Matcher matcher = AGE.matcher(spec.trim());
+    if (!matcher.matches())
+      throw new IllegalArgumentException("Invalid age " + spec + ". Use a number of hours, days or weeks, like 12h, 30d or 4w");
+    long amount = Long.parseLong(matcher.group("amount"));
+    switch (matcher.group("unit").toLowerCase()) {
+      case "h":
+        return Duration.ofHours(amount);
+      case "d":
+        return Duration.ofDays(amount);
+      default:
+        return Duration.ofDays(amount * 7);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package org.opendatakit.aggregate.cli.operations;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.CONFIGURATION_PATH;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.VERBOSE;
+import static org.opendatakit.cli.Param.arg;
+import static org.opendatakit.cli.Param.flag;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import org.opendatakit.aggregate.cli.reused.fs.ArtifactCache;
+import org.opendatakit.aggregate.cli.reused.http.FileServer;
+import org.opendatakit.aggregate.cli.reused.http.FileServer.ServedFile;
+import org.opendatakit.cli.Args;
+import org.opendatakit.cli.Console;
+import org.opendatakit.cli.Operation;
+import org.opendatakit.cli.Param;
+
+/**
+ * This operation serves the cached Aggregate WAR packages of this host to
+ * other hosts, which can use it as a mirror (see {@link WarPackage#getSources(List)}).
+ * This way, a WAR package is downloaded from GitHub only once per site.
+ */
+public class ServeCache {
+  private static final Param<Integer> PORT = arg(
+      "sp",
+      "serve-port",
+      "Port where the cached Aggregate WAR packages are served (8090 by default)",
+      value -> {
+        int port = Integer.parseInt(value.trim());
+        if (port < 1 || port > 65535)
+          throw new IllegalArgumentException("The port must be between 1 and 65535");
+        return port;
+      }
+  );
+
+  public static Operation build() {
+    return Operation.of(
+        flag("sc", "serve-cache", "Serve the cached Aggregate WAR packages to other hosts"),
+        ServeCache::execute,
+        singletonList(CONFIGURATION_PATH),
+        asList(PORT, VERBOSE)
+    );
+  }
+
+  private static void execute(Console console, Args args) {
+    console.setVerboseMode(args.has(VERBOSE));
+
+    EnvironmentConfiguration conf = args.get(CONFIGURATION_PATH);
+    ArtifactCache cache = Install.openWarCache(conf);
+
+    FileServer server = start(cache, new InetSocketAddress(args.getOptional(PORT).orElse(8090)));
+    Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+
+    console.out("Serving the cached Aggregate WAR packages at http://" + getHostName() + ":" + server.getPort() + "/");
+    console.out();
+    List<String> keys = cache.keys();
+    if (keys.isEmpty())
+      console.out("The cache is empty. WAR packages will be served as soon as they get cached by install or update operations");
+    keys.forEach(key -> console.out("  " + key));
+    console.out();
+    console.out("Add this URL to the mirrors of the configuration of other hosts to download WAR packages from this host");
+    console.out("Press Ctrl+C to stop");
+
+    try {
+      new CountDownLatch(1).await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Starts serving the WAR packages in the given cache at the given address,
+   * at the paths expected by mirror users: {@code /<version>/<file name>.war}
+   */
+  static FileServer start(ArtifactCache cache, InetSocketAddress address) {
+    return FileServer.start(address, path -> resolve(cache, path));
+  }
+
+  private static Optional<ServedFile> resolve(ArtifactCache cache, String path) {
+    String[] segments = path.split("/");
+    if (segments.length != 3 || !segments[0].isEmpty() || !segments[2].endsWith(".war"))
+      return Optional.empty();
+    String key = WarPackage.cacheKey(segments[1]);
+    try {
+      // Cache entries are immutable and the channel is opened while the
+      // entry can't be evicted, which lets us send it without holding the lock
+      return cache.read(key, file -> ServedFile.of(open(file), file.getFileName().toString()));
+    } catch (IllegalArgumentException e) {
+      // The version in the path is not a valid cache key
+      return Optional.empty();
+    }
+  }
+
+  private static FileChannel open(Path file) {
+    try {
+      return FileChannel.open(file, READ);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String getHostName() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      return "localhost";
+    }
+  }
+}
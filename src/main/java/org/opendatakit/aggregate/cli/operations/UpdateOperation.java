@@ -2,24 +2,34 @@ package org.opendatakit.aggregate.cli.operations;
 
 import static java.lang.String.format;
 import static java.nio.file.Files.exists;
-import static java.time.LocalDateTime.now;
 import static java.util.Arrays.asList;
-import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.joining;
 import static org.opendatakit.aggregate.cli.operations.CommonParams.ALWAYS_YES;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.CACHE_MAX_AGE;
 import static org.opendatakit.aggregate.cli.operations.CommonParams.CONFIGURATION_PATH;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.DOWNLOAD_CONNECTIONS;
 import static org.opendatakit.aggregate.cli.operations.CommonParams.FORCE;
 import static org.opendatakit.aggregate.cli.operations.CommonParams.INCLUDE_PRE_RELEASES;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.MAX_BANDWIDTH;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.NO_CACHE;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.SHA256;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.STREAM;
 import static org.opendatakit.aggregate.cli.operations.CommonParams.VERBOSE;
+import static org.opendatakit.aggregate.cli.operations.CommonParams.applyCachePolicy;
 import static org.opendatakit.aggregate.cli.operations.Install.install;
 import static org.opendatakit.aggregate.cli.reused.Optionals.race;
 import static org.opendatakit.cli.Param.arg;
 import static org.opendatakit.cli.Param.flag;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import org.opendatakit.aggregate.cli.reused.fs.ZipArchiver;
+import org.opendatakit.aggregate.cli.reused.http.BandwidthLimiter;
 import org.opendatakit.aggregate.cli.reused.http.Http;
+import org.opendatakit.aggregate.cli.reused.http.HttpMetrics;
+import org.opendatakit.aggregate.cli.reused.http.Request;
 import org.opendatakit.aggregate.cli.reused.releases.Release;
 import org.opendatakit.aggregate.cli.reused.releases.ReleaseQueries;
 import org.opendatakit.aggregate.cli.reused.releases.Version;
@@ -30,17 +40,57 @@ import org.opendatakit.cli.Param;
 
 public class UpdateOperation {
   private static final Param<Version> REQUESTED_VERSION = arg("rv", "requested-version", "Requested version (latest by default)", Version::from);
-
-  public static Operation build(Http http) {
+  private static final Param<Integer> BACKUP_COMPRESSION_LEVEL = arg(
+      "bcl",
+      "backup-compression-level",
+      "Compression level of zip backups, from 0 (store only) to 9 (6 by default)",
+      value -> {
+        int level = Integer.parseInt(value.trim());
+        if (level < ZipArchiver.STORE_ONLY || level > 9)
+          throw new IllegalArgumentException("The backup compression level must be between 0 and 9");
+        return level;
+      }
+  );
+  private static final Param<BackupMode> BACKUP_MODE = arg(
+      "bm",
+      "backup-mode",
+      "How the ROOT webapp is backed up before updating it: zip (by default), snapshot, which hard links its files instead of copying them (the files of the new version are then copied instead of linked from the current one, to keep the snapshot isolated), or dedup, which only stores the files that have changed since the previous dedup backups",
+      BackupMode::parse
+  );
+  private static final Param<Integer> KEEP_LAST = arg(
+      "kl",
+      "keep-last",
+      "Amount of most recent backups kept after the update",
+      value -> {
+        int last = Integer.parseInt(value.trim());
+        if (last < 1)
+          throw new IllegalArgumentException("The amount of kept backups must be at least 1");
+        return last;
+      }
+  );
+  private static final Param<Duration> KEEP_WITHIN = arg(
+      "kw",
+      "keep-within",
+      "Age in hours, days or weeks under which backups are kept after the update (e.g. 12h, 30d or 4w)",
+      RetentionPolicy::parseAge
+  );
+  private static final Param<Long> KEEP_MAX_SIZE = arg(
+      "kms",
+      "keep-max-size",
+      "Maximum total size of the backups kept after the update, in bytes with an optional K, M or G suffix (e.g. 2G). The oldest backups are pruned first, and the newest one is always kept. Dedup backups count the size of their store",
+      RetentionPolicy::parseSize
+  );
+
+  public static Operation build(Http http, HttpMetrics metrics) {
     return Operation.of(
         flag("u", "update", "Update ODK Aggregate"),
-        (console, args) -> execute(http, console, args),
+        (console, args) -> execute(http, metrics, console, args),
         singletonList(CONFIGURATION_PATH),
-        asList(REQUESTED_VERSION, INCLUDE_PRE_RELEASES, FORCE, ALWAYS_YES, VERBOSE)
+        asList(REQUESTED_VERSION, INCLUDE_PRE_RELEASES, FORCE, ALWAYS_YES, VERBOSE, DOWNLOAD_CONNECTIONS, MAX_BANDWIDTH, STREAM, SHA256, NO_CACHE, CACHE_MAX_AGE, BACKUP_MODE, BACKUP_COMPRESSION_LEVEL, KEEP_LAST, KEEP_WITHIN, KEEP_MAX_SIZE)
     );
   }
 
-  private static void execute(Http http, Console console, Args args) {
+  private static void execute(Http http, HttpMetrics metrics, Console console, Args args) {
     console.setVerboseMode(args.has(VERBOSE));
     console.setAlwaysYesMode(args.has(ALWAYS_YES));
 
@@ -54,7 +104,8 @@ public class UpdateOperation {
 
     // Check versions
     Version installedVersion = Version.read(conf.getVersionFilePath());
-    Version selectedVersion = resolveSelectedVersion(http, args);
+    Release selectedRelease = resolveSelectedRelease(http, args);
+    Version selectedVersion = selectedRelease.getVersion();
     if (installedVersion.equals(selectedVersion) && !args.has(FORCE))
       throw new Exceptions.OperationException(format(
           "Aggregate %s is already installed. Run this operation with -f to force the update",
@@ -67,7 +118,7 @@ public class UpdateOperation {
     console.out("Please, read carefully:");
     console.out("- A backup of the currently deployed Aggregate will be created at " + conf.getBackupPath());
     console.out("- The ROOT webapp will be replaced with the selected Aggregate release.");
-    console.out("- Tomcat will be stopped during the whole process.");
+    console.out("- Tomcat will be stopped only while the new version replaces the ROOT webapp.");
     console.out();
     console.out("Version information:");
     console.out("- Currently installed: " + installedVersion);
@@ -77,38 +128,46 @@ public class UpdateOperation {
       console.exit();
 
     // Backup aggregate
-    console.block("Backing up Aggregate", () -> {
-      console.execute(format("mkdir -p %s", conf.getBackupPath()), true);
-      console.execute(format(
-          "zip -q -r %s %s",
-          conf.buildBackupFilePath(now()),
-          conf.getRootWebappPath()
-      ));
-    });
+    BackupMode backupMode = args.getOptional(BACKUP_MODE).orElse(BackupMode.ZIP);
+    console.block("Backing up Aggregate", () -> Backup.backup(
+        console,
+        conf,
+        backupMode,
+        args.getOptional(BACKUP_COMPRESSION_LEVEL).orElse(6)
+    ));
 
     // Install selected version
-    install(console, conf, selectedVersion, selectedVersion.buildGitHubDownloadUrl());
+    install(console, http, conf, WarPackage.from(selectedRelease).withSha256(args.getOptional(SHA256)), Optional.of(installedVersion), args.getOptional(DOWNLOAD_CONNECTIONS).orElse(1), args.getOptional(MAX_BANDWIDTH).orElse(BandwidthLimiter.UNLIMITED), args.has(STREAM), backupMode.isIsolated());
 
+    // Prune old backups
+    RetentionPolicy retentionPolicy = RetentionPolicy.of(args.getOptional(KEEP_LAST), args.getOptional(KEEP_WITHIN), args.getOptional(KEEP_MAX_SIZE));
+    if (!retentionPolicy.isEmpty())
+      console.block("Pruning backups", () -> Backup.prune(console, conf, retentionPolicy));
+
+    HttpSummary.print(console, metrics);
     console.exit();
   }
 
-  private static Version resolveSelectedVersion(Http http, Args args) {
+  private static Release resolveSelectedRelease(Http http, Args args) {
     Optional<Version> requestedVersion = args.getOptional(REQUESTED_VERSION);
-    List<Release> availableReleases = http.execute(ReleaseQueries.all(args.has(INCLUDE_PRE_RELEASES))).orElse(emptyList());
-    Optional<Version> latestVersion = availableReleases.stream()
-        .map(Release::getVersion)
-        .max(Version::compareTo);
-
-    requestedVersion.ifPresent(version -> {
-      if (availableReleases.stream().noneMatch(release -> release.isVersion(version)))
-        throw new Exceptions.OperationException(format(
+    Request<List<Release>> query = applyCachePolicy(args, ReleaseQueries.all(args.has(INCLUDE_PRE_RELEASES)));
+    // Stop fetching pages as soon as the requested version, or the latest one, has been found
+    List<Release> availableReleases = ReleaseQueries.fetch(http, query, requestedVersion
+        .map(ReleaseQueries::containing)
+        .orElse(releases -> !releases.isEmpty()));
+    Optional<Release> latestRelease = availableReleases.stream()
+        .max(Release::compareTo);
+
+    Optional<Release> requestedRelease = requestedVersion.map(version -> availableReleases.stream()
+        .filter(release -> release.isVersion(version))
+        .findFirst()
+        .orElseThrow(() -> new Exceptions.OperationException(format(
             "Requested version %s is not available. Please choose one between: %s",
             version,
             availableReleases.stream().map(r -> r.getVersion().toString()).collect(joining(", "))
-        ));
-    });
+        ))));
 
-    return race(requestedVersion, latestVersion)
+    return race(requestedRelease, latestRelease)
         .orElseThrow(() -> new Exceptions.OperationException(format(
             "No available released versions have been found. Run with %s to include pre-release versions",
             INCLUDE_PRE_RELEASES.getShortCodeSyntax()
@@ -0,0 +1,101 @@
+package org.opendatakit.aggregate.cli.operations;
+
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.Stream;
+import org.opendatakit.aggregate.cli.reused.http.Request;
+import org.opendatakit.aggregate.cli.reused.releases.Release;
+import org.opendatakit.aggregate.cli.reused.releases.ReleaseQueries;
+import org.opendatakit.aggregate.cli.reused.releases.Version;
+
+/**
+ * This Value Object class describes the Aggregate WAR package that will be deployed.
+ */
+final class WarPackage {
+  final Version version;
+  final URL url;
+  final OptionalLong size;
+  final Optional<String> cacheKey;
+  final Optional<Request<Optional<String>>> checksum;
+  final Optional<String> sha256;
+  private final boolean mirrored;
+
+  private WarPackage(Version version, URL url, OptionalLong size, Optional<String> cacheKey, Optional<Request<Optional<String>>> checksum, Optional<String> sha256, boolean mirrored) {
+    this.version = version;
+    this.url = url;
+    this.size = size;
+    this.cacheKey = cacheKey;
+    this.checksum = checksum;
+    this.sha256 = sha256;
+    this.mirrored = mirrored;
+  }
+
+  static WarPackage from(Release release) {
+    Optional<String> cacheKey = Optional.of(cacheKey(release.getVersion().toString()));
+    return release.getWarAsset()
+        .map(asset -> new WarPackage(
+            release.getVersion(),
+            asset.getBrowserDownloadUrl(),
+            OptionalLong.of(asset.getSize()),
+            cacheKey,
+            release.getWarChecksumAsset().map(checksumAsset -> ReleaseQueries.checksum(checksumAsset, asset.getName())),
+            Optional.empty(),
+            true
+        ))
+        .orElseGet(() -> new WarPackage(release.getVersion(), url(release.getVersion().buildGitHubDownloadUrl()), OptionalLong.empty(), cacheKey, Optional.empty(), Optional.empty(), true));
+  }
+
+  /**
+   * Custom builds are not cached, since their URL can serve different
+   * contents over time for the same version, nor available at mirrors.
+   */
+  static WarPackage custom(Version version, String url) {
+    return new WarPackage(version, url(url), OptionalLong.empty(), Optional.empty(), Optional.empty(), Optional.empty(), false);
+  }
+
+  /**
+   * Returns the key of the cached WAR package of the given release version.
+   */
+  static String cacheKey(String version) {
+    return "aggregate-" + version;
+  }
+
+  /**
+   * Returns the URLs where this package is available: its own URL, followed
+   * by its URL at each one of the given mirrors.
+   * <p>
+   * Mirrors only apply to release packages, which are found at
+   * {@code <mirror base URL>/<version>/<file name>}.
+   */
+  List<URL> getSources(List<URL> mirrors) {
+    if (!mirrored)
+      return singletonList(url);
+    String path = url.getPath();
+    String fileName = path.substring(path.lastIndexOf('/') + 1);
+    return Stream.concat(
+        Stream.of(url),
+        mirrors.stream().map(mirror -> url(mirror.toString() + version + "/" + fileName))
+    ).collect(toList());
+  }
+
+  /**
+   * Returns a copy of this package that must match the given SHA-256
+   * checksum, if present, instead of the one published with its release.
+   */
+  WarPackage withSha256(Optional<String> sha256) {
+    return sha256.isPresent()
+        ? new WarPackage(version, url, size, cacheKey, checksum, sha256, mirrored)
+        : this;
+  }
+
+  @Override
+  public String toString() {
+    return "Aggregate " + version + " from " + url;
+  }
+}
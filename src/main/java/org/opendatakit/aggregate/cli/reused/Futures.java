@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused;
+
+import static java.util.stream.Collectors.toList;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+public class Futures {
+  private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "futures-timer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * Returns a future that completes with the values of all the given futures,
+   * in the same order, or exceptionally as soon as any of them fails.
+   */
+  public static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+    CompletableFuture<List<T>> result = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+        .thenApply(nothing -> futures.stream().map(CompletableFuture::join).collect(toList()));
+    futures.forEach(future -> future.whenComplete((value, error) -> {
+      if (error != null)
+        result.completeExceptionally(unwrap(error));
+    }));
+    return result;
+  }
+
+  /**
+   * Returns a future that completes with the first value of the given futures
+   * that satisfies the given predicate (the winner of the "race").
+   * <p>
+   * It completes exceptionally if none of them does, with the failure of the
+   * last failed future, or with an {@link IllegalStateException} if none failed.
+   */
+  public static <T> CompletableFuture<T> firstSuccessful(List<CompletableFuture<T>> futures, Predicate<T> isSuccessful) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    if (futures.isEmpty()) {
+      result.completeExceptionally(new IllegalStateException("No successful value"));
+      return result;
+    }
+    AtomicInteger pending = new AtomicInteger(futures.size());
+    futures.forEach(future -> future.whenComplete((value, error) -> {
+      if (error == null && isSuccessful.test(value))
+        result.complete(value);
+      else if (pending.decrementAndGet() == 0)
+        result.completeExceptionally(error != null ? unwrap(error) : new IllegalStateException("No successful value"));
+    }));
+    return result;
+  }
+
+  /**
+   * Returns a future that completes with the first value of the given futures.
+   *
+   * @see #firstSuccessful(List, Predicate)
+   */
+  public static <T> CompletableFuture<T> firstSuccessful(List<CompletableFuture<T>> futures) {
+    return firstSuccessful(futures, value -> true);
+  }
+
+  /**
+   * Returns a future that completes like the given future, or exceptionally
+   * with a {@link TimeoutException} if it doesn't complete in time.
+   * <p>
+   * The given future is left alone when the timeout expires.
+   */
+  public static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, Duration timeout) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    ScheduledFuture<?> timer = TIMER.schedule(
+        () -> result.completeExceptionally(new TimeoutException("Timed out after " + timeout.toMillis() + " ms")),
+        timeout.toMillis(),
+        TimeUnit.MILLISECONDS
+    );
+    future.whenComplete((value, error) -> {
+      timer.cancel(false);
+      if (error != null)
+        result.completeExceptionally(unwrap(error));
+      else
+        result.complete(value);
+    });
+    return result;
+  }
+
+  /**
+   * Waits for the given future and returns its value, rethrowing the original
+   * {@link RuntimeException} if it completed exceptionally.
+   */
+  public static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw e;
+    }
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+  }
+}
@@ -0,0 +1,322 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Collections.emptyList;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class keeps downloaded artifacts in a directory, named after their key
+ * (e.g. "aggregate-v2.0.0") and the SHA-256 digest of their contents.
+ * <p>
+ * Entries are inserted with an atomic rename, which means that readers never
+ * see partially written files, and their digest is verified before being used.
+ * Once the total size goes over the configured maximum, the least recently
+ * used entries are evicted.
+ * <p>
+ * A lock file coordinates concurrent runs: reading an entry takes a shared
+ * lock, and inserting or evicting entries takes an exclusive lock. Since file
+ * locks are held by the whole JVM, threads of the same JVM are coordinated
+ * with a read/write lock per cache directory, and concurrent readers share a
+ * single file lock.
+ * <p>
+ * Entries are never modified once inserted, which means that each instance
+ * only needs to verify the digest of an entry once.
+ */
+public class ArtifactCache {
+  private static final Logger log = LoggerFactory.getLogger(ArtifactCache.class);
+  private static final Pattern KEY = Pattern.compile("[A-Za-z0-9._-]+");
+  private static final Pattern ENTRY = Pattern.compile("(?<key>[A-Za-z0-9._-]+)-(?<sha256>[0-9a-f]{64})\\.artifact");
+  private final Path dir;
+  private final long maxSize;
+  private static final ConcurrentHashMap<Path, DirLock> LOCKS = new ConcurrentHashMap<>();
+  private final Set<String> verified = ConcurrentHashMap.newKeySet();
+
+  private ArtifactCache(Path dir, long maxSize) {
+    this.dir = dir;
+    this.maxSize = maxSize;
+  }
+
+  public static ArtifactCache at(Path dir, long maxSize) {
+    return new ArtifactCache(dir, maxSize);
+  }
+
+  /**
+   * Applies the given reader to the file of the entry with the given key, if
+   * there's one and its contents match its digest.
+   * <p>
+   * The entry can't be evicted while it's being read.
+   */
+  public <T> Optional<T> read(String key, Function<Path, T> reader) {
+    return read(key, Optional.empty(), reader);
+  }
+
+  /**
+   * Like {@link #read(String, Function)}, but only if the contents of the
+   * entry have the given SHA-256 digest, when it's present.
+   */
+  public <T> Optional<T> read(String key, Optional<String> sha256, Function<Path, T> reader) {
+    requireValid(key);
+    if (!Files.isDirectory(dir))
+      return Optional.empty();
+    return locked(true, () -> {
+      Optional<Path> file = entries()
+          .filter(entry -> entry.key.equals(key))
+          .filter(entry -> !sha256.isPresent() || entry.sha256.equalsIgnoreCase(sha256.get()))
+          .filter(this::isIntact)
+          .map(entry -> entry.file)
+          .findFirst();
+      // The modification time tracks the last use of each entry
+      file.ifPresent(f -> touch(f));
+      return file.map(reader);
+    });
+  }
+
+  /**
+   * Returns the keys of the entries in the cache, sorted alphabetically.
+   */
+  public List<String> keys() {
+    if (!Files.isDirectory(dir))
+      return emptyList();
+    return locked(true, () -> entries().map(entry -> entry.key).sorted().collect(toList()));
+  }
+
+  /**
+   * Moves the given file, with the given SHA-256 digest, into the cache as the
+   * entry with the given key, replacing any previous entry with the same key,
+   * and evicts the least recently used entries that don't fit in the cache anymore.
+   * <p>
+   * The digest is trusted, since it's usually computed while downloading the
+   * file, and verified on the next read.
+   */
+  public void put(String key, Path file, String sha256) {
+    requireValid(key);
+    try {
+      Files.createDirectories(dir);
+      // Move the file into the cache dir first, since atomic moves
+      // can't cross file systems
+      Path tempFile = Files.createTempFile(dir, ".insert-", ".tmp");
+      try {
+        Files.move(file, tempFile, REPLACE_EXISTING);
+        locked(false, () -> {
+          Path target = dir.resolve(key + "-" + sha256 + ".artifact");
+          move(tempFile, target);
+          touch(target);
+          entries()
+              .filter(entry -> entry.key.equals(key) && !entry.file.equals(target))
+              .forEach(entry -> delete(entry.file));
+          evict(target);
+          return null;
+        });
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void evict(Path keep) throws IOException {
+    List<Entry> entries = entries().sorted(comparing(Entry::getLastUse)).collect(toList());
+    long size = entries.stream().mapToLong(Entry::getSize).sum();
+    for (Entry entry : entries) {
+      if (size <= maxSize)
+        break;
+      if (entry.file.equals(keep))
+        continue;
+      log.info("Evicting {} from the cache", entry.file.getFileName());
+      size -= entry.getSize();
+      delete(entry.file);
+    }
+  }
+
+  private <T> T locked(boolean shared, IOSupplier<T> block) {
+    try {
+      Files.createDirectories(dir);
+      DirLock lock = LOCKS.computeIfAbsent(dir.toAbsolutePath().normalize(), DirLock::new);
+      return shared ? lock.shared(block) : lock.exclusive(block);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Stream<Entry> entries() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files
+          .map(Entry::from)
+          .filter(Optional::isPresent)
+          .map(Optional::get)
+          .collect(toList())
+          .stream();
+    }
+  }
+
+  private boolean isIntact(Entry entry) {
+    String id = entry.file.getFileName() + ":" + entry.getSize();
+    if (verified.contains(id))
+      return true;
+    boolean intact = Checksums.sha256(entry.file).equals(entry.sha256);
+    if (intact)
+      verified.add(id);
+    else
+      log.warn("Ignoring corrupted cache entry {}", entry.file.getFileName());
+    return intact;
+  }
+
+  private static void requireValid(String key) {
+    if (!KEY.matcher(key).matches())
+      throw new IllegalArgumentException("Invalid cache key " + key);
+  }
+
+  private static void move(Path source, Path target) {
+    try {
+      Files.move(source, target, REPLACE_EXISTING, ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+    } catch (IOException e) {
+      // Failing to track the use of an entry only affects the eviction order
+      log.warn("Can't update the last use of {}", file, e);
+    }
+  }
+
+  private static void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Locks a cache directory for the threads of this JVM and for other
+   * processes. Opening a second file lock on the same file from the same JVM
+   * fails, which is why readers share one while any of them holds it.
+   */
+  private static final class DirLock {
+    private final Path lockFile;
+    private final ReentrantReadWriteLock threads = new ReentrantReadWriteLock();
+    private int readers;
+    private FileChannel sharedChannel;
+
+    DirLock(Path dir) {
+      this.lockFile = dir.resolve(".lock");
+    }
+
+    <T> T shared(IOSupplier<T> block) throws IOException {
+      threads.readLock().lock();
+      try {
+        acquireShared();
+        try {
+          return block.get();
+        } finally {
+          releaseShared();
+        }
+      } finally {
+        threads.readLock().unlock();
+      }
+    }
+
+    <T> T exclusive(IOSupplier<T> block) throws IOException {
+      threads.writeLock().lock();
+      try (FileChannel channel = FileChannel.open(lockFile, CREATE, READ, WRITE)) {
+        // Closing the channel releases the lock
+        channel.lock(0, Long.MAX_VALUE, false);
+        return block.get();
+      } finally {
+        threads.writeLock().unlock();
+      }
+    }
+
+    private synchronized void acquireShared() throws IOException {
+      if (readers == 0) {
+        FileChannel channel = FileChannel.open(lockFile, CREATE, READ, WRITE);
+        try {
+          channel.lock(0, Long.MAX_VALUE, true);
+        } catch (IOException | RuntimeException e) {
+          channel.close();
+          throw e;
+        }
+        sharedChannel = channel;
+      }
+      readers++;
+    }
+
+    private synchronized void releaseShared() throws IOException {
+      readers--;
+      if (readers == 0) {
+        FileChannel channel = sharedChannel;
+        sharedChannel = null;
+        channel.close();
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private interface IOSupplier<T> {
+    T get() throws IOException;
+  }
+
+  private static class Entry {
+    private final Path file;
+    private final String key;
+    private final String sha256;
+
+    private Entry(Path file, String key, String sha256) {
+      this.file = file;
+      this.key = key;
+      this.sha256 = sha256;
+    }
+
+    static Optional<Entry> from(Path file) {
+      Matcher matcher = ENTRY.matcher(file.getFileName().toString());
+      return matcher.matches()
+          ? Optional.of(new Entry(file, matcher.group("key"), matcher.group("sha256")))
+          : Optional.empty();
+    }
+
+    long getSize() {
+      try {
+        return Files.size(file);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    FileTime getLastUse() {
+      try {
+        return Files.getLastModifiedTime(file);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+public final class Checksums {
+  private Checksums() {
+  }
+
+  public static MessageDigest newSha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the hex-encoded SHA-256 digest of the contents of the given file.
+   */
+  public static String sha256(Path file) {
+    MessageDigest digest = newSha256();
+    try (InputStream in = Files.newInputStream(file)) {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1)
+        digest.update(buffer, 0, read);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return hex(digest.digest());
+  }
+
+  /**
+   * Returns the CRC-32 checksum of the contents of the given file, like the
+   * ones stored in ZIP files.
+   */
+  public static long crc32(Path file) {
+    CRC32 crc = new CRC32();
+    try (InputStream in = Files.newInputStream(file)) {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1)
+        crc.update(buffer, 0, read);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return crc.getValue();
+  }
+
+  public static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes)
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    return sb.toString();
+  }
+}
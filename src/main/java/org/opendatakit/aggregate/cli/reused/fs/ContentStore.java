@@ -0,0 +1,316 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * This class stores snapshots of directories, keeping a single copy of each
+ * distinct file contents (a blob) no matter how many snapshots have it.
+ * <p>
+ * Blobs are stored at blobs/ab/abcd..., named after the SHA-256 digest of
+ * their contents. Snapshots are stored as manifests at snapshots/name, with
+ * a line per directory or file: its digest (or "dir"), size, modification
+ * time in milliseconds and path, separated by tabs.
+ * <p>
+ * Files are hashed and stored in parallel. Files with contents that are
+ * already in the store take no more space than a manifest line.
+ */
+public final class ContentStore {
+  private static final String DIRECTORY = "dir";
+  private final Path dir;
+  private final int parallelism;
+
+  private ContentStore(Path dir, int parallelism) {
+    this.dir = dir;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Returns the store at the given directory, which is created if it doesn't
+   * exist, using as many threads as available processors.
+   */
+  public static ContentStore at(Path dir) {
+    return at(dir, Runtime.getRuntime().availableProcessors());
+  }
+
+  public static ContentStore at(Path dir, int parallelism) {
+    if (parallelism < 1)
+      throw new IllegalArgumentException("The parallelism must be at least 1");
+    try {
+      Files.createDirectories(dir.resolve("blobs"));
+      Files.createDirectories(dir.resolve("snapshots"));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new ContentStore(dir, parallelism);
+  }
+
+  /**
+   * Stores a snapshot of the given directory with the given name, replacing
+   * any previous snapshot with the same name.
+   */
+  public Stats store(String name, Path sourceDir) {
+    List<Path> paths;
+    try (Stream<Path> walk = Files.walk(sourceDir)) {
+      paths = walk.filter(path -> !path.equals(sourceDir)).collect(toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    AtomicLong storedFiles = new AtomicLong();
+    AtomicLong storedBytes = new AtomicLong();
+    List<Callable<String>> tasks = paths.stream()
+        .map(path -> (Callable<String>) () -> unchecked(() -> {
+          String relativeName = sourceDir.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+          long lastModified = Files.getLastModifiedTime(path).toMillis();
+          if (Files.isDirectory(path, NOFOLLOW_LINKS))
+            return String.join("\t", DIRECTORY, "0", String.valueOf(lastModified), relativeName);
+          String digest = Checksums.sha256(path);
+          long size = Files.size(path);
+          if (storeBlob(path, digest)) {
+            storedFiles.incrementAndGet();
+            storedBytes.addAndGet(size);
+          }
+          return String.join("\t", digest, String.valueOf(size), String.valueOf(lastModified), relativeName);
+        }))
+        .collect(toList());
+    List<String> lines = runAll(tasks);
+    writeAtomically(getSnapshotPath(name), (String.join("\n", lines) + "\n").getBytes(UTF_8));
+    int files = (int) lines.stream().filter(line -> !line.startsWith(DIRECTORY + "\t")).count();
+    return new Stats(files, storedFiles.intValue(), storedBytes.get());
+  }
+
+  /**
+   * Rebuilds the snapshot with the given name at the given directory, which
+   * must not exist. The contents of every file are verified against their
+   * digest.
+   *
+   * @return the amount of restored files
+   */
+  public int restore(String name, Path targetDir) {
+    List<String[]> entries = readSnapshot(name);
+    try {
+      Files.createDirectories(targetDir.getParent());
+      Files.createDirectory(targetDir);
+      // Walk order puts parents before their children
+      for (String[] entry : entries)
+        if (entry[0].equals(DIRECTORY))
+          Files.createDirectory(targetDir.resolve(entry[3]));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    List<Callable<String>> tasks = entries.stream()
+        .filter(entry -> !entry[0].equals(DIRECTORY))
+        .map(entry -> (Callable<String>) () -> unchecked(() -> {
+          Path target = targetDir.resolve(entry[3]);
+          Files.copy(getBlobPath(entry[0]), target);
+          if (!Checksums.sha256(target).equals(entry[0]))
+            throw new IOException("The contents of " + entry[3] + " don't match their SHA-256 digest " + entry[0]);
+          Files.setLastModifiedTime(target, FileTime.fromMillis(Long.parseLong(entry[2])));
+          return entry[3];
+        }))
+        .collect(toList());
+    runAll(tasks);
+    // Setting the times of directories after their files are created keeps them
+    for (String[] entry : entries)
+      if (entry[0].equals(DIRECTORY))
+        setLastModifiedTime(targetDir.resolve(entry[3]), Long.parseLong(entry[2]));
+    return tasks.size();
+  }
+
+  /**
+   * Returns the names of the stored snapshots, sorted alphabetically.
+   */
+  public List<String> list() {
+    try (Stream<Path> snapshots = Files.list(dir.resolve("snapshots"))) {
+      return snapshots
+          .map(path -> path.getFileName().toString())
+          .filter(name -> !name.startsWith("."))
+          .sorted()
+          .collect(toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Deletes the snapshot with the given name. Its blobs are kept until
+   * {@link #collectGarbage()} is called.
+   */
+  public void delete(String name) {
+    UncheckedFiles.deleteIfExists(getSnapshotPath(name));
+  }
+
+  /**
+   * Deletes the blobs that no snapshot has, reading only the manifests of the
+   * snapshots.
+   *
+   * @return the amount of freed bytes
+   */
+  public long collectGarbage() {
+    Set<String> referenced = new HashSet<>();
+    for (String name : list())
+      for (String[] entry : readSnapshot(name))
+        referenced.add(entry[0]);
+    AtomicLong freedBytes = new AtomicLong();
+    try (Stream<Path> blobs = Files.walk(dir.resolve("blobs"))) {
+      blobs.filter(Files::isRegularFile)
+          // This also deletes the temporary files left by interrupted stores
+          .filter(blob -> !referenced.contains(blob.getFileName().toString()))
+          .forEach(blob -> {
+            freedBytes.addAndGet(blob.toFile().length());
+            UncheckedFiles.deleteIfExists(blob);
+          });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return freedBytes.get();
+  }
+
+  /**
+   * Returns the total size of the blobs, which is the disk space taken by the
+   * stored snapshots, leaving aside their manifests.
+   */
+  public long getSize() {
+    try (Stream<Path> blobs = Files.walk(dir.resolve("blobs"))) {
+      return blobs.filter(Files::isRegularFile).mapToLong(blob -> blob.toFile().length()).sum();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private boolean storeBlob(Path file, String digest) throws IOException {
+    Path blob = getBlobPath(digest);
+    if (Files.exists(blob))
+      return false;
+    Files.createDirectories(blob.getParent());
+    // Blobs appear complete, or not at all
+    Path tmp = Files.createTempFile(blob.getParent(), ".", ".tmp");
+    Files.copy(file, tmp, REPLACE_EXISTING);
+    Files.move(tmp, blob, ATOMIC_MOVE, REPLACE_EXISTING);
+    return true;
+  }
+
+  private List<String[]> readSnapshot(String name) {
+    Path snapshot = getSnapshotPath(name);
+    if (!Files.exists(snapshot))
+      throw new IllegalArgumentException("There's no snapshot named " + name);
+    List<String[]> entries = new ArrayList<>();
+    for (String line : new String(UncheckedFiles.readAllBytes(snapshot), UTF_8).split("\n"))
+      if (!line.isEmpty())
+        entries.add(line.split("\t", 4));
+    return entries;
+  }
+
+  private Path getSnapshotPath(String name) {
+    if (name.isEmpty() || name.startsWith(".") || name.contains("/") || name.contains(dir.getFileSystem().getSeparator()))
+      throw new IllegalArgumentException("Invalid snapshot name " + name);
+    return dir.resolve("snapshots").resolve(name);
+  }
+
+  private Path getBlobPath(String digest) {
+    return dir.resolve("blobs").resolve(digest.substring(0, 2)).resolve(digest);
+  }
+
+  private void writeAtomically(Path file, byte[] contents) {
+    try {
+      Path tmp = Files.createTempFile(file.getParent(), ".", ".tmp");
+      Files.write(tmp, contents);
+      Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private <T> List<T> runAll(List<Callable<T>> tasks) {
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      List<T> results = new ArrayList<>(tasks.size());
+      for (Future<T> task : pool.invokeAll(tasks))
+        results.add(task.get());
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while accessing the store at " + dir, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs the given I/O task, wrapping its failures in {@link UncheckedIOException},
+   * since {@link ForkJoinPool} would wrap them in plain RuntimeExceptions.
+   */
+  private static <T> T unchecked(IoTask<T> task) {
+    try {
+      return task.run();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void setLastModifiedTime(Path path, long millis) {
+    try {
+      Files.setLastModifiedTime(path, FileTime.fromMillis(millis));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @FunctionalInterface
+  private interface IoTask<T> {
+    T run() throws IOException;
+  }
+
+  /**
+   * What a snapshot took to store.
+   */
+  public static final class Stats {
+    private final int files;
+    private final int storedFiles;
+    private final long storedBytes;
+
+    private Stats(int files, int storedFiles, long storedBytes) {
+      this.files = files;
+      this.storedFiles = storedFiles;
+      this.storedBytes = storedBytes;
+    }
+
+    public int getFiles() {
+      return files;
+    }
+
+    /**
+     * Returns the amount of files with contents that weren't in the store.
+     */
+    public int getStoredFiles() {
+      return storedFiles;
+    }
+
+    public long getStoredBytes() {
+      return storedBytes;
+    }
+  }
+}
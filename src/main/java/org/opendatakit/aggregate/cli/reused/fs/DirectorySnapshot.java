@@ -0,0 +1,143 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class takes snapshots of directories made of hard links to their files,
+ * which take almost no time nor disk space. The snapshot shares its files with
+ * the original directory: any change to them, including their permissions or
+ * owner, changes the snapshot too, so they must be replaced instead of
+ * modified, and never linked elsewhere to be modified.
+ * <p>
+ * The directory tree is walked in parallel, with a task per directory. If the
+ * snapshot is in a different file system than the original directory, its
+ * files are copied instead.
+ */
+public final class DirectorySnapshot {
+  private final int files;
+  private final long bytes;
+  private final boolean linked;
+
+  private DirectorySnapshot(int files, long bytes, boolean linked) {
+    this.files = files;
+    this.bytes = bytes;
+    this.linked = linked;
+  }
+
+  /**
+   * Takes a snapshot of the given directory at the given target path, which
+   * must not exist, using as many threads as available processors.
+   */
+  public static DirectorySnapshot take(Path sourceDir, Path targetDir) {
+    return take(sourceDir, targetDir, Runtime.getRuntime().availableProcessors());
+  }
+
+  public static DirectorySnapshot take(Path sourceDir, Path targetDir, int parallelism) {
+    if (parallelism < 1)
+      throw new IllegalArgumentException("The parallelism must be at least 1");
+    AtomicBoolean linked = new AtomicBoolean(true);
+    AtomicLong bytes = new AtomicLong();
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      int files = pool.invoke(new SnapshotTask(sourceDir, targetDir, linked, bytes));
+      return new DirectorySnapshot(files, bytes.get(), linked.get());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the amount of files in the snapshot.
+   */
+  public int getFiles() {
+    return files;
+  }
+
+  /**
+   * Returns the total size of the files in the snapshot. While they're still
+   * linked from the original directory, the snapshot takes almost no disk
+   * space of its own, and this is how much it would take without them.
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Tells if the files of the snapshot are hard links, or copies otherwise.
+   */
+  public boolean isLinked() {
+    return linked;
+  }
+
+  private static final class SnapshotTask extends RecursiveTask<Integer> {
+    private static final long serialVersionUID = 1L;
+    private final Path sourceDir;
+    private final Path targetDir;
+    private final AtomicBoolean linked;
+    private final AtomicLong bytes;
+
+    SnapshotTask(Path sourceDir, Path targetDir, AtomicBoolean linked, AtomicLong bytes) {
+      this.sourceDir = sourceDir;
+      this.targetDir = targetDir;
+      this.linked = linked;
+      this.bytes = bytes;
+    }
+
+    @Override
+    protected Integer compute() {
+      List<SnapshotTask> subdirs = new ArrayList<>();
+      int files = 0;
+      try {
+        // Copying a directory creates an empty one with the same attributes
+        Files.copy(sourceDir, targetDir, COPY_ATTRIBUTES, NOFOLLOW_LINKS);
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(sourceDir)) {
+          for (Path child : children) {
+            Path target = targetDir.resolve(child.getFileName().toString());
+            if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
+              SnapshotTask subdir = new SnapshotTask(child, target, linked, bytes);
+              subdir.fork();
+              subdirs.add(subdir);
+            } else {
+              linkOrCopy(child, target);
+              bytes.addAndGet(Files.size(target));
+              files++;
+            }
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      for (SnapshotTask subdir : subdirs)
+        files += subdir.join();
+      return files;
+    }
+
+    private void linkOrCopy(Path source, Path target) throws IOException {
+      if (linked.get()) {
+        try {
+          Files.createLink(target, source);
+          return;
+        } catch (IOException | UnsupportedOperationException e) {
+          // Hard links can't cross file systems. Copy this file and the rest
+          if (Files.exists(target, NOFOLLOW_LINKS))
+            throw e;
+          linked.set(false);
+        }
+      }
+      Files.copy(source, target, COPY_ATTRIBUTES, NOFOLLOW_LINKS);
+    }
+  }
+}
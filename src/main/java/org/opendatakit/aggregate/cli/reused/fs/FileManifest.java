@@ -0,0 +1,146 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * This class lists the files of a directory extracted from a ZIP file (e.g. a
+ * deployed WAR package), with their CRC-32 checksum and size.
+ * <p>
+ * Comparing it with the central directory of another ZIP file tells which of
+ * its entries have changed, without reading any of them.
+ * <p>
+ * Manifests are stored as text files with a line per file: its CRC-32 checksum
+ * in hex, its size and its path relative to the directory, separated by tabs.
+ */
+public final class FileManifest {
+  private final SortedMap<String, File> files;
+
+  private FileManifest(SortedMap<String, File> files) {
+    this.files = files;
+  }
+
+  /**
+   * Returns the manifest of the files that would be extracted from the ZIP
+   * file with the given central directory.
+   */
+  public static FileManifest of(ZipDirectory directory) {
+    SortedMap<String, File> files = new TreeMap<>();
+    for (ZipDirectory.Entry entry : directory.getEntries())
+      if (!entry.isDirectory())
+        files.put(entry.getName(), new File(entry.getCrc(), entry.getSize()));
+    return new FileManifest(files);
+  }
+
+  /**
+   * Returns the manifest of the files in the given directory, by reading all
+   * of them.
+   */
+  public static FileManifest scan(Path dir) {
+    SortedMap<String, File> files = new TreeMap<>();
+    try {
+      Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          files.put(relativeName(dir, file), new File(Checksums.crc32(file), attrs.size()));
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new FileManifest(files);
+  }
+
+  /**
+   * Reads the manifest stored in the given file, if it exists and it's valid.
+   */
+  public static Optional<FileManifest> read(Path file) {
+    if (!Files.exists(file))
+      return Optional.empty();
+    SortedMap<String, File> files = new TreeMap<>();
+    for (String line : new String(UncheckedFiles.readAllBytes(file), UTF_8).split("\n")) {
+      if (line.isEmpty())
+        continue;
+      String[] parts = line.split("\t", 3);
+      if (parts.length != 3)
+        return Optional.empty();
+      try {
+        files.put(parts[2], new File(Long.parseLong(parts[0], 16), Long.parseLong(parts[1])));
+      } catch (NumberFormatException e) {
+        return Optional.empty();
+      }
+    }
+    return Optional.of(new FileManifest(files));
+  }
+
+  public void write(Path file) {
+    StringBuilder sb = new StringBuilder();
+    files.forEach((name, f) -> sb.append(Long.toHexString(f.crc)).append('\t').append(f.size).append('\t').append(name).append('\n'));
+    UncheckedFiles.write(file, sb.toString().getBytes(UTF_8));
+  }
+
+  public Set<String> getNames() {
+    return Collections.unmodifiableSet(files.keySet());
+  }
+
+  public long getSize(String name) {
+    return Optional.ofNullable(files.get(name)).map(f -> f.size).orElse(0L);
+  }
+
+  /**
+   * Returns the names of the files that are listed with the same checksum and
+   * size in this manifest and in the given one.
+   */
+  public List<String> getUnchangedNames(FileManifest other) {
+    return files.entrySet().stream()
+        .filter(entry -> entry.getValue().equals(other.files.get(entry.getKey())))
+        .map(Map.Entry::getKey)
+        .collect(toList());
+  }
+
+  private static String relativeName(Path dir, Path file) {
+    return dir.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+  }
+
+  private static final class File {
+    private final long crc;
+    private final long size;
+
+    private File(long crc, long size) {
+      this.crc = crc;
+      this.size = size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (o == null || getClass() != o.getClass())
+        return false;
+      File file = (File) o;
+      return crc == file.crc && size == file.size;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(crc, size);
+    }
+  }
+}
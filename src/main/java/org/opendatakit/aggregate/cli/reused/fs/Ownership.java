@@ -0,0 +1,74 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * This class sets the owner, group and permissions of the files of a webapp,
+ * like {@code chown} and {@code chmod} would do, without spawning processes.
+ * <p>
+ * Directories get rwxr-xr-x permissions, and files get rw-r--r-- permissions.
+ * File systems that don't support POSIX attributes are left alone.
+ */
+public final class Ownership {
+  private static final Set<PosixFilePermission> DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwxr-xr-x");
+  private static final Set<PosixFilePermission> FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+  /**
+   * Keeps the current owner and group, and only applies permissions.
+   */
+  public static final Ownership PERMISSIONS_ONLY = new Ownership(Optional.empty(), Optional.empty());
+
+  private final Optional<UserPrincipal> user;
+  private final Optional<GroupPrincipal> group;
+
+  private Ownership(Optional<UserPrincipal> user, Optional<GroupPrincipal> group) {
+    this.user = user;
+    this.group = group;
+  }
+
+  /**
+   * Returns the ownership of the given user and group names.
+   *
+   * @throws UncheckedIOException if they don't exist
+   */
+  public static Ownership of(String user, String group) {
+    UserPrincipalLookupService lookupService = FileSystems.getDefault().getUserPrincipalLookupService();
+    try {
+      return new Ownership(
+          Optional.of(lookupService.lookupPrincipalByName(user)),
+          Optional.of(lookupService.lookupPrincipalByGroupName(group))
+      );
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Applies this ownership to the given file or directory.
+   */
+  public void apply(Path path) {
+    PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+    if (view == null)
+      return;
+    try {
+      view.setPermissions(Files.isDirectory(path) ? DIRECTORY_PERMISSIONS : FILE_PERMISSIONS);
+      if (user.isPresent())
+        view.setOwner(user.get());
+      if (group.isPresent())
+        view.setGroup(group.get());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -1,10 +1,19 @@
 package org.opendatakit.aggregate.cli.reused.fs;
 
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 
 public final class UncheckedFiles {
   public static byte[] readAllBytes(Path path) {
@@ -23,6 +32,102 @@ public final class UncheckedFiles {
     }
   }
 
+  /**
+   * Makes the target path a hard link to the source file, or a copy of it if
+   * hard links aren't supported between them (e.g. in different file systems).
+   */
+  public static void linkOrCopy(Path source, Path target) {
+    try {
+      Files.deleteIfExists(target);
+      try {
+        Files.createLink(target, source);
+      } catch (IOException | UnsupportedOperationException e) {
+        Files.copy(source, target);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Replaces the target path with a copy of the source file.
+   */
+  public static void copy(Path source, Path target) {
+    try {
+      Files.copy(source, target, REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public static void deleteIfExists(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Deletes the given file or directory, with all its contents, if it exists.
+   */
+  public static void deleteTree(Path path) {
+    if (!Files.exists(path, NOFOLLOW_LINKS))
+      return;
+    try {
+      Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          Files.delete(file);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+          if (e != null)
+            throw e;
+          Files.delete(dir);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Moves the given directory to the given target path, which must not exist.
+   * <p>
+   * Directories are renamed when they're in the same file system. Otherwise,
+   * their contents are copied, with their attributes, and then deleted.
+   */
+  public static void moveTree(Path source, Path target) {
+    try {
+      try {
+        Files.move(source, target, ATOMIC_MOVE);
+        return;
+      } catch (AtomicMoveNotSupportedException e) {
+        // Copy it below
+      }
+      Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+          Files.copy(dir, target.resolve(source.relativize(dir).toString()), COPY_ATTRIBUTES);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          Files.copy(file, target.resolve(source.relativize(file).toString()), COPY_ATTRIBUTES);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+      deleteTree(source);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
   public static Path createTempDirectory(String prefix) {
     try {
       return Files.createTempDirectory(prefix);
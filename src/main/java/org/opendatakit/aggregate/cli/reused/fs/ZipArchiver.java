@@ -0,0 +1,312 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.stream.Collectors.toList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * This class archives a directory into a ZIP file, like {@code zip -r} would
+ * do, but compressing files in parallel.
+ * <p>
+ * Files are compressed in memory by the workers of a {@link ForkJoinPool}
+ * (scatter), and then appended to the ZIP file in their original order by a
+ * single writer, through a buffered channel (merge). Only a few compressed
+ * files per worker are kept in memory at once.
+ * <p>
+ * Files that don't get smaller when compressed are stored, like {@code zip}
+ * does. ZIP64 is not supported, which limits archives to 4 GB and 65535
+ * entries.
+ */
+public final class ZipArchiver {
+  public static final int STORE_ONLY = 0;
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int VERSION = 20;
+  // Unix, to keep the permissions of files in the external attributes
+  private static final int VERSION_MADE_BY = (3 << 8) | VERSION;
+  private static final int UTF8_NAMES = 0x0800;
+  private static final int MAX_PENDING_FILES_PER_WORKER = 4;
+  private static final int BUFFER_SIZE = 1024 * 1024;
+  private final int parallelism;
+  private final int level;
+
+  private ZipArchiver(int parallelism, int level) {
+    this.parallelism = parallelism;
+    this.level = level;
+  }
+
+  /**
+   * Returns an archiver that uses as many threads as available processors.
+   *
+   * @param level the compression level, from {@link #STORE_ONLY} to 9
+   */
+  public static ZipArchiver parallel(int level) {
+    return withParallelism(Runtime.getRuntime().availableProcessors(), level);
+  }
+
+  public static ZipArchiver withParallelism(int parallelism, int level) {
+    if (parallelism < 1)
+      throw new IllegalArgumentException("The parallelism must be at least 1");
+    if (level < STORE_ONLY || level > Deflater.BEST_COMPRESSION)
+      throw new IllegalArgumentException("The compression level must be between 0 and 9");
+    return new ZipArchiver(parallelism, level);
+  }
+
+  /**
+   * Archives the given directory into the given ZIP file, replacing it if it
+   * exists. The names of the entries start with the name of the directory
+   * (e.g. ROOT/WEB-INF/web.xml).
+   *
+   * @return the amount of archived files
+   */
+  public int archive(Path sourceDir, Path zipFile) {
+    List<Path> paths;
+    try (Stream<Path> walk = Files.walk(sourceDir)) {
+      paths = walk.collect(toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    Path base = sourceDir.toAbsolutePath().normalize().getParent();
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try (FileChannel channel = FileChannel.open(zipFile, CREATE, TRUNCATE_EXISTING, WRITE)) {
+      Writer writer = new Writer(channel);
+      List<CompressedFile> written = new ArrayList<>(paths.size());
+      Deque<Future<CompressedFile>> pending = new ArrayDeque<>();
+      for (Path path : paths) {
+        Path absolutePath = path.toAbsolutePath().normalize();
+        pending.add(pool.submit(() -> compress(base, absolutePath)));
+        if (pending.size() >= parallelism * MAX_PENDING_FILES_PER_WORKER)
+          written.add(writer.writeLocal(pending.remove().get()));
+      }
+      while (!pending.isEmpty())
+        written.add(writer.writeLocal(pending.remove().get()));
+      writer.writeCentralDirectory(written);
+      return (int) written.stream().filter(file -> !file.isDirectory()).count();
+    } catch (IOException e) {
+      deleteIfExists(zipFile);
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      deleteIfExists(zipFile);
+      throw new IllegalStateException("Interrupted while archiving " + sourceDir, e);
+    } catch (ExecutionException e) {
+      deleteIfExists(zipFile);
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private CompressedFile compress(Path base, Path path) {
+    try {
+      String name = base.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+      long lastModified = Files.getLastModifiedTime(path).toMillis();
+      if (Files.isDirectory(path))
+        return new CompressedFile(name + "/", lastModified, ZipEntry.STORED, 0, 0, new byte[0]);
+
+      byte[] contents = Files.readAllBytes(path);
+      CRC32 crc = new CRC32();
+      crc.update(contents);
+      if (level != STORE_ONLY) {
+        byte[] deflated = deflate(contents);
+        if (deflated.length < contents.length)
+          return new CompressedFile(name, lastModified, ZipEntry.DEFLATED, crc.getValue(), contents.length, deflated);
+      }
+      return new CompressedFile(name, lastModified, ZipEntry.STORED, crc.getValue(), contents.length, contents);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private byte[] deflate(byte[] contents) {
+    // ZIP entries have raw deflate data, without zlib headers
+    Deflater deflater = new Deflater(level, true);
+    try {
+      deflater.setInput(contents);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(contents.length / 2 + 64);
+      byte[] buffer = new byte[64 * 1024];
+      while (!deflater.finished())
+        out.write(buffer, 0, deflater.deflate(buffer));
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static void deleteIfExists(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      // Keep the original failure
+    }
+  }
+
+  private static final class CompressedFile {
+    private final String name;
+    private final byte[] encodedName;
+    private final int time;
+    private final int date;
+    private final int method;
+    private final long crc;
+    private final long size;
+    private final byte[] data;
+    private long localHeaderOffset;
+
+    CompressedFile(String name, long lastModified, int method, long crc, long size, byte[] data) {
+      this.name = name;
+      this.encodedName = name.getBytes(UTF_8);
+      LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneId.systemDefault());
+      // MS-DOS dates start in 1980
+      if (dateTime.getYear() < 1980)
+        dateTime = LocalDateTime.of(1980, 1, 1, 0, 0);
+      this.time = (dateTime.getHour() << 11) | (dateTime.getMinute() << 5) | (dateTime.getSecond() >> 1);
+      this.date = ((dateTime.getYear() - 1980) << 9) | (dateTime.getMonthValue() << 5) | dateTime.getDayOfMonth();
+      this.method = method;
+      this.crc = crc;
+      this.size = size;
+      this.data = data;
+    }
+
+    boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    int getExternalAttributes() {
+      // Unix permissions in the high bits, and the MS-DOS directory flag
+      return isDirectory() ? (040755 << 16) | 0x10 : 0100644 << 16;
+    }
+  }
+
+  /**
+   * Writes ZIP records through a buffer, which turns the many small headers
+   * into a few large writes.
+   */
+  private static final class Writer {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(LITTLE_ENDIAN);
+    private long position;
+
+    Writer(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    CompressedFile writeLocal(CompressedFile file) throws IOException {
+      if (position > 0xFFFFFFFFL || file.data.length > 0xFFFFFFFFL - position)
+        throw new ZipException("ZIP files larger than 4 GB are not supported");
+      file.localHeaderOffset = position;
+      reserve(30 + file.encodedName.length);
+      buffer.putInt(LOCAL_HEADER_SIGNATURE)
+          .putShort((short) VERSION)
+          .putShort((short) UTF8_NAMES)
+          .putShort((short) file.method)
+          .putShort((short) file.time)
+          .putShort((short) file.date)
+          .putInt((int) file.crc)
+          .putInt(file.data.length)
+          .putInt((int) file.size)
+          .putShort((short) file.encodedName.length)
+          .putShort((short) 0)
+          .put(file.encodedName);
+      position += 30 + file.encodedName.length;
+      write(file.data);
+      return file;
+    }
+
+    void writeCentralDirectory(List<CompressedFile> files) throws IOException {
+      if (files.size() > 0xFFFF)
+        throw new ZipException("ZIP files with more than 65535 entries are not supported");
+      long offset = position;
+      for (CompressedFile file : files) {
+        reserve(46 + file.encodedName.length);
+        buffer.putInt(CENTRAL_HEADER_SIGNATURE)
+            .putShort((short) VERSION_MADE_BY)
+            .putShort((short) VERSION)
+            .putShort((short) UTF8_NAMES)
+            .putShort((short) file.method)
+            .putShort((short) file.time)
+            .putShort((short) file.date)
+            .putInt((int) file.crc)
+            .putInt(file.data.length)
+            .putInt((int) file.size)
+            .putShort((short) file.encodedName.length)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putInt(file.getExternalAttributes())
+            .putInt((int) file.localHeaderOffset)
+            .put(file.encodedName);
+        position += 46 + file.encodedName.length;
+      }
+      if (position > 0xFFFFFFFFL)
+        throw new ZipException("ZIP files larger than 4 GB are not supported");
+      reserve(22);
+      buffer.putInt(END_SIGNATURE)
+          .putShort((short) 0)
+          .putShort((short) 0)
+          .putShort((short) files.size())
+          .putShort((short) files.size())
+          .putInt((int) (position - offset))
+          .putInt((int) offset)
+          .putShort((short) 0);
+      position += 22;
+      flush();
+    }
+
+    private void write(byte[] data) throws IOException {
+      if (data.length <= buffer.remaining()) {
+        buffer.put(data);
+      } else {
+        // Large files skip the buffer
+        flush();
+        ByteBuffer wrapped = ByteBuffer.wrap(data);
+        while (wrapped.hasRemaining())
+          channel.write(wrapped);
+      }
+      position += data.length;
+    }
+
+    private void reserve(int bytes) throws IOException {
+      if (buffer.remaining() < bytes)
+        flush();
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+      buffer.clear();
+    }
+  }
+}
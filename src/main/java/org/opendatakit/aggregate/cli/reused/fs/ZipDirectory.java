@@ -0,0 +1,258 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Comparator.comparingLong;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * This class reads the central directory of a ZIP file (e.g. a WAR package),
+ * which lists its entries and where their local headers are.
+ * <p>
+ * The file is read through a {@link RangeReader}, which means that it can be
+ * a local file or a remote file that supports range requests. Only the end of
+ * the file is read.
+ * <p>
+ * ZIP64 files and multi-disk archives are not supported.
+ */
+public final class ZipDirectory {
+  public static final int LOCAL_HEADER_SIZE = 30;
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int END_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private final long offset;
+  private final List<Entry> entries;
+
+  private ZipDirectory(long offset, List<Entry> entries) {
+    this.offset = offset;
+    this.entries = entries;
+  }
+
+  /**
+   * Returns the number of bytes at the end of a ZIP file that are enough to
+   * find its end of central directory record.
+   */
+  public static int tailSize() {
+    return END_SIZE + MAX_COMMENT_SIZE;
+  }
+
+  /**
+   * Reads the central directory of a ZIP file of the given size.
+   *
+   * @throws UncheckedIOException wrapping a {@link ZipException} if the file
+   *                              is not a supported ZIP file
+   */
+  public static ZipDirectory read(long size, RangeReader reader) {
+    try {
+      int tailLength = (int) Math.min(size, tailSize());
+      long tailStart = size - tailLength;
+      ByteBuffer tail = reader.read(tailStart, tailLength).order(LITTLE_ENDIAN);
+      int end = -1;
+      for (int i = tailLength - END_SIZE; i >= 0 && end < 0; i--)
+        if (tail.getInt(i) == END_SIGNATURE)
+          end = i;
+      if (end < 0)
+        throw new ZipException("Can't find the end of central directory record");
+
+      int entryCount = Short.toUnsignedInt(tail.getShort(end + 10));
+      long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+      long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+      if (entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL)
+        throw new ZipException("ZIP64 files are not supported");
+      if (directoryOffset + directorySize > tailStart + end)
+        throw new ZipException("Invalid central directory offset");
+
+      ByteBuffer directory = directoryOffset >= tailStart
+          ? slice(tail, (int) (directoryOffset - tailStart), (int) directorySize)
+          : reader.read(directoryOffset, (int) directorySize).order(LITTLE_ENDIAN);
+
+      List<Entry> entries = new ArrayList<>(entryCount);
+      int position = 0;
+      for (int i = 0; i < entryCount; i++) {
+        if (position + CENTRAL_HEADER_SIZE > directory.limit() || directory.getInt(position) != CENTRAL_HEADER_SIGNATURE)
+          throw new ZipException("Invalid central directory header at entry " + i);
+        int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+        int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+        int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+        byte[] name = new byte[nameLength];
+        ((ByteBuffer) directory.duplicate().position(position + CENTRAL_HEADER_SIZE)).get(name);
+        entries.add(new Entry(
+            new String(name, UTF_8),
+            Short.toUnsignedInt(directory.getShort(position + 10)),
+            Integer.toUnsignedLong(directory.getInt(position + 16)),
+            Integer.toUnsignedLong(directory.getInt(position + 20)),
+            Integer.toUnsignedLong(directory.getInt(position + 24)),
+            Integer.toUnsignedLong(directory.getInt(position + 42)),
+            nameLength,
+            extraLength
+        ));
+        position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+      }
+      entries.sort(comparingLong(Entry::getLocalHeaderOffset));
+      return new ZipDirectory(directoryOffset, Collections.unmodifiableList(entries));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Reads the central directory of the given ZIP file.
+   *
+   * @see #read(long, RangeReader)
+   */
+  public static ZipDirectory read(Path file) {
+    try (FileChannel channel = FileChannel.open(file, READ)) {
+      return read(channel.size(), (position, length) -> readFully(channel, position, length));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns the offset of the data of the given entry in the given ZIP file,
+   * by reading its local header, which can have different extra fields than
+   * its central directory header.
+   */
+  public static long readDataOffset(FileChannel channel, Entry entry) throws IOException {
+    ByteBuffer header = readFully(channel, entry.localHeaderOffset, LOCAL_HEADER_SIZE).order(LITTLE_ENDIAN);
+    return dataOffset(header, entry.localHeaderOffset);
+  }
+
+  /**
+   * Returns the offset of the data of the entry whose local header is at the
+   * start of the given buffer, and at the given offset of the ZIP file.
+   */
+  public static long dataOffset(ByteBuffer localHeader, long localHeaderOffset) throws ZipException {
+    ByteBuffer header = localHeader.duplicate().order(LITTLE_ENDIAN);
+    if (header.remaining() < LOCAL_HEADER_SIZE || header.getInt(header.position()) != LOCAL_HEADER_SIGNATURE)
+      throw new ZipException("Invalid local header at " + localHeaderOffset);
+    int nameLength = Short.toUnsignedInt(header.getShort(header.position() + 26));
+    int extraLength = Short.toUnsignedInt(header.getShort(header.position() + 28));
+    return localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+  }
+
+  /**
+   * Returns the offset of the central directory, which is where the data of
+   * the last entry ends.
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Returns the entries, sorted by the offset of their local headers.
+   */
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(position).limit(position + length);
+    return duplicate.slice().order(LITTLE_ENDIAN);
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining())
+      if (channel.read(buffer, position + buffer.position()) < 0)
+        throw new ZipException("Unexpected end of file at " + (position + buffer.position()));
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Reads a range of bytes of a file.
+   */
+  @FunctionalInterface
+  public interface RangeReader {
+    ByteBuffer read(long position, int length) throws IOException;
+  }
+
+  /**
+   * An entry of a ZIP file, as described by its central directory header.
+   */
+  public static final class Entry {
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+    private final int nameLength;
+    private final int extraLength;
+
+    private Entry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset, int nameLength, int extraLength) {
+      this.name = name;
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+      this.nameLength = nameLength;
+      this.extraLength = extraLength;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    public long getCrc() {
+      return crc;
+    }
+
+    public long getCompressedSize() {
+      return compressedSize;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getLocalHeaderOffset() {
+      return localHeaderOffset;
+    }
+
+    /**
+     * Returns the offset of the data of this entry, assuming that its local
+     * header has the same extra fields as its central directory header, which
+     * is what most ZIP writers do.
+     */
+    public long getExpectedDataOffset() {
+      return localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    /**
+     * Tells if this entry has the same compressed contents as the given one,
+     * according to their compression method, CRC and sizes.
+     */
+    public boolean hasSameContents(Entry other) {
+      return method == other.method
+          && crc == other.crc
+          && compressedSize == other.compressedSize
+          && size == other.size;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+}
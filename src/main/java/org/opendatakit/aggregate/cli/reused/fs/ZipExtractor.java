@@ -0,0 +1,218 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Comparator.comparingLong;
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * This class extracts ZIP files (e.g. WAR packages) into a directory, like
+ * {@code unzip} would do, but inflating entries in parallel. ZIP streams can
+ * be extracted as well, as their bytes arrive.
+ * <p>
+ * The central directory is read once by {@link ZipFile}, which supports
+ * concurrent reads of different entries. All the directories are created
+ * first, and then files are written by the workers of a {@link ForkJoinPool},
+ * largest first, using a reusable buffer per worker. The given {@link Ownership}
+ * is applied to every directory and file as soon as it's written.
+ */
+public final class ZipExtractor {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+  private final int parallelism;
+  private final Ownership ownership;
+
+  private ZipExtractor(int parallelism, Ownership ownership) {
+    this.parallelism = parallelism;
+    this.ownership = ownership;
+  }
+
+  /**
+   * Returns an extractor that uses as many threads as available processors.
+   */
+  public static ZipExtractor parallel(Ownership ownership) {
+    return withParallelism(Runtime.getRuntime().availableProcessors(), ownership);
+  }
+
+  public static ZipExtractor withParallelism(int parallelism, Ownership ownership) {
+    if (parallelism < 1)
+      throw new IllegalArgumentException("The parallelism must be at least 1");
+    return new ZipExtractor(parallelism, ownership);
+  }
+
+  /**
+   * Extracts the given ZIP file into the given directory, which is created if
+   * it doesn't exist, replacing any previous file with the same path.
+   *
+   * @return the amount of extracted files
+   * @throws UncheckedIOException wrapping a {@link ZipException} if any entry
+   *                              would be extracted out of the target directory
+   */
+  public int extract(Path zipFile, Path targetDir) {
+    return extract(zipFile, targetDir, name -> true);
+  }
+
+  /**
+   * Extracts the files of the given ZIP file whose names satisfy the given
+   * predicate. All the directories are created, even if none of their files
+   * is extracted.
+   *
+   * @return the amount of extracted files
+   * @see #extract(Path, Path)
+   */
+  public int extract(Path zipFile, Path targetDir, Predicate<String> filter) {
+    Path root = targetDir.toAbsolutePath().normalize();
+    try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+      List<? extends ZipEntry> entries = Collections.list(zip.entries());
+
+      // Sorted paths put parents before their children
+      SortedSet<Path> dirs = new TreeSet<>();
+      dirs.add(root);
+      for (ZipEntry entry : entries) {
+        Path path = resolve(root, entry);
+        dirs.add(entry.isDirectory() ? path : path.getParent());
+      }
+      for (Path dir : dirs) {
+        Files.createDirectories(dir);
+        ownership.apply(dir);
+      }
+
+      // Starting with the largest files evens out the work of the last workers
+      List<Callable<Void>> tasks = entries.stream()
+          .filter(entry -> !entry.isDirectory() && filter.test(entry.getName()))
+          .sorted(comparingLong(ZipEntry::getSize).reversed())
+          .map(entry -> (Callable<Void>) () -> {
+            write(zip, entry, resolve(root, entry));
+            return null;
+          })
+          .collect(toList());
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        for (Future<Void> task : pool.invokeAll(tasks))
+          task.get();
+      } finally {
+        pool.shutdownNow();
+      }
+      return tasks.size();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while extracting " + zipFile, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Extracts the entries of the given ZIP stream into the given directory as
+   * they arrive (e.g. while the ZIP file is being downloaded), replacing any
+   * previous file with the same path.
+   * <p>
+   * Entries are written in a single thread, since they can only be read in
+   * order. Their CRC and sizes are verified as soon as each one ends, against
+   * its local header or its data descriptor.
+   *
+   * @return the amount of extracted files
+   * @throws UncheckedIOException wrapping a {@link ZipException} if any entry
+   *                              is corrupted or would be extracted out of
+   *                              the target directory
+   */
+  public int extract(InputStream zipStream, Path targetDir) {
+    Path root = targetDir.toAbsolutePath().normalize();
+    Set<Path> dirs = new HashSet<>();
+    int files = 0;
+    try {
+      createDirectory(root, dirs);
+      ZipInputStream zip = new ZipInputStream(zipStream);
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        Path path = resolve(root, entry);
+        if (entry.isDirectory()) {
+          createDirectory(path, dirs);
+          continue;
+        }
+        createDirectory(path.getParent(), dirs);
+        // Reading the entry up to its end makes ZipInputStream verify it
+        write(zip, entry, path);
+        files++;
+      }
+      return files;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void createDirectory(Path dir, Set<Path> created) throws IOException {
+    if (created.contains(dir))
+      return;
+    if (dir.getParent() != null && !Files.isDirectory(dir.getParent()))
+      createDirectory(dir.getParent(), created);
+    Files.createDirectories(dir);
+    ownership.apply(dir);
+    created.add(dir);
+  }
+
+  private void write(ZipFile zip, ZipEntry entry, Path target) {
+    try (InputStream in = zip.getInputStream(entry)) {
+      write(in, entry, target);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void write(InputStream in, ZipEntry entry, Path target) {
+    byte[] buffer = BUFFERS.get();
+    try (OutputStream out = Files.newOutputStream(target, CREATE, TRUNCATE_EXISTING, WRITE)) {
+      int read;
+      while ((read = in.read(buffer)) != -1)
+        out.write(buffer, 0, read);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    ownership.apply(target);
+    if (entry.getTime() != -1)
+      setLastModifiedTime(target, entry.getTime());
+  }
+
+  private static Path resolve(Path root, ZipEntry entry) throws ZipException {
+    Path path = root.resolve(entry.getName()).normalize();
+    if (!path.startsWith(root))
+      throw new ZipException("The entry " + entry.getName() + " would be extracted out of " + root);
+    return path;
+  }
+
+  private static void setLastModifiedTime(Path file, long millis) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(millis));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
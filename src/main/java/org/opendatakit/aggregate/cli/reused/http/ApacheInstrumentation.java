@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import javax.net.ssl.SSLContext;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * This class hooks Apache HttpClient's extension points to report the phases
+ * of each request to the {@link TimingRecorder} of the executing thread.
+ */
+final class ApacheInstrumentation {
+  private ApacheInstrumentation() {
+  }
+
+  static DnsResolver timed(DnsResolver resolver) {
+    return host -> {
+      long start = System.nanoTime();
+      try {
+        return resolver.resolve(host);
+      } finally {
+        long nanos = System.nanoTime() - start;
+        TimingRecorder.ifRecording(recorder -> recorder.addDns(nanos));
+      }
+    };
+  }
+
+  /**
+   * Returns the socket factories for plain and TLS connections, reporting how
+   * long it takes to connect and to complete TLS handshakes.
+   */
+  static Registry<ConnectionSocketFactory> timedSocketFactories(SSLContext sslContext) {
+    return RegistryBuilder.<ConnectionSocketFactory>create()
+        .register("http", new TimedPlainSocketFactory())
+        .register("https", new TimedSslSocketFactory(sslContext))
+        .build();
+  }
+
+  /**
+   * Makes the clients built with the given builder report the time to first
+   * byte and the bytes received of each request.
+   */
+  static HttpClientBuilder instrument(HttpClientBuilder builder) {
+    return builder
+        .setRequestExecutor(new TimedRequestExecutor())
+        // Added first, to count the bytes on the wire, before any content decoding
+        .addInterceptorFirst((HttpResponseInterceptor) (response, context) -> TimingRecorder.ifRecording(recorder -> {
+          if (response.getEntity() != null)
+            response.setEntity(new HttpEntityWrapper(response.getEntity()) {
+              @Override
+              public InputStream getContent() throws IOException {
+                return recorder.count(super.getContent());
+              }
+            });
+        }));
+  }
+
+  private static class TimedPlainSocketFactory extends PlainConnectionSocketFactory {
+    @Override
+    public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress, InetSocketAddress localAddress, HttpContext context) throws IOException {
+      long start = System.nanoTime();
+      try {
+        return super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+      } finally {
+        long nanos = System.nanoTime() - start;
+        TimingRecorder.ifRecording(recorder -> recorder.addConnect(nanos));
+      }
+    }
+  }
+
+  private static class TimedSslSocketFactory extends SSLConnectionSocketFactory {
+    TimedSslSocketFactory(SSLContext sslContext) {
+      super(sslContext);
+    }
+
+    // This includes the TLS handshake of createLayeredSocket, which is
+    // subtracted by the recorder to get the TCP connect time
+    @Override
+    public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress, InetSocketAddress localAddress, HttpContext context) throws IOException {
+      long start = System.nanoTime();
+      try {
+        return super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+      } finally {
+        long nanos = System.nanoTime() - start;
+        TimingRecorder.ifRecording(recorder -> recorder.addConnect(nanos));
+      }
+    }
+
+    @Override
+    public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+      long start = System.nanoTime();
+      try {
+        return super.createLayeredSocket(socket, target, port, context);
+      } finally {
+        long nanos = System.nanoTime() - start;
+        TimingRecorder.ifRecording(recorder -> recorder.addTls(nanos));
+      }
+    }
+  }
+
+  private static class TimedRequestExecutor extends HttpRequestExecutor {
+    @Override
+    public HttpResponse execute(HttpRequest request, HttpClientConnection connection, HttpContext context) throws IOException, org.apache.http.HttpException {
+      TimingRecorder.ifRecording(TimingRecorder::requestSent);
+      HttpResponse response = super.execute(request, connection, context);
+      TimingRecorder.ifRecording(TimingRecorder::headersReceived);
+      return response;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import java.time.Clock;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class limits the bandwidth used by downloads with a token bucket that
+ * is shared by all their connections.
+ * <p>
+ * The bucket holds up to one second worth of bytes. Readers take tokens for
+ * the bytes they have just read, and wait until the bucket has recovered when
+ * it goes into debt, which makes TCP flow control slow down the senders.
+ * <p>
+ * The limit can apply only between two times of the day (e.g. during office
+ * hours), and downloads run at full speed outside that window.
+ */
+public class BandwidthLimiter {
+  public static final BandwidthLimiter UNLIMITED = new BandwidthLimiter(Long.MAX_VALUE, Optional.empty(), Clock.systemDefaultZone());
+  private static final Pattern SPEC = Pattern.compile("(?<amount>\\d+(\\.\\d+)?)(?<unit>[KMG]?)(,(?<from>\\d{1,2}:\\d{2})-(?<to>\\d{1,2}:\\d{2}))?", Pattern.CASE_INSENSITIVE);
+  private final long bytesPerSecond;
+  private final Optional<Window> window;
+  private final Clock clock;
+  private double tokens;
+  private long lastRefillNanos = System.nanoTime();
+
+  private BandwidthLimiter(long bytesPerSecond, Optional<Window> window, Clock clock) {
+    if (bytesPerSecond <= 0)
+      throw new IllegalArgumentException("The maximum bandwidth must be greater than zero");
+    this.bytesPerSecond = bytesPerSecond;
+    this.window = window;
+    this.clock = clock;
+    this.tokens = bytesPerSecond;
+  }
+
+  /**
+   * Parses a limit in bytes per second, with an optional K, M or G binary
+   * suffix, followed by an optional time window of the day (e.g. "512K" or
+   * "1.5M,08:00-18:00"). Windows that end before they start span midnight.
+   */
+  public static BandwidthLimiter parse(String spec) {
+    Matcher matcher = SPEC.matcher(spec.trim());
+    if (!matcher.matches())
+      throw new IllegalArgumentException("Invalid bandwidth " + spec + ". Use a number of bytes per second, like 512K or 1M, optionally followed by a time window, like 1M,08:00-18:00");
+    String unit = matcher.group("unit").toUpperCase();
+    long multiplier = unit.isEmpty() ? 1 : 1L << (10 * ("KMG".indexOf(unit) + 1));
+    long bytesPerSecond = (long) (Double.parseDouble(matcher.group("amount")) * multiplier);
+    try {
+      Optional<Window> window = matcher.group("from") == null
+          ? Optional.empty()
+          : Optional.of(new Window(parseTime(matcher.group("from")), parseTime(matcher.group("to"))));
+      return new BandwidthLimiter(bytesPerSecond, window, Clock.systemDefaultZone());
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException("Invalid time window in " + spec, e);
+    }
+  }
+
+  /**
+   * Returns a copy of this limiter that reads the time of the day from the given clock.
+   */
+  BandwidthLimiter withClock(Clock clock) {
+    return new BandwidthLimiter(bytesPerSecond, window, clock);
+  }
+
+  private static LocalTime parseTime(String time) {
+    return LocalTime.parse(time.length() == 4 ? "0" + time : time);
+  }
+
+  /**
+   * Returns true when the limit applies at this time of the day.
+   */
+  public boolean isLimiting() {
+    if (bytesPerSecond == Long.MAX_VALUE)
+      return false;
+    return !window.isPresent() || window.get().contains(LocalTime.now(clock));
+  }
+
+  /**
+   * Takes tokens for the given amount of bytes, waiting as long as needed to
+   * keep the bandwidth under the limit.
+   */
+  public void acquire(int bytes) {
+    long waitNanos;
+    synchronized (this) {
+      if (!isLimiting())
+        return;
+      long now = System.nanoTime();
+      tokens = Math.min(bytesPerSecond, tokens + (now - lastRefillNanos) * bytesPerSecond / 1e9);
+      lastRefillNanos = now;
+      tokens -= bytes;
+      waitNanos = tokens < 0 ? (long) (-tokens * 1e9 / bytesPerSecond) : 0;
+    }
+    if (waitNanos == 0)
+      return;
+    try {
+      Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HttpException("Interrupted while throttling a download", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    if (bytesPerSecond == Long.MAX_VALUE)
+      return "unlimited";
+    return DownloadProgress.humanReadable(bytesPerSecond) + "/s"
+        + window.map(w -> " between " + w.from + " and " + w.to).orElse("");
+  }
+
+  private static class Window {
+    private final LocalTime from;
+    private final LocalTime to;
+
+    Window(LocalTime from, LocalTime to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    boolean contains(LocalTime time) {
+      return from.isBefore(to)
+          ? !time.isBefore(from) && time.isBefore(to)
+          : !time.isBefore(from) || time.isBefore(to);
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.opendatakit.aggregate.cli.reused.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class decorates an {@link Http} implementation with an on-disk cache of
+ * response bodies.
+ * <p>
+ * Only requests marked with {@link Request#cached(Duration)} are cached. Any
+ * other request goes straight to the decorated implementation.
+ * <p>
+ * Cached responses are stored with their ETag and Last-Modified headers. Once a
+ * cached response is older than the request's max age, it gets revalidated with
+ * a conditional request, and a 304 Not Modified response is served from disk.
+ * Failing to write into the cache never makes a request fail.
+ */
+public class CachingHttp implements Http {
+  private static final Logger log = LoggerFactory.getLogger(CachingHttp.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private final Path dir;
+  private final Http delegate;
+
+  private CachingHttp(Path dir, Http delegate) {
+    this.dir = dir;
+    this.delegate = delegate;
+  }
+
+  /**
+   * Builds a new {@link CachingHttp} instance that stores its entries in the
+   * given directory, which gets created if it doesn't exist.
+   */
+  public static CachingHttp at(Path dir, Http delegate) {
+    return new CachingHttp(dir, delegate);
+  }
+
+  @Override
+  public <T> Response<T> execute(Request<T> request) {
+    if (request.getMethod() != Request.Method.GET || !request.getCacheMaxAge().isPresent())
+      return delegate.execute(request);
+
+    String key = key(request);
+    Optional<Entry> maybeEntry = read(key);
+
+    if (maybeEntry.isPresent() && maybeEntry.get().isFresh(request.getCacheMaxAge().get())) {
+      log.debug("Using cached response for {}", request.getUrl());
+      return maybeEntry.get().toResponse(request);
+    }
+
+    Request<byte[]> rawRequest = request.withRawBody();
+    if (maybeEntry.isPresent()) {
+      Entry entry = maybeEntry.get();
+      if (entry.entityTag.isPresent())
+        rawRequest = rawRequest.header("If-None-Match", entry.entityTag.get());
+      if (entry.lastModified.isPresent())
+        rawRequest = rawRequest.header("If-Modified-Since", entry.lastModified.get());
+    }
+
+    Response<byte[]> response = delegate.execute(rawRequest);
+
+    if (response.getStatusCode() == 304 && maybeEntry.isPresent()) {
+      log.debug("Cached response for {} has been revalidated", request.getUrl());
+      Entry revalidatedEntry = maybeEntry.get().revalidated(Instant.now());
+      write(key, revalidatedEntry, Optional.empty());
+      return revalidatedEntry.toResponse(request);
+    }
+
+    if (!response.isSuccess())
+      return response.map(body -> null);
+
+    Entry newEntry = Entry.from(response, Instant.now());
+    write(key, newEntry, Optional.of(response.get()));
+    return newEntry.toResponse(request);
+  }
+
+  private Optional<Entry> read(String key) {
+    Path metadataFile = dir.resolve(key + ".json");
+    Path bodyFile = dir.resolve(key + ".body");
+    if (!Files.exists(metadataFile) || !Files.exists(bodyFile))
+      return Optional.empty();
+    try {
+      return Optional.of(Entry.from(MAPPER.readTree(metadataFile.toFile()), bodyFile));
+    } catch (IOException | RuntimeException e) {
+      log.warn("Ignoring unreadable cache entry {}", metadataFile, e);
+      return Optional.empty();
+    }
+  }
+
+  private void write(String key, Entry entry, Optional<byte[]> body) {
+    try {
+      Files.createDirectories(dir);
+      if (body.isPresent())
+        writeAtomically(dir.resolve(key + ".body"), body.get());
+      writeAtomically(dir.resolve(key + ".json"), MAPPER.writeValueAsBytes(entry.toJson()));
+    } catch (IOException e) {
+      log.warn("Can't write cache entry {}", key, e);
+    }
+  }
+
+  private void writeAtomically(Path file, byte[] bytes) throws IOException {
+    Path tempFile = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+    try {
+      Files.write(tempFile, bytes);
+      Files.move(tempFile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  /**
+   * Returns the name of the files of the cache entry of the given request,
+   * which depends on its URL and headers, since these can change the contents
+   * of the response (e.g. Accept).
+   */
+  private static String key(Request<?> request) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(request.getUrl().toString().getBytes(UTF_8));
+      request.headers.forEach(header -> {
+        digest.update(("\n" + header.getLeft() + ": " + header.getRight()).getBytes(UTF_8));
+      });
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest.digest())
+        sb.append(String.format("%02x", b));
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class Entry {
+    private final int statusCode;
+    private final Headers headers;
+    private final Optional<String> entityTag;
+    private final Optional<String> lastModified;
+    private final Instant storedAt;
+    private final Optional<Path> bodyFile;
+    private final Optional<byte[]> body;
+
+    private Entry(int statusCode, Headers headers, Instant storedAt, Optional<Path> bodyFile, Optional<byte[]> body) {
+      this.statusCode = statusCode;
+      this.headers = headers;
+      this.entityTag = headers.get("ETag");
+      this.lastModified = headers.get("Last-Modified");
+      this.storedAt = storedAt;
+      this.bodyFile = bodyFile;
+      this.body = body;
+    }
+
+    static Entry from(Response<byte[]> response, Instant storedAt) {
+      return new Entry(response.getStatusCode(), response.getHeaders(), storedAt, Optional.empty(), Optional.of(response.get()));
+    }
+
+    static Entry from(JsonNode root, Path bodyFile) {
+      List<Pair<String, String>> headers = new ArrayList<>();
+      root.get("headers").forEach(header -> headers.add(Pair.of(header.get(0).asText(), header.get(1).asText())));
+      return new Entry(
+          root.get("statusCode").asInt(),
+          new Headers(headers),
+          Instant.parse(root.get("storedAt").asText()),
+          Optional.of(bodyFile),
+          Optional.empty()
+      );
+    }
+
+    boolean isFresh(Duration maxAge) {
+      return storedAt.plus(maxAge).isAfter(Instant.now());
+    }
+
+    Entry revalidated(Instant now) {
+      return new Entry(statusCode, headers, now, bodyFile, body);
+    }
+
+    <T> Response<T> toResponse(Request<T> request) {
+      byte[] bytes = body.orElseGet(() -> bodyFile.map(file -> {
+        try {
+          return Files.readAllBytes(file);
+        } catch (IOException e) {
+          throw new HttpException("Can't read cached response of " + request.getUrl(), e);
+        }
+      }).orElseThrow(IllegalStateException::new));
+      return new Response.Success<>(statusCode, request.map(headers, new ByteArrayInputStream(bytes)), headers);
+    }
+
+    ObjectNode toJson() {
+      ObjectNode root = MAPPER.createObjectNode();
+      root.put("statusCode", statusCode);
+      root.put("storedAt", storedAt.toString());
+      ArrayNode headersNode = root.putArray("headers");
+      headers.asList().forEach(header -> headersNode.addArray().add(header.getLeft()).add(header.getRight()));
+      return root;
+    }
+  }
+}
@@ -35,13 +35,35 @@ import org.apache.http.client.fluent.Executor;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.HttpHostConnectException;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.ssl.SSLContexts;
 
 public class CommonsHttp implements Http {
+  private final MetricsSink metrics;
+
+  public CommonsHttp() {
+    this(MetricsSink.NONE);
+  }
+
+  public CommonsHttp(MetricsSink metrics) {
+    this.metrics = metrics;
+  }
+
   @Override
   public <T> Response<T> execute(Request<T> request) {
+    return TimingRecorder.record(request, metrics, () -> doExecute(request));
+  }
+
+  private <T> Response<T> doExecute(Request<T> request) {
     // Always instantiate a new Executor to avoid side-effects between executions
-    Executor executor = Executor.newInstance(HttpClientBuilder
-        .create()
+    Executor executor = Executor.newInstance(ApacheInstrumentation.instrument(HttpClientBuilder.create())
+        .setConnectionManager(new BasicHttpClientConnectionManager(
+            ApacheInstrumentation.timedSocketFactories(SSLContexts.createDefault()),
+            null,
+            null,
+            ApacheInstrumentation.timed(SystemDefaultDnsResolver.INSTANCE)
+        ))
         .setDefaultRequestConfig(custom().setCookieSpec(STANDARD).build())
         .build());
     // Apply auth settings if credentials are received
@@ -63,17 +85,7 @@ public class CommonsHttp implements Http {
     try {
       return executor
           .execute(commonsRequest)
-          .handleResponse(res -> {
-            int statusCode = res.getStatusLine().getStatusCode();
-            String statusPhrase = res.getStatusLine().getReasonPhrase();
-            if (statusCode >= 500)
-              return new Response.ServerError<>(statusCode, statusPhrase);
-            if (statusCode >= 400)
-              return new Response.ClientError<>(statusCode, statusPhrase);
-            if (statusCode >= 300)
-              return new Response.Redirection<>(statusCode, statusPhrase);
-            return Response.Success.of(request, res);
-          });
+          .handleResponse(res -> Response.from(request, res));
     } catch (HttpHostConnectException e) {
       throw new HttpException("Connection refused");
     } catch (SocketTimeoutException | ConnectTimeoutException e) {
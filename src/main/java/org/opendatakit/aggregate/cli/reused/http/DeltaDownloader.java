@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import org.opendatakit.aggregate.cli.reused.Futures;
+import org.opendatakit.aggregate.cli.reused.fs.Checksums;
+import org.opendatakit.aggregate.cli.reused.fs.ZipDirectory;
+import org.opendatakit.aggregate.cli.reused.fs.ZipDirectory.Entry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class downloads a new version of a ZIP file (e.g. a WAR package) that
+ * shares most of its entries with a previous version that's available locally.
+ * <p>
+ * It reads the central directory at the end of the remote file with range
+ * requests, and copies the compressed data of the entries that haven't changed
+ * from the local file. Only the rest of bytes are downloaded: local headers,
+ * changed entries, and the central directory.
+ * <p>
+ * The rebuilt file is verified with the expected SHA-256 digest, if there's
+ * one, or with the CRC of all its entries otherwise. Any problem along the way
+ * makes it give up, which lets callers fall back to a regular {@link Downloader}.
+ */
+public final class DeltaDownloader {
+  private static final Logger log = LoggerFactory.getLogger(DeltaDownloader.class);
+  // Reusing smaller entries doesn't compensate for the additional request
+  private static final long MIN_REUSED_SIZE = 32 * 1024;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final Pattern CONTENT_RANGE = Pattern.compile("^bytes (\\d+)-(\\d+)/(\\d+)$");
+
+  private final Http http;
+  private final BandwidthLimiter bandwidthLimiter;
+
+  public DeltaDownloader(Http http, BandwidthLimiter bandwidthLimiter) {
+    this.http = http;
+    this.bandwidthLimiter = bandwidthLimiter;
+  }
+
+  /**
+   * Rebuilds the ZIP file available at the given {@link URL} into the target
+   * {@link Path}, reusing the entries of the given base file that haven't changed.
+   *
+   * @param source         the {@link URL} of the new file, which must support range requests
+   * @param base           the {@link Path} of the previous version of the file
+   * @param target         the {@link Path} of the file that will be written
+   * @param expectedSha256 the expected SHA-256 digest of the new file, if known
+   * @param connections    the maximum number of concurrent range requests
+   * @return the final {@link DownloadProgress}, with the amount of reused bytes, or
+   *     an empty {@link Optional} if the file can't be rebuilt and has to be
+   *     downloaded as a whole
+   */
+  public Optional<DownloadProgress> download(URL source, Path base, Path target, Optional<String> expectedSha256, int connections) {
+    long startNanos = System.nanoTime();
+    try {
+      RemoteFile remote = RemoteFile.open(http, source);
+      ZipDirectory newDirectory = ZipDirectory.read(remote.size, remote::read);
+      ZipDirectory baseDirectory = ZipDirectory.read(base);
+      Map<String, Entry> baseEntries = baseDirectory.getEntries().stream()
+          .collect(toMap(Entry::getName, identity(), (first, second) -> first));
+
+      long reusedBytes = 0;
+      List<Entry> reusedEntries = new ArrayList<>();
+      List<long[]> missingRanges = new ArrayList<>();
+      try (FileChannel baseChannel = FileChannel.open(base, READ);
+           FileChannel targetChannel = FileChannel.open(target, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+        long position = 0;
+        for (Entry entry : newDirectory.getEntries()) {
+          Entry baseEntry = baseEntries.get(entry.getName());
+          long dataOffset = entry.getExpectedDataOffset();
+          if (baseEntry == null
+              || !entry.hasSameContents(baseEntry)
+              || entry.getCompressedSize() < MIN_REUSED_SIZE
+              || dataOffset < position
+              || dataOffset + entry.getCompressedSize() > newDirectory.getOffset())
+            continue;
+          copy(baseChannel, ZipDirectory.readDataOffset(baseChannel, baseEntry), targetChannel, dataOffset, entry.getCompressedSize());
+          reusedBytes += entry.getCompressedSize();
+          reusedEntries.add(entry);
+          if (dataOffset > position)
+            missingRanges.add(new long[]{position, dataOffset});
+          position = dataOffset + entry.getCompressedSize();
+        }
+        missingRanges.add(new long[]{position, remote.size});
+        log.info("Reusing {} entries of {}. Downloading {} ranges of {}", reusedEntries.size(), base, missingRanges.size(), source);
+
+        long downloadedBytes = remote.fetch(missingRanges, targetChannel, bandwidthLimiter, connections);
+
+        // The data of reused entries has been placed assuming that their local
+        // headers have the same extra fields as their central directory headers
+        for (Entry entry : reusedEntries) {
+          ByteBuffer header = ByteBuffer.allocate(ZipDirectory.LOCAL_HEADER_SIZE);
+          targetChannel.read(header, entry.getLocalHeaderOffset());
+          header.flip();
+          if (ZipDirectory.dataOffset(header, entry.getLocalHeaderOffset()) != entry.getExpectedDataOffset())
+            throw new ZipException("The local header of " + entry + " doesn't match its central directory header");
+        }
+        targetChannel.force(false);
+
+        String sha256 = Checksums.sha256(target);
+        if (expectedSha256.isPresent() && !expectedSha256.get().equalsIgnoreCase(sha256))
+          throw new ZipException("The rebuilt file has the SHA-256 digest " + sha256 + " instead of " + expectedSha256.get());
+        if (!expectedSha256.isPresent())
+          verifyEntries(target);
+        return Optional.of(DownloadProgress.rebuilt(
+            downloadedBytes + remote.initialBytes,
+            reusedBytes,
+            remote.size,
+            Duration.ofNanos(System.nanoTime() - startNanos),
+            sha256
+        ));
+      }
+    } catch (IOException | RuntimeException e) {
+      log.warn("Can't rebuild {} from {}", source, base, e);
+      return Optional.empty();
+    }
+  }
+
+  private static void copy(FileChannel source, long sourcePosition, FileChannel target, long targetPosition, long length) throws IOException {
+    long copied = 0;
+    // Unlike transferFrom, transferTo can write past the current end of the target
+    target.position(targetPosition);
+    while (copied < length) {
+      long transferred = source.transferTo(sourcePosition + copied, length - copied, target);
+      if (transferred <= 0)
+        throw new ZipException("Unexpected end of file at " + (sourcePosition + copied));
+      copied += transferred;
+    }
+  }
+
+  /**
+   * Reads all the entries of the given ZIP file, which fails if the CRC of any
+   * of them doesn't match its contents.
+   */
+  private static void verifyEntries(Path file) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(file))) {
+      while (zip.getNextEntry() != null)
+        while (zip.read(buffer) != -1) {
+          // Reading the entry verifies its CRC
+        }
+    }
+  }
+
+  /**
+   * A remote file, whose last bytes are read with the first request, which
+   * also tells its size and entity tag.
+   */
+  private static class RemoteFile {
+    private final Http http;
+    private final URL url;
+    private final long size;
+    private final Optional<String> entityTag;
+    private final long initialBytes;
+    // The bytes from knownStart to the end of the file
+    private ByteBuffer known;
+    private long knownStart;
+
+    private RemoteFile(Http http, URL url, long size, Optional<String> entityTag, ByteBuffer known) {
+      this.http = http;
+      this.url = url;
+      this.size = size;
+      this.entityTag = entityTag;
+      this.initialBytes = known.remaining();
+      this.known = known;
+      this.knownStart = size - known.remaining();
+    }
+
+    static RemoteFile open(Http http, URL url) {
+      Request<RemoteFile> request = Request.get(url, (headers, contents) -> {
+        Matcher contentRange = headers.get("Content-Range").map(CONTENT_RANGE::matcher).filter(Matcher::matches)
+            .orElseThrow(() -> new IllegalStateException("The server doesn't support range requests"));
+        return new RemoteFile(http, url, Long.parseLong(contentRange.group(3)), headers.get("ETag"), ByteBuffer.wrap(readAll(contents)));
+      })
+          .header("Accept-Encoding", "identity")
+          .header("Range", "bytes=-" + ZipDirectory.tailSize());
+      return http.execute(request).orElseThrow(() -> new HttpException("Can't get the end of " + url));
+    }
+
+    /**
+     * Returns the requested bytes, which are kept, together with the rest of
+     * bytes up to the end of the file, to avoid downloading them again.
+     */
+    synchronized ByteBuffer read(long position, int length) {
+      if (position < knownStart) {
+        long[] range = {position, knownStart};
+        ByteBuffer missing = ByteBuffer.allocate((int) (knownStart - position));
+        http.execute(rangeRequest(range, (headers, contents) -> {
+          missing.put(readAll(contents));
+          return null;
+        })).orElseThrow(() -> new HttpException("Can't get the bytes " + position + "-" + (knownStart - 1) + " of " + url));
+        missing.flip();
+        ByteBuffer merged = ByteBuffer.allocate(missing.remaining() + known.remaining());
+        merged.put(missing).put(known.duplicate()).flip();
+        known = merged;
+        knownStart = position;
+      }
+      ByteBuffer slice = known.duplicate();
+      slice.position((int) (position - knownStart)).limit((int) (position - knownStart + length));
+      return slice.slice();
+    }
+
+    /**
+     * Writes the given ranges of this file into the target channel, and
+     * returns the amount of downloaded bytes.
+     */
+    long fetch(List<long[]> ranges, FileChannel target, BandwidthLimiter bandwidthLimiter, int connections) throws IOException {
+      List<long[]> remoteRanges = new ArrayList<>();
+      for (long[] range : ranges) {
+        // The end of the file has been read already
+        long knownPart = Math.max(range[0], knownStart);
+        if (knownPart < range[1]) {
+          ByteBuffer bytes = known.duplicate();
+          bytes.position((int) (knownPart - knownStart)).limit((int) (range[1] - knownStart));
+          writeFully(target, bytes, knownPart);
+        }
+        if (range[0] < Math.min(range[1], knownStart))
+          remoteRanges.add(new long[]{range[0], Math.min(range[1], knownStart)});
+      }
+
+      AtomicLong downloadedBytes = new AtomicLong();
+      for (int i = 0; i < remoteRanges.size(); i += connections) {
+        List<CompletableFuture<Response<Long>>> batch = remoteRanges.subList(i, Math.min(remoteRanges.size(), i + connections)).stream()
+            .map(range -> http.executeAsync(rangeRequest(range, (headers, contents) -> receive(range, contents, target, bandwidthLimiter, downloadedBytes))))
+            .collect(toList());
+        for (CompletableFuture<Response<Long>> response : batch)
+          Futures.join(response).orElseThrow(() -> new HttpException("Can't get a range of " + url));
+      }
+      return downloadedBytes.get() + (known.remaining() - initialBytes);
+    }
+
+    private <T> Request<T> rangeRequest(long[] range, BiFunction<Headers, InputStream, T> receiver) {
+      Request<T> request = Request.get(url, (Headers headers, InputStream contents) -> {
+        String expected = "bytes " + range[0] + "-" + (range[1] - 1) + "/" + size;
+        if (!headers.get("Content-Range").filter(expected::equals).isPresent())
+          throw new IllegalStateException("The server has ignored the requested range of " + url + ". It might have changed during the download");
+        return receiver.apply(headers, contents);
+      })
+          .header("Accept-Encoding", "identity")
+          .header("Range", "bytes=" + range[0] + "-" + (range[1] - 1));
+      // If the file has changed, the server will ignore the range
+      return entityTag.map(tag -> request.header("If-Range", tag)).orElse(request);
+    }
+
+    private static long receive(long[] range, InputStream contents, FileChannel target, BandwidthLimiter bandwidthLimiter, AtomicLong downloadedBytes) {
+      try {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long position = range[0];
+        int read;
+        while (position < range[1] && (read = contents.read(buffer, 0, (int) Math.min(buffer.length, range[1] - position))) != -1) {
+          bandwidthLimiter.acquire(read);
+          writeFully(target, ByteBuffer.wrap(buffer, 0, read), position);
+          position += read;
+          downloadedBytes.addAndGet(read);
+        }
+        if (position < range[1])
+          throw new IOException("Unexpected end of the range " + range[0] + "-" + (range[1] - 1));
+        return position;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private static void writeFully(FileChannel target, ByteBuffer bytes, long position) throws IOException {
+      long offset = position;
+      while (bytes.hasRemaining())
+        offset += target.write(bytes, offset);
+    }
+
+    private static byte[] readAll(InputStream contents) {
+      try {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = contents.read(buffer)) != -1)
+          out.write(buffer, 0, read);
+        return out.toByteArray();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * This Value Object class is a snapshot of the state of a running, or finished, download.
+ */
+public class DownloadProgress {
+  private final long downloadedBytes;
+  private final long reusedBytes;
+  private final OptionalLong totalBytes;
+  private final Duration elapsed;
+  private final Optional<String> sha256;
+
+  DownloadProgress(long downloadedBytes, OptionalLong totalBytes, Duration elapsed) {
+    this(downloadedBytes, 0, totalBytes, elapsed, Optional.empty());
+  }
+
+  private DownloadProgress(long downloadedBytes, long reusedBytes, OptionalLong totalBytes, Duration elapsed, Optional<String> sha256) {
+    this.downloadedBytes = downloadedBytes;
+    this.reusedBytes = reusedBytes;
+    this.totalBytes = totalBytes;
+    this.elapsed = elapsed;
+    this.sha256 = sha256;
+  }
+
+  DownloadProgress finished(String sha256) {
+    return new DownloadProgress(downloadedBytes, reusedBytes, totalBytes, elapsed, Optional.of(sha256));
+  }
+
+  /**
+   * Returns the progress of a finished download that has rebuilt a file of
+   * the given size by reusing the given amount of bytes of a local file.
+   */
+  static DownloadProgress rebuilt(long downloadedBytes, long reusedBytes, long totalBytes, Duration elapsed, String sha256) {
+    return new DownloadProgress(downloadedBytes, reusedBytes, OptionalLong.of(totalBytes), elapsed, Optional.of(sha256));
+  }
+
+  public long getDownloadedBytes() {
+    return downloadedBytes;
+  }
+
+  /**
+   * Returns the amount of bytes that have been taken from a local file
+   * instead of being downloaded.
+   */
+  public long getReusedBytes() {
+    return reusedBytes;
+  }
+
+  public OptionalLong getTotalBytes() {
+    return totalBytes;
+  }
+
+  public Duration getElapsed() {
+    return elapsed;
+  }
+
+  /**
+   * Returns the hex-encoded SHA-256 digest of the downloaded file, which is
+   * only present once the download has finished.
+   */
+  public Optional<String> getSha256() {
+    return sha256;
+  }
+
+  public long getBytesPerSecond() {
+    long millis = Math.max(1, elapsed.toMillis());
+    return downloadedBytes * 1000 / millis;
+  }
+
+  /**
+   * Returns the given amount of bytes in a human readable format, using binary units.
+   */
+  public static String humanReadable(long bytes) {
+    if (bytes < 1024)
+      return bytes + " B";
+    int exponent = (int) (Math.log(bytes) / Math.log(1024));
+    return String.format("%.1f %sB", bytes / Math.pow(1024, exponent), "KMGTPE".charAt(exponent - 1));
+  }
+
+  @Override
+  public String toString() {
+    return humanReadable(downloadedBytes)
+        + (totalBytes.isPresent() ? " of " + humanReadable(totalBytes.getAsLong()) : "")
+        + String.format(" in %.1f s (%s/s)", elapsed.toMillis() / 1000D, humanReadable(getBytesPerSecond()));
+  }
+}
@@ -0,0 +1,616 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Collections.singletonList;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.opendatakit.aggregate.cli.reused.fs.Checksums;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downloads files by streaming response bodies straight into a {@link FileChannel}.
+ * <p>
+ * The target file is extended to its final size as soon as it's known, and
+ * interrupted transfers are resumed from the last written byte using HTTP
+ * Range requests.
+ * <p>
+ * When more than one connection is requested and the server supports ranges,
+ * the file is split in segments that are fetched concurrently into their
+ * offsets of the target file. Otherwise, it's downloaded in a single stream.
+ * <p>
+ * When the file is available from more than one source (e.g. mirrors), each
+ * segment starts with the first one and fails over to the next one, resuming
+ * from its last written byte, when its transfer is interrupted or its
+ * throughput collapses.
+ * <p>
+ * Downloads can be throttled with a {@link BandwidthLimiter}, which is shared
+ * by all their connections.
+ * <p>
+ * The SHA-256 digest of the file is computed while it's being written. Bytes
+ * that arrive in order are digested straight from the download buffers, and
+ * segments that arrive ahead of the digested prefix are read back from the
+ * target file (usually still in the OS page cache) once the gap before them
+ * has been filled.
+ */
+public class Downloader {
+  private static final Logger log = LoggerFactory.getLogger(Downloader.class);
+  private static final Pattern CONTENT_RANGE = Pattern.compile("^bytes (\\d+)-(\\d+)/(\\d+|\\*)$");
+  private static final int BUFFER_SIZE = 1024 * 1024;
+  private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+  private static final int MAX_ATTEMPTS = 5;
+  private static final Duration PROGRESS_INTERVAL = Duration.ofSeconds(1);
+  // The throughput of a segment has collapsed when, during a whole window, it
+  // falls under a fraction of the best throughput seen in previous windows
+  private static final Duration THROUGHPUT_WINDOW = Duration.ofSeconds(5);
+  private static final int COLLAPSE_RATIO = 10;
+
+  private final Http http;
+  private final BandwidthLimiter bandwidthLimiter;
+
+  public Downloader(Http http) {
+    this(http, BandwidthLimiter.UNLIMITED);
+  }
+
+  public Downloader(Http http, BandwidthLimiter bandwidthLimiter) {
+    this.http = http;
+    this.bandwidthLimiter = bandwidthLimiter;
+  }
+
+  /**
+   * Downloads the contents of the given {@link URL} into the target {@link Path}
+   * in a single stream, replacing any previous file.
+   *
+   * @see #download(URL, Path, OptionalLong, int, Consumer)
+   */
+  public DownloadProgress download(URL url, Path target, Consumer<DownloadProgress> onProgress) {
+    return download(url, target, OptionalLong.empty(), 1, onProgress);
+  }
+
+  /**
+   * Downloads the contents of the given {@link URL} into the target {@link Path},
+   * replacing any previous file.
+   *
+   * @param url          the {@link URL} to download
+   * @param target       the {@link Path} of the file that will be written
+   * @param expectedSize the expected size of the file, used to plan the segments. If
+   *                     it's not present, the file is downloaded in a single stream
+   * @param connections  the maximum number of concurrent connections to use
+   * @param onProgress   a {@link Consumer} that receives {@link DownloadProgress}
+   *                     updates while the download runs
+   * @return the final {@link DownloadProgress} of the finished download, with
+   *     the SHA-256 digest of the file
+   */
+  public DownloadProgress download(URL url, Path target, OptionalLong expectedSize, int connections, Consumer<DownloadProgress> onProgress) {
+    return download(singletonList(url), target, expectedSize, connections, onProgress);
+  }
+
+  /**
+   * Downloads the file available at the given sources into the target {@link Path},
+   * replacing any previous file.
+   *
+   * @param sources the {@link URL} list of the file, in order of preference,
+   *                which are used as failovers of each other
+   * @see #download(URL, Path, OptionalLong, int, Consumer)
+   */
+  public DownloadProgress download(List<URL> sources, Path target, OptionalLong expectedSize, int connections, Consumer<DownloadProgress> onProgress) {
+    try (FileChannel channel = FileChannel.open(target, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+      Transfer transfer = new Transfer(sources, channel, onProgress);
+      long firstSegmentSize = expectedSize.orElse(0) / Math.max(1, connections);
+      long size = connections > 1 && firstSegmentSize >= MIN_SEGMENT_SIZE
+          ? downloadInSegments(transfer, firstSegmentSize, connections)
+          : new Segment(transfer, 0, OptionalLong.empty(), false).download();
+      channel.truncate(size);
+      channel.force(false);
+      DownloadProgress progress = transfer.progress().finished(transfer.digest.finish(size));
+      onProgress.accept(progress);
+      return progress;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Downloads the contents of the given {@link URL} in a single stream, and
+   * hands them to the given reader as they arrive, instead of writing them to
+   * a file. Whatever the reader leaves unread is drained afterwards, to
+   * compute the SHA-256 digest of the whole file.
+   * <p>
+   * Interrupted transfers are not resumed, since readers can't go back to
+   * a previous position of the contents.
+   *
+   * @param url        the {@link URL} to download
+   * @param reader     a {@link Consumer} that reads the contents
+   * @param onProgress a {@link Consumer} that receives {@link DownloadProgress}
+   *                   updates while the download runs
+   * @return the final {@link DownloadProgress} of the finished download, with
+   *     the SHA-256 digest of the contents
+   */
+  public DownloadProgress stream(URL url, Consumer<InputStream> reader, Consumer<DownloadProgress> onProgress) {
+    Request<DownloadProgress> request = Request.get(url, (headers, contents) -> {
+      StreamingBody body = new StreamingBody(contents, headers.getLong("Content-Length"), bandwidthLimiter, onProgress);
+      reader.accept(body);
+      try {
+        body.drain();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      DownloadProgress progress = body.progress().finished(Checksums.hex(body.digest.digest()));
+      onProgress.accept(progress);
+      return progress;
+    }).header("Accept-Encoding", "identity");
+    return http.execute(request).orElseThrow(() -> new HttpException("Can't download " + url));
+  }
+
+  /**
+   * The first segment works as a probe. Once its response confirms that ranges
+   * are supported and tells the real size of the file, the rest of the file is
+   * split among the remaining connections. If the server ignores the range,
+   * the first segment takes the whole file in a single stream.
+   */
+  private long downloadInSegments(Transfer transfer, long firstSegmentSize, int connections) {
+    ExecutorService executor = Executors.newFixedThreadPool(connections - 1, runnable -> {
+      Thread thread = new Thread(runnable, "download-segment");
+      thread.setDaemon(true);
+      return thread;
+    });
+    List<Future<?>> otherSegments = new ArrayList<>();
+    try {
+      Segment firstSegment = new Segment(transfer, 0, OptionalLong.of(firstSegmentSize), true);
+      firstSegment.onTotalBytesKnown = totalBytes -> {
+        long remaining = totalBytes - firstSegmentSize;
+        if (remaining <= 0)
+          return;
+        int segments = (int) Math.min(connections - 1, Math.max(1, remaining / MIN_SEGMENT_SIZE));
+        long segmentSize = (remaining + segments - 1) / segments;
+        log.info("Downloading {} in {} segments", transfer.sources.get(0), segments + 1);
+        synchronized (otherSegments) {
+          for (long start = firstSegmentSize; start < totalBytes; start += segmentSize) {
+            Segment segment = new Segment(transfer, start, OptionalLong.of(Math.min(totalBytes, start + segmentSize)), true);
+            otherSegments.add(executor.submit((Runnable) segment::download));
+          }
+        }
+      };
+      long firstSegmentEnd = firstSegment.download();
+      synchronized (otherSegments) {
+        for (Future<?> segment : otherSegments)
+          segment.get();
+      }
+      return transfer.getTotalBytes().orElse(firstSegmentEnd);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HttpException("The download of " + transfer.sources.get(0) + " has been interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new HttpException("The download of " + transfer.sources.get(0) + " has failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Holds the state shared by all the segments of a download.
+   */
+  private static class Transfer {
+    private final List<URL> sources;
+    private final FileChannel channel;
+    private final Consumer<DownloadProgress> onProgress;
+    private final OrderedDigest digest;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong downloadedBytes = new AtomicLong(0);
+    private long lastReportNanos = startNanos;
+    private OptionalLong totalBytes = OptionalLong.empty();
+    // Each source has its own entity tags
+    private final Map<String, String> entityTags = new HashMap<>();
+
+    Transfer(List<URL> sources, FileChannel channel, Consumer<DownloadProgress> onProgress) {
+      if (sources.isEmpty())
+        throw new IllegalArgumentException("No sources to download from");
+      this.sources = sources;
+      this.channel = channel;
+      this.onProgress = onProgress;
+      this.digest = new OrderedDigest(channel);
+    }
+
+    synchronized void learnTotalBytes(OptionalLong totalBytes) throws IOException {
+      if (this.totalBytes.isPresent() || !totalBytes.isPresent())
+        return;
+      this.totalBytes = totalBytes;
+      // Extend the file to its final size once to avoid growing it on every write
+      if (totalBytes.getAsLong() > 0 && channel.size() < totalBytes.getAsLong())
+        channel.write(ByteBuffer.wrap(new byte[1]), totalBytes.getAsLong() - 1);
+    }
+
+    synchronized void learnEntityTag(URL source, Optional<String> entityTag) {
+      entityTag.ifPresent(tag -> entityTags.putIfAbsent(source.toString(), tag));
+    }
+
+    synchronized Optional<String> getEntityTag(URL source) {
+      return Optional.ofNullable(entityTags.get(source.toString()));
+    }
+
+    synchronized OptionalLong getTotalBytes() {
+      return totalBytes;
+    }
+
+    void written(int bytes) {
+      downloadedBytes.addAndGet(bytes);
+      long now = System.nanoTime();
+      synchronized (this) {
+        if (now - lastReportNanos < PROGRESS_INTERVAL.toNanos())
+          return;
+        lastReportNanos = now;
+        onProgress.accept(progress());
+      }
+    }
+
+    synchronized DownloadProgress progress() {
+      return new DownloadProgress(downloadedBytes.get(), totalBytes, Duration.ofNanos(System.nanoTime() - startNanos));
+    }
+  }
+
+  /**
+   * A contiguous range of bytes of the target file, which is fetched by one
+   * connection at a time. Open-ended segments go until the end of the file.
+   */
+  private class Segment {
+    private final Transfer transfer;
+    private final long start;
+    private OptionalLong end;
+    private final boolean ranged;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long position;
+    private boolean receivedEndOfStream = false;
+    private Consumer<Long> onTotalBytesKnown = totalBytes -> { };
+    private int sourceIndex = 0;
+    private long windowStartNanos;
+    private long windowBytes;
+    private long bestBytesPerSecond = 0;
+
+    Segment(Transfer transfer, long start, OptionalLong end, boolean ranged) {
+      this.transfer = transfer;
+      this.start = start;
+      this.end = end;
+      this.ranged = ranged;
+      this.position = start;
+    }
+
+    /**
+     * Downloads this segment, resuming it if the transfer is interrupted.
+     *
+     * @return the position in the file where this segment ends
+     */
+    long download() {
+      for (int attempt = 1; !isComplete(); attempt++) {
+        Response<Long> response;
+        try {
+          response = http.execute(nextRequest());
+        } catch (UncheckedIOException | HttpException e) {
+          // Collapsed transfers are still making progress, which is why
+          // they don't count as failed attempts
+          if (e.getCause() instanceof ThroughputCollapseException)
+            attempt--;
+          else if (attempt == MAX_ATTEMPTS)
+            throw e;
+          failOver(e);
+          continue;
+        }
+        if (!response.isSuccess()) {
+          // Other sources might have the file
+          if (transfer.sources.size() == 1 || attempt == MAX_ATTEMPTS)
+            throw new HttpException(response);
+          failOver(new HttpException(response));
+          continue;
+        }
+        if (!isComplete() && attempt == MAX_ATTEMPTS)
+          throw new HttpException("The download of " + source() + " is incomplete");
+      }
+      return position;
+    }
+
+    private void failOver(RuntimeException cause) {
+      URL failedSource = source();
+      sourceIndex = (sourceIndex + 1) % transfer.sources.size();
+      bestBytesPerSecond = 0;
+      log.warn("Download of {} interrupted at byte {}. Resuming from {}", failedSource, position, source(), cause);
+    }
+
+    private boolean isComplete() {
+      return end.isPresent() ? position >= end.getAsLong() : receivedEndOfStream;
+    }
+
+    private URL source() {
+      return transfer.sources.get(sourceIndex);
+    }
+
+    private Request<Long> nextRequest() {
+      // Ranges refer to the encoded representation, so we ask for the identity encoding
+      Request<Long> request = Request.get(source(), this::receive).header("Accept-Encoding", "identity");
+      if (!ranged && position == 0)
+        return request;
+      Request<Long> rangeRequest = request.header("Range", "bytes=" + position + "-" + (end.isPresent() ? end.getAsLong() - 1 : ""));
+      // If the file has changed since the first request, the server will
+      // ignore the range and send the whole file again
+      return transfer.getEntityTag(source()).map(tag -> rangeRequest.header("If-Range", tag)).orElse(rangeRequest);
+    }
+
+    private Long receive(Headers headers, InputStream contents) {
+      try {
+        Matcher contentRange = headers.get("Content-Range").map(CONTENT_RANGE::matcher).filter(Matcher::matches).orElse(null);
+        if (contentRange != null) {
+          position = Long.parseLong(contentRange.group(1));
+          if (!contentRange.group(3).equals("*")) {
+            long totalBytes = Long.parseLong(contentRange.group(3));
+            transfer.learnTotalBytes(OptionalLong.of(totalBytes));
+            if (end.isPresent() && end.getAsLong() > totalBytes)
+              end = OptionalLong.of(totalBytes);
+            onTotalBytesKnown.accept(totalBytes);
+            onTotalBytesKnown = __ -> { };
+          }
+        } else if (start == 0) {
+          // The server is sending the whole file, which this segment will take
+          position = 0;
+          end = OptionalLong.empty();
+          transfer.learnTotalBytes(headers.getLong("Content-Length"));
+        } else
+          // Retrying won't help because the server is not honoring the range anymore
+          throw new IllegalStateException("The server has ignored the requested range of " + source() + ". It might have changed during the download");
+        transfer.learnEntityTag(source(), headers.get("ETag"));
+
+        ReadableByteChannel body = Channels.newChannel(contents);
+        buffer.clear();
+        windowStartNanos = System.nanoTime();
+        windowBytes = 0;
+        boolean endOfStream = false;
+        while (!endOfStream && !isComplete()) {
+          try {
+            int read = body.read(buffer);
+            endOfStream = read == -1;
+            if (!endOfStream) {
+              bandwidthLimiter.acquire(read);
+              checkThroughput(read);
+            }
+          } catch (IOException e) {
+            // Keep what we already have so that the next attempt can resume from there
+            flush();
+            throw e;
+          }
+          if (endOfStream || !buffer.hasRemaining())
+            flush();
+        }
+        receivedEndOfStream = true;
+        return position;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * Fails the current attempt if the throughput has collapsed and there are
+     * other sources that could be faster.
+     */
+    private void checkThroughput(int read) throws IOException {
+      if (transfer.sources.size() == 1)
+        return;
+      // Throttled transfers are slow on purpose
+      if (bandwidthLimiter.isLimiting()) {
+        windowStartNanos = System.nanoTime();
+        windowBytes = 0;
+        bestBytesPerSecond = 0;
+        return;
+      }
+      windowBytes += read;
+      long now = System.nanoTime();
+      long windowNanos = now - windowStartNanos;
+      if (windowNanos < THROUGHPUT_WINDOW.toNanos())
+        return;
+      long bytesPerSecond = windowBytes * 1_000_000_000L / windowNanos;
+      if (bytesPerSecond < bestBytesPerSecond / COLLAPSE_RATIO)
+        throw new ThroughputCollapseException(String.format(
+            "The throughput from %s has collapsed to %s/s",
+            source(),
+            DownloadProgress.humanReadable(bytesPerSecond)
+        ));
+      bestBytesPerSecond = Math.max(bestBytesPerSecond, bytesPerSecond);
+      windowStartNanos = now;
+      windowBytes = 0;
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      // Never write past the end of this segment
+      if (end.isPresent() && buffer.remaining() > end.getAsLong() - position)
+        buffer.limit((int) (end.getAsLong() - position));
+      ByteBuffer bytes = buffer.duplicate();
+      long bytesPosition = position;
+      while (buffer.hasRemaining()) {
+        int written = transfer.channel.write(buffer, position);
+        position += written;
+        transfer.written(written);
+      }
+      transfer.digest.update(bytes, bytesPosition);
+      buffer.clear();
+    }
+  }
+
+  private static class ThroughputCollapseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    ThroughputCollapseException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Computes the digest of a file whose ranges can be written in any order.
+   */
+  private static class OrderedDigest {
+    private final FileChannel channel;
+    private final MessageDigest digest = Checksums.newSha256();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    // Written ranges past the digested prefix, as start -> end
+    private final TreeMap<Long, Long> pending = new TreeMap<>();
+    private long digested = 0;
+
+    OrderedDigest(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    synchronized void update(ByteBuffer bytes, long position) throws IOException {
+      long end = position + bytes.remaining();
+      if (position < digested) {
+        // The start of the file is being written again (e.g. the server
+        // ignored a range), which means that we have to start over
+        digest.reset();
+        digested = 0;
+        pending.clear();
+      }
+      if (position == digested) {
+        digest.update(bytes);
+        digested = end;
+      } else
+        pending.merge(position, end, Math::max);
+      digestPending();
+    }
+
+    synchronized String finish(long size) throws IOException {
+      digestPending();
+      // Any gap left can only be read back from the file
+      digestFromFile(size);
+      return Checksums.hex(digest.digest());
+    }
+
+    private void digestPending() throws IOException {
+      Map.Entry<Long, Long> next;
+      while ((next = pending.firstEntry()) != null && next.getKey() <= digested) {
+        pending.remove(next.getKey());
+        digestFromFile(next.getValue());
+      }
+    }
+
+    private void digestFromFile(long end) throws IOException {
+      while (digested < end) {
+        readBuffer.clear();
+        readBuffer.limit((int) Math.min(readBuffer.capacity(), end - digested));
+        int read = channel.read(readBuffer, digested);
+        if (read == -1)
+          throw new IOException("Unexpected end of file while computing its digest");
+        readBuffer.flip();
+        digest.update(readBuffer);
+        digested += read;
+      }
+    }
+  }
+
+  /**
+   * A response body that is digested, counted and throttled as it's read.
+   */
+  private static class StreamingBody extends FilterInputStream {
+    private final MessageDigest digest = Checksums.newSha256();
+    private final OptionalLong totalBytes;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final Consumer<DownloadProgress> onProgress;
+    private final long startNanos = System.nanoTime();
+    private long lastProgressNanos = startNanos;
+    private long readBytes;
+
+    StreamingBody(InputStream contents, OptionalLong totalBytes, BandwidthLimiter bandwidthLimiter, Consumer<DownloadProgress> onProgress) {
+      super(contents);
+      this.totalBytes = totalBytes;
+      this.bandwidthLimiter = bandwidthLimiter;
+      this.onProgress = onProgress;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      int read = super.read(bytes, offset, length);
+      if (read > 0) {
+        bandwidthLimiter.acquire(read);
+        digest.update(bytes, offset, read);
+        readBytes += read;
+        long now = System.nanoTime();
+        if (now - lastProgressNanos >= PROGRESS_INTERVAL.toNanos()) {
+          lastProgressNanos = now;
+          onProgress.accept(progress());
+        }
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // Skipped bytes have to be digested too
+      byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+      int read = read(buffer, 0, buffer.length);
+      return Math.max(0, read);
+    }
+
+    @Override
+    public void close() {
+      // The contents are closed by the HTTP client, once they're drained
+    }
+
+    void drain() throws IOException {
+      byte[] buffer = new byte[64 * 1024];
+      while (read(buffer, 0, buffer.length) != -1) {
+        // Keep digesting until the end of the contents
+      }
+    }
+
+    DownloadProgress progress() {
+      return new DownloadProgress(readBytes, totalBytes, Duration.ofNanos(System.nanoTime() - startNanos));
+    }
+  }
+}
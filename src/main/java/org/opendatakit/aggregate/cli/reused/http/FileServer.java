@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class serves files over HTTP, supporting HEAD requests and single byte
+ * range GET requests, which is what {@link Mirrors} and {@link Downloader}
+ * need to use it as a mirror.
+ * <p>
+ * Files are resolved from the path of each request by a function that returns
+ * an open {@link FileChannel}, which lets the function release any lock over
+ * the file before it's sent. Files are expected to be immutable, and their
+ * entity tag is used to honor If-Range requests.
+ */
+public final class FileServer implements AutoCloseable {
+  private static final Logger log = LoggerFactory.getLogger(FileServer.class);
+  private static final Pattern RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+  private static final int THREADS = 16;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  private FileServer(HttpServer server, ExecutorService executor) {
+    this.server = server;
+    this.executor = executor;
+  }
+
+  /**
+   * Starts serving the files returned by the given resolver at the given
+   * address. Use port 0 to bind to any free port.
+   */
+  public static FileServer start(InetSocketAddress address, Function<String, Optional<ServedFile>> resolver) {
+    try {
+      HttpServer server = HttpServer.create(address, 0);
+      AtomicInteger threadCount = new AtomicInteger();
+      ExecutorService executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "file-server-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      server.createContext("/", exchange -> {
+        try {
+          handle(exchange, resolver);
+        } catch (IOException | RuntimeException e) {
+          // Most of the times, the client has gone away mid-transfer
+          log.warn("Can't serve {} to {}", exchange.getRequestURI(), exchange.getRemoteAddress(), e);
+        } finally {
+          exchange.close();
+        }
+      });
+      server.setExecutor(executor);
+      server.start();
+      return new FileServer(server, executor);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private static void handle(HttpExchange exchange, Function<String, Optional<ServedFile>> resolver) throws IOException {
+    String method = exchange.getRequestMethod();
+    boolean head = method.equals("HEAD");
+    if (!head && !method.equals("GET")) {
+      exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+      exchange.sendResponseHeaders(405, -1);
+      return;
+    }
+
+    Optional<ServedFile> resolved = resolver.apply(exchange.getRequestURI().getPath());
+    if (!resolved.isPresent()) {
+      exchange.sendResponseHeaders(404, -1);
+      return;
+    }
+
+    try (FileChannel channel = resolved.get().channel) {
+      long size = channel.size();
+      String entityTag = "\"" + resolved.get().entityTag + "\"";
+      exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+      exchange.getResponseHeaders().set("ETag", entityTag);
+      exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+
+      long start = 0;
+      long end = size;
+      int status = 200;
+      Optional<String> range = Optional.ofNullable(exchange.getRequestHeaders().getFirst("Range"))
+          .filter(value -> Optional.ofNullable(exchange.getRequestHeaders().getFirst("If-Range")).map(entityTag::equals).orElse(true));
+      if (range.isPresent()) {
+        Matcher matcher = RANGE.matcher(range.get().trim());
+        // Unsupported ranges (e.g. multiple ranges) are ignored, and the whole file is sent
+        if (matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+          if (matcher.group(1).isEmpty()) {
+            start = Math.max(0, size - Long.parseLong(matcher.group(2)));
+          } else {
+            start = Long.parseLong(matcher.group(1));
+            if (!matcher.group(2).isEmpty())
+              end = Math.min(size, Long.parseLong(matcher.group(2)) + 1);
+          }
+          if (start >= end) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+            exchange.sendResponseHeaders(416, -1);
+            return;
+          }
+          status = 206;
+          exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + size);
+        }
+      }
+
+      long length = end - start;
+      if (head) {
+        exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+        exchange.sendResponseHeaders(status, -1);
+        return;
+      }
+      exchange.sendResponseHeaders(status, length);
+      try (OutputStream body = exchange.getResponseBody()) {
+        WritableByteChannel target = Channels.newChannel(body);
+        long position = start;
+        while (position < end) {
+          long transferred = channel.transferTo(position, end - position, target);
+          if (transferred <= 0)
+            throw new IOException("Unexpected end of file at byte " + position);
+          position += transferred;
+        }
+      }
+    }
+  }
+
+  /**
+   * An open file, and the entity tag that identifies its contents.
+   */
+  public static final class ServedFile {
+    private final FileChannel channel;
+    private final String entityTag;
+
+    private ServedFile(FileChannel channel, String entityTag) {
+      this.channel = channel;
+      this.entityTag = entityTag;
+    }
+
+    public static ServedFile of(FileChannel channel, String entityTag) {
+      return new ServedFile(channel, entityTag);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.stream.Collectors.toList;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.apache.http.HttpResponse;
+import org.opendatakit.aggregate.cli.reused.Pair;
+
+/**
+ * This Value Object class holds the headers of an HTTP response.
+ * <p>
+ * Header names are compared ignoring their case.
+ */
+public class Headers {
+  private static final Headers EMPTY = new Headers(emptyList());
+  private static final Pattern LINK = Pattern.compile("<([^>]*)>\\s*;(?:[^,]*?;)?\\s*rel=\"?([^\";,]+)\"?");
+  private final List<Pair<String, String>> values;
+
+  Headers(List<Pair<String, String>> values) {
+    this.values = unmodifiableList(values);
+  }
+
+  public static Headers empty() {
+    return EMPTY;
+  }
+
+  static Headers from(HttpResponse httpResponse) {
+    return new Headers(Stream.of(httpResponse.getAllHeaders())
+        .map(header -> Pair.of(header.getName(), header.getValue()))
+        .collect(toList()));
+  }
+
+  /**
+   * Returns the value of the first header with the given name, if any.
+   */
+  public Optional<String> get(String name) {
+    return values.stream()
+        .filter(pair -> pair.getLeft().equalsIgnoreCase(name))
+        .map(Pair::getRight)
+        .findFirst();
+  }
+
+  /**
+   * Returns the value of the first header with the given name, parsed as a long
+   * number, if any.
+   */
+  public OptionalLong getLong(String name) {
+    Optional<String> value = get(name);
+    try {
+      return value.isPresent() ? OptionalLong.of(Long.parseLong(value.get().trim())) : OptionalLong.empty();
+    } catch (NumberFormatException e) {
+      return OptionalLong.empty();
+    }
+  }
+
+  /**
+   * Returns the target references of the Link header (RFC 8288), keyed by their
+   * relation type (e.g. "next", "last").
+   * <p>
+   * References are returned as they appear in the header, and they could be
+   * relative to the URL of the request.
+   */
+  public Map<String, String> getLinks() {
+    Map<String, String> links = new LinkedHashMap<>();
+    get("Link").ifPresent(value -> {
+      Matcher matcher = LINK.matcher(value);
+      while (matcher.find())
+        for (String rel : matcher.group(2).trim().split("\\s+"))
+          links.putIfAbsent(rel, matcher.group(1).trim());
+    });
+    return links;
+  }
+
+  public List<Pair<String, String>> asList() {
+    return values;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    Headers headers = (Headers) o;
+    return Objects.equals(values, headers.values);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(values);
+  }
+
+  @Override
+  public String toString() {
+    return "Headers" + values;
+  }
+}
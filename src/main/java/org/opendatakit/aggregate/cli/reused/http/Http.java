@@ -16,10 +16,16 @@
 
 package org.opendatakit.aggregate.cli.reused.http;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * This interface has Briefcase's HTTP API to interact with external services
+ * <p>
+ * See {@link CommonsHttp} for a stateless implementation and {@link PooledHttp}
+ * for one that reuses connections between requests. {@link CachingHttp} can
+ * decorate any of them with an on-disk cache of responses, and {@link RetryingHttp}
+ * with retries and a circuit breaker.
  */
-// TODO Create a persistent connection (reused) variant based on CommonsHttp
 public interface Http {
   /**
    * Runs a {@link Request} and returns some output value.
@@ -29,4 +35,20 @@ public interface Http {
    * @return an output value of type T
    */
   <T> Response<T> execute(Request<T> request);
+
+  /**
+   * Runs a {@link Request} in a bounded pool of background threads, and returns
+   * a {@link CompletableFuture} of its output value.
+   * <p>
+   * The future completes exceptionally when {@link #execute(Request)} would
+   * throw. See {@link org.opendatakit.aggregate.cli.reused.Futures} for ways to
+   * compose the returned futures.
+   *
+   * @param request the {@link Request} to be executed
+   * @param <T>     type of the output {@link Response}
+   * @return a {@link CompletableFuture} of an output value of type T
+   */
+  default <T> CompletableFuture<Response<T>> executeAsync(Request<T> request) {
+    return CompletableFuture.supplyAsync(() -> execute(request), AsyncHttpExecutor.INSTANCE);
+  }
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+/**
+ * This class picks the default {@link Http} implementation for the running JVM.
+ * <p>
+ * This is the Java 8 version, which uses {@link PooledHttp}. The multi-release
+ * jar has another version of this class in META-INF/versions/11 that uses the
+ * JDK's HTTP/2 client instead.
+ */
+public final class HttpBackend {
+  private HttpBackend() {
+  }
+
+  public static Http build(MetricsSink metrics) {
+    return new PooledHttp(metrics);
+  }
+
+  public static String describe() {
+    return "Apache HttpClient (HTTP/1.1)";
+  }
+}
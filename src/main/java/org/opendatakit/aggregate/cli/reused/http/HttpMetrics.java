@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This {@link MetricsSink} implementation keeps the {@link RequestTiming} of all
+ * the requests of a run in memory, in the order they finished.
+ */
+public class HttpMetrics implements MetricsSink {
+  private final List<RequestTiming> timings = new ArrayList<>();
+
+  @Override
+  public synchronized void record(RequestTiming timing) {
+    timings.add(timing);
+  }
+
+  public synchronized List<RequestTiming> getTimings() {
+    return new ArrayList<>(timings);
+  }
+}
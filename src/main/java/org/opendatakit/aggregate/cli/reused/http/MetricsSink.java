@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+/**
+ * This interface receives the {@link RequestTiming} of every request executed
+ * by an {@link Http} implementation.
+ * <p>
+ * Implementations must be thread-safe, since requests can run concurrently.
+ */
+@FunctionalInterface
+public interface MetricsSink {
+  MetricsSink NONE = timing -> { };
+
+  void record(RequestTiming timing);
+}
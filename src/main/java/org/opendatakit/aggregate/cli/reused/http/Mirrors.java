@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static java.util.stream.Collectors.toList;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+import org.opendatakit.aggregate.cli.reused.Futures;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class picks the fastest of the mirrors of a file.
+ */
+public final class Mirrors {
+  private static final Logger log = LoggerFactory.getLogger(Mirrors.class);
+
+  private Mirrors() {
+  }
+
+  /**
+   * Returns the given mirrors with the fastest one first, followed by the
+   * rest of them in their original order.
+   * <p>
+   * All the mirrors are probed concurrently with HEAD requests, and the first
+   * one to respond successfully wins the race. The original order is kept if
+   * no mirror responds successfully before the timeout.
+   */
+  public static List<URL> byLatency(Http http, List<URL> mirrors, Duration timeout) {
+    if (mirrors.size() <= 1)
+      return mirrors;
+
+    List<CompletableFuture<Response<Headers>>> probes = mirrors.stream()
+        .map(mirror -> http.executeAsync(Request.head(mirror)))
+        .collect(toList());
+    List<CompletableFuture<Optional<URL>>> responders = IntStream.range(0, mirrors.size())
+        .mapToObj(i -> probes.get(i).thenApply(response -> response.isSuccess() ? Optional.of(mirrors.get(i)) : Optional.<URL>empty()))
+        .collect(toList());
+    try {
+      URL fastest = Futures.join(Futures.withTimeout(Futures.firstSuccessful(responders, Optional::isPresent), timeout)).get();
+      log.info("{} is the fastest mirror", fastest);
+      List<URL> ranked = new ArrayList<>(mirrors.size());
+      ranked.add(fastest);
+      mirrors.stream().filter(mirror -> !mirror.toString().equals(fastest.toString())).forEach(ranked::add);
+      return ranked;
+    } catch (RuntimeException e) {
+      Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+      log.warn("No mirror has responded successfully. Keeping their original order", cause);
+      return mirrors;
+    } finally {
+      // Slower probes are not needed anymore
+      probes.forEach(probe -> probe.cancel(true));
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.opendatakit.aggregate.cli.reused.Futures;
+
+/**
+ * This class fetches the pages of paginated resources that advertise their
+ * pages with Link headers, like GitHub's API.
+ */
+public final class Pagination {
+  private Pagination() {
+  }
+
+  /**
+   * Returns the items of all the pages of the given request.
+   *
+   * @see #fetch(Http, Request, Predicate)
+   */
+  public static <T> List<T> fetchAll(Http http, Request<List<T>> firstPage) {
+    return fetch(http, firstPage, items -> false);
+  }
+
+  /**
+   * Returns the items of the pages of the given request, in page order.
+   * <p>
+   * Once the first page is received, the rest of pages up to the one linked
+   * with rel="last" are requested concurrently with {@link Http#executeAsync(Request)}.
+   * Pages are merged in order, and no more pages are merged once the given
+   * predicate is satisfied by the items merged so far.
+   * <p>
+   * Returns an empty list if the first page can't be fetched, and throws an
+   * {@link HttpException} if any other required page can't be fetched, to
+   * avoid returning an incomplete list of items.
+   */
+  public static <T> List<T> fetch(Http http, Request<List<T>> firstPage, Predicate<List<T>> isSatisfied) {
+    Response<List<T>> firstResponse = http.execute(firstPage);
+    if (!firstResponse.isSuccess())
+      return emptyList();
+
+    List<T> items = new ArrayList<>(firstResponse.get());
+    int lastPage = getLastPage(firstPage.getUrl(), firstResponse.getHeaders()).orElse(1);
+    if (lastPage <= 1 || isSatisfied.test(items))
+      return items;
+
+    List<Request<List<T>>> requests = IntStream.rangeClosed(2, lastPage)
+        .mapToObj(page -> firstPage.withQueryParam("page", String.valueOf(page)))
+        .collect(toList());
+    List<CompletableFuture<Response<List<T>>>> pages = requests.stream()
+        .map(http::executeAsync)
+        .collect(toList());
+
+    try {
+      for (int i = 0; i < pages.size(); i++) {
+        Request<List<T>> request = requests.get(i);
+        items.addAll(Futures.join(pages.get(i)).orElseThrow(() -> new HttpException("Can't get " + request.getUrl())));
+        if (isSatisfied.test(items))
+          break;
+      }
+      return items;
+    } finally {
+      // Pages that haven't been requested yet won't be requested
+      pages.forEach(page -> page.cancel(false));
+    }
+  }
+
+  private static Optional<Integer> getLastPage(URL baseUrl, Headers headers) {
+    return Optional.ofNullable(headers.getLinks().get("last"))
+        .map(reference -> resolve(baseUrl, reference))
+        .flatMap(url -> Optional.ofNullable(url.getQuery()))
+        .flatMap(query -> Stream.of(query.split("&"))
+            .filter(pair -> pair.startsWith("page="))
+            .map(pair -> Integer.parseInt(pair.substring("page=".length())))
+            .findFirst());
+  }
+
+  private static URL resolve(URL baseUrl, String reference) {
+    try {
+      return new URL(baseUrl, reference);
+    } catch (MalformedURLException e) {
+      throw new HttpException("Invalid Link header reference " + reference, e);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.apache.http.client.config.CookieSpecs.STANDARD;
+import static org.apache.http.client.config.RequestConfig.custom;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.uri;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.net.ssl.SSLContext;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.HttpHostConnectException;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.ssl.SSLContexts;
+
+/**
+ * This {@link Http} implementation keeps one HTTP client, with a pool of persistent
+ * connections, for its whole lifetime.
+ * <p>
+ * Unlike {@link CommonsHttp}, consecutive requests to the same host reuse open
+ * connections, resolved addresses and TLS sessions instead of paying for a new
+ * TCP connect and full TLS handshake each time.
+ */
+public class PooledHttp implements Http, Closeable {
+  private static final int DEFAULT_MAX_CONNECTIONS = 16;
+  private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 8;
+  private static final Duration DEFAULT_MAX_IDLE_TIME = Duration.ofSeconds(30);
+  private static final int TIMEOUT_MILLIS = 10_000;
+
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient client;
+  private final MetricsSink metrics;
+
+  public PooledHttp() {
+    this(MetricsSink.NONE);
+  }
+
+  public PooledHttp(MetricsSink metrics) {
+    this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_IDLE_TIME, metrics);
+  }
+
+  public PooledHttp(int maxConnections, int maxConnectionsPerRoute, Duration maxIdleTime, MetricsSink metrics) {
+    this.metrics = metrics;
+    // A single SSLContext shared by all the connections lets the JSSE
+    // client session cache resume TLS sessions on new connections
+    SSLContext sslContext = SSLContexts.createSystemDefault();
+    connectionManager = new PoolingHttpClientConnectionManager(
+        ApacheInstrumentation.timedSocketFactories(sslContext),
+        ApacheInstrumentation.timed(new CachingDnsResolver())
+    );
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    // Stale connections are checked before being leased if they have been idle for a while
+    connectionManager.setValidateAfterInactivity(2_000);
+    client = ApacheInstrumentation.instrument(HttpClientBuilder.create())
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(custom()
+            .setCookieSpec(STANDARD)
+            .setConnectTimeout(TIMEOUT_MILLIS)
+            .setSocketTimeout(TIMEOUT_MILLIS)
+            .setConnectionRequestTimeout(TIMEOUT_MILLIS)
+            .build())
+        .evictExpiredConnections()
+        .evictIdleConnections(maxIdleTime.toMillis(), MILLISECONDS)
+        .build();
+  }
+
+  @Override
+  public <T> Response<T> execute(Request<T> request) {
+    return TimingRecorder.record(request, metrics, () -> doExecute(request));
+  }
+
+  private <T> Response<T> doExecute(Request<T> request) {
+    HttpClientContext context = HttpClientContext.create();
+    // Apply auth settings if credentials are received
+    request.ifCredentials((URL url, Credentials credentials) -> {
+      CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+      credentialsProvider.setCredentials(
+          new AuthScope(HttpHost.create(url.getHost())),
+          new UsernamePasswordCredentials(credentials.getUsername(), credentials.getPassword())
+      );
+      context.setCredentialsProvider(credentialsProvider);
+    });
+    try {
+      // The client consumes the response entity after mapping it, which releases
+      // the connection back to the pool
+      return client.execute(getCommonsRequest(request), res -> Response.from(request, res), context);
+    } catch (HttpHostConnectException e) {
+      throw new HttpException("Connection refused");
+    } catch (SocketTimeoutException | ConnectTimeoutException e) {
+      throw new HttpException("The connection has timed out");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      client.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static HttpUriRequest getCommonsRequest(Request<?> request) {
+    RequestBuilder builder;
+    switch (request.getMethod()) {
+      case GET:
+        builder = RequestBuilder.get(uri(request.getUrl()));
+        break;
+      case HEAD:
+        builder = RequestBuilder.head(uri(request.getUrl()));
+        break;
+      default:
+        throw new HttpException("Method " + request.getMethod() + " is not supported");
+    }
+    builder.addHeader("X-OpenRosa-Version", "1.0");
+    request.headers.forEach(pair -> builder.addHeader(pair.getLeft(), pair.getRight()));
+    return builder.build();
+  }
+
+  /**
+   * Resolves each host once and remembers the addresses for the lifetime of
+   * the client, which is a single CLI run.
+   */
+  private static class CachingDnsResolver implements DnsResolver {
+    private final Map<String, InetAddress[]> addresses = new ConcurrentHashMap<>();
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+      InetAddress[] cached = addresses.get(host);
+      if (cached != null)
+        return cached;
+      InetAddress[] resolved = SystemDefaultDnsResolver.INSTANCE.resolve(host);
+      addresses.put(host, resolved);
+      return resolved;
+    }
+  }
+}
@@ -16,20 +16,29 @@
 
 package org.opendatakit.aggregate.cli.reused.http;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.joining;
 import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
 import static org.opendatakit.aggregate.cli.reused.http.Request.Method.GET;
+import static org.opendatakit.aggregate.cli.reused.http.Request.Method.HEAD;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Function;
-import org.opendatakit.aggregate.cli.reused.Json;
+import java.util.stream.Stream;
 import org.opendatakit.aggregate.cli.reused.Pair;
 
 /**
@@ -43,19 +52,36 @@ public class Request<T> {
   private final Method method;
   private final URL url;
   private final Optional<Credentials> credentials;
-  private final Function<InputStream, T> contentMapper;
+  private final BiFunction<Headers, InputStream, T> contentMapper;
   final List<Pair<String, String>> headers;
+  private final Optional<Duration> cacheMaxAge;
 
-  private Request(Method method, URL url, Optional<Credentials> credentials, Function<InputStream, T> contentMapper, List<Pair<String, String>> headers) {
+  private Request(Method method, URL url, Optional<Credentials> credentials, BiFunction<Headers, InputStream, T> contentMapper, List<Pair<String, String>> headers, Optional<Duration> cacheMaxAge) {
     this.method = method;
     this.url = url;
     this.credentials = credentials;
     this.contentMapper = contentMapper;
     this.headers = headers;
+    this.cacheMaxAge = cacheMaxAge;
   }
 
-  public static Request<List<Map<String, Object>>> getJsonList(URL url) {
-    return new Request<>(GET, url, Optional.empty(), Json::parseList, emptyList());
+  public static Request<String> get(URL url) {
+    return new Request<>(GET, url, Optional.empty(), (headers, contents) -> readString(contents), emptyList(), Optional.empty());
+  }
+
+  /**
+   * Builds a GET request that lets the given mapper consume the response body
+   * while it's being received, knowing the response {@link Headers}.
+   */
+  public static <U> Request<U> get(URL url, BiFunction<Headers, InputStream, U> contentMapper) {
+    return new Request<>(GET, url, Optional.empty(), contentMapper, emptyList(), Optional.empty());
+  }
+
+  /**
+   * Builds a HEAD request, which is mapped to the {@link Headers} of its response.
+   */
+  public static Request<Headers> head(URL url) {
+    return new Request<>(HEAD, url, Optional.empty(), (headers, contents) -> headers, emptyList(), Optional.empty());
   }
 
   public Request<T> resolve(String path) {
@@ -64,7 +90,22 @@ public class Request<T> {
     String newUrl = url.toString()
         + (!url.toString().endsWith("/") ? "/" : "")
         + (path.startsWith("/") ? path.substring(1) : path);
-    return new Request<>(method, url(newUrl), credentials, contentMapper, headers);
+    return new Request<>(method, url(newUrl), credentials, contentMapper, headers, cacheMaxAge);
+  }
+
+  /**
+   * Returns a copy of this request with the given query param, replacing any
+   * previous value of it.
+   */
+  public Request<T> withQueryParam(String name, String value) {
+    String encodedName = encode(name);
+    String urlWithoutQuery = url.toString().replaceAll("[?#].*$", "");
+    String query = Stream.concat(
+        Stream.of(Optional.ofNullable(url.getQuery()).orElse("").split("&"))
+            .filter(pair -> !pair.isEmpty() && !pair.split("=", 2)[0].equals(encodedName)),
+        Stream.of(encodedName + "=" + encode(value))
+    ).collect(joining("&"));
+    return new Request<>(method, url(urlWithoutQuery + "?" + query), credentials, contentMapper, headers, cacheMaxAge);
   }
 
   void ifCredentials(BiConsumer<URL, Credentials> consumer) {
@@ -79,19 +120,77 @@ public class Request<T> {
     return method;
   }
 
-  public T map(InputStream contents) {
-    return contentMapper.apply(contents);
+  public T map(Headers headers, InputStream contents) {
+    return contentMapper.apply(headers, contents);
   }
 
   public <U> Request<U> withMapper(Function<T, U> newBodyMapper) {
-    return new Request<>(method, url, credentials, contentMapper.andThen(newBodyMapper), headers);
+    return new Request<>(method, url, credentials, contentMapper.andThen(newBodyMapper), headers, cacheMaxAge);
   }
 
   public Request<T> header(String key, String value) {
     List<Pair<String, String>> newHeaders = new ArrayList<>();
     newHeaders.addAll(headers);
     newHeaders.add(Pair.of(key, value));
-    return new Request<>(method, url, credentials, contentMapper, newHeaders);
+    return new Request<>(method, url, credentials, contentMapper, newHeaders, cacheMaxAge);
+  }
+
+  /**
+   * Marks this request as cacheable by an {@link Http} implementation that
+   * supports it, like {@link CachingHttp}.
+   * <p>
+   * Cached responses younger than the given max age are used without contacting
+   * the server. Older responses are revalidated with a conditional request.
+   */
+  public Request<T> cached(Duration maxAge) {
+    return new Request<>(method, url, credentials, contentMapper, headers, Optional.of(maxAge));
+  }
+
+  Optional<Duration> getCacheMaxAge() {
+    return cacheMaxAge;
+  }
+
+  /**
+   * Returns a copy of this request that runs the given listener right before
+   * its mapper starts reading the response body.
+   */
+  Request<T> onMapping(Runnable listener) {
+    return new Request<>(method, url, credentials, (headers, contents) -> {
+      listener.run();
+      return contentMapper.apply(headers, contents);
+    }, headers, cacheMaxAge);
+  }
+
+  /**
+   * Returns a copy of this request that produces the raw bytes of the response body.
+   */
+  Request<byte[]> withRawBody() {
+    return new Request<>(method, url, credentials, (headers, contents) -> readBytes(contents), headers, cacheMaxAge);
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, UTF_8.name());
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String readString(InputStream contents) {
+    return new String(readBytes(contents), UTF_8);
+  }
+
+  private static byte[] readBytes(InputStream contents) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = contents.read(buffer)) != -1)
+        out.write(buffer, 0, read);
+      return out.toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
   enum Method {
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+/**
+ * This Value Object class holds how long each phase of a request took, and how
+ * many bytes of response body were received.
+ * <p>
+ * Phases that didn't happen are empty. For example, requests that reuse a
+ * pooled connection don't have DNS, connect and TLS phases, and some
+ * implementations can't observe all the phases.
+ */
+public class RequestTiming {
+  private final String request;
+  private final OptionalInt statusCode;
+  private final Optional<String> failure;
+  private final Optional<Duration> dns;
+  private final Optional<Duration> connect;
+  private final Optional<Duration> tls;
+  private final Optional<Duration> timeToFirstByte;
+  private final Optional<Duration> transfer;
+  private final Duration total;
+  private final long bytesReceived;
+
+  RequestTiming(String request, OptionalInt statusCode, Optional<String> failure, Optional<Duration> dns, Optional<Duration> connect, Optional<Duration> tls, Optional<Duration> timeToFirstByte, Optional<Duration> transfer, Duration total, long bytesReceived) {
+    this.request = request;
+    this.statusCode = statusCode;
+    this.failure = failure;
+    this.dns = dns;
+    this.connect = connect;
+    this.tls = tls;
+    this.timeToFirstByte = timeToFirstByte;
+    this.transfer = transfer;
+    this.total = total;
+    this.bytesReceived = bytesReceived;
+  }
+
+  /**
+   * Returns the method and URL of the request.
+   */
+  public String getRequest() {
+    return request;
+  }
+
+  public OptionalInt getStatusCode() {
+    return statusCode;
+  }
+
+  public Optional<String> getFailure() {
+    return failure;
+  }
+
+  public Optional<Duration> getDns() {
+    return dns;
+  }
+
+  public Optional<Duration> getConnect() {
+    return connect;
+  }
+
+  public Optional<Duration> getTls() {
+    return tls;
+  }
+
+  /**
+   * Returns the time between sending the request and receiving the headers of
+   * its response.
+   */
+  public Optional<Duration> getTimeToFirstByte() {
+    return timeToFirstByte;
+  }
+
+  /**
+   * Returns the time spent receiving and mapping the body of the response.
+   */
+  public Optional<Duration> getTransfer() {
+    return transfer;
+  }
+
+  public Duration getTotal() {
+    return total;
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
+  /**
+   * Returns true when the request used a connection that was already open.
+   */
+  public boolean isReusedConnection() {
+    return !connect.isPresent();
+  }
+
+  @Override
+  public String toString() {
+    return request + " " + (statusCode.isPresent() ? statusCode.getAsInt() : failure.orElse("failed"))
+        + " in " + total.toMillis() + " ms (" + bytesReceived + " bytes)";
+  }
+}
@@ -48,10 +48,29 @@ public interface Response<T> {
     return new ClientError<>(404, "Not Found");
   }
 
+  /**
+   * Maps an Apache {@link HttpResponse} to the matching {@link Response} type, using
+   * the given {@link Request} to map the body of successful responses.
+   */
+  static <U> Response<U> from(Request<U> request, HttpResponse httpResponse) {
+    int statusCode = httpResponse.getStatusLine().getStatusCode();
+    String statusPhrase = httpResponse.getStatusLine().getReasonPhrase();
+    Headers headers = Headers.from(httpResponse);
+    if (statusCode >= 500)
+      return new ServerError<>(statusCode, statusPhrase, headers);
+    if (statusCode >= 400)
+      return new ClientError<>(statusCode, statusPhrase, headers);
+    if (statusCode >= 300)
+      return new Redirection<>(statusCode, statusPhrase, headers);
+    return Success.of(request, httpResponse, headers);
+  }
+
   T get();
 
   int getStatusCode();
 
+  Headers getHeaders();
+
   <V> Response<V> map(Function<T, V> outputMapper);
 
   T orElse(T defaultValue);
@@ -71,19 +90,26 @@ public interface Response<T> {
   class Success<T> implements Response<T> {
     private final int statusCode;
     private final T output;
+    private final Headers headers;
 
     Success(int statusCode, T output) {
+      this(statusCode, output, Headers.empty());
+    }
+
+    Success(int statusCode, T output, Headers headers) {
       this.statusCode = statusCode;
       this.output = output;
+      this.headers = headers;
     }
 
-    static <U> Success<U> of(Request<U> request, HttpResponse httpResponse) {
+    static <U> Success<U> of(Request<U> request, HttpResponse httpResponse, Headers headers) {
       InputStream inputStream = Optional.ofNullable(httpResponse.getEntity())
           .map(Success::uncheckedGetContent)
           .orElse(new ByteArrayInputStream("".getBytes(StandardCharsets.UTF_8)));
       return new Success<>(
           httpResponse.getStatusLine().getStatusCode(),
-          request.map(inputStream)
+          request.map(headers, inputStream),
+          headers
       );
     }
 
@@ -105,9 +131,14 @@ public interface Response<T> {
       return statusCode;
     }
 
+    @Override
+    public Headers getHeaders() {
+      return headers;
+    }
+
     @Override
     public <U> Response<U> map(Function<T, U> outputMapper) {
-      return new Success<>(statusCode, outputMapper.apply(output));
+      return new Success<>(statusCode, outputMapper.apply(output), headers);
     }
 
     @Override
@@ -149,10 +180,16 @@ public interface Response<T> {
   class Redirection<T> implements Response<T> {
     private final int statusCode;
     private final String name;
+    private final Headers headers;
 
     Redirection(int statusCode, String name) {
+      this(statusCode, name, Headers.empty());
+    }
+
+    Redirection(int statusCode, String name, Headers headers) {
       this.statusCode = statusCode;
       this.name = name;
+      this.headers = headers;
     }
 
     @Override
@@ -165,9 +202,14 @@ public interface Response<T> {
       return statusCode;
     }
 
+    @Override
+    public Headers getHeaders() {
+      return headers;
+    }
+
     @Override
     public <U> Response<U> map(Function<T, U> outputMapper) {
-      return new Redirection<>(statusCode, name);
+      return new Redirection<>(statusCode, name, headers);
     }
 
     @Override
@@ -209,10 +251,16 @@ public interface Response<T> {
   class ClientError<T> implements Response<T> {
     private final int statusCode;
     private final String name;
+    private final Headers headers;
 
     ClientError(int statusCode, String name) {
+      this(statusCode, name, Headers.empty());
+    }
+
+    ClientError(int statusCode, String name, Headers headers) {
       this.statusCode = statusCode;
       this.name = name;
+      this.headers = headers;
     }
 
     @Override
@@ -225,9 +273,14 @@ public interface Response<T> {
       return statusCode;
     }
 
+    @Override
+    public Headers getHeaders() {
+      return headers;
+    }
+
     @Override
     public <U> Response<U> map(Function<T, U> outputMapper) {
-      return new ClientError<>(statusCode, name);
+      return new ClientError<>(statusCode, name, headers);
     }
 
     @Override
@@ -269,10 +322,16 @@ public interface Response<T> {
   class ServerError<T> implements Response<T> {
     private final int statusCode;
     private final String name;
+    private final Headers headers;
 
     ServerError(int statusCode, String name) {
+      this(statusCode, name, Headers.empty());
+    }
+
+    ServerError(int statusCode, String name, Headers headers) {
       this.statusCode = statusCode;
       this.name = name;
+      this.headers = headers;
     }
 
     @Override
@@ -285,9 +344,14 @@ public interface Response<T> {
       return statusCode;
     }
 
+    @Override
+    public Headers getHeaders() {
+      return headers;
+    }
+
     @Override
     public <U> Response<U> map(Function<T, U> outputMapper) {
-      return new ServerError<>(statusCode, name);
+      return new ServerError<>(statusCode, name, headers);
     }
 
     @Override
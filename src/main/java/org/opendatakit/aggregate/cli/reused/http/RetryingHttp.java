@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static org.opendatakit.aggregate.cli.reused.http.Request.Method.GET;
+import static org.opendatakit.aggregate.cli.reused.http.Request.Method.HEAD;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class decorates an {@link Http} implementation with retries, rate limit
+ * awareness and a circuit breaker per host.
+ * <ul>
+ * <li>Only idempotent requests (GET and HEAD) are retried, when they fail
+ * before getting a response or when they get a 408, 429 or 5xx response, or a
+ * 403 response due to an exhausted rate limit</li>
+ * <li>Retries wait with an exponential backoff with full jitter, or for as long
+ * as the Retry-After header says</li>
+ * <li>Once a response says that there are no requests left for a host
+ * (X-RateLimit-Remaining and X-RateLimit-Reset headers, as used by GitHub),
+ * new requests to that host wait until the rate limit is reset, or fail if
+ * that would take too long</li>
+ * <li>After some consecutive failures, a host is considered dead for a while
+ * and requests to it fail fast. After that, a single trial request is let
+ * through to check if the host has recovered</li>
+ * </ul>
+ * Failures that happen once the mapper of a request has started reading the
+ * body of a response, like a connection timing out halfway through it, are not
+ * retried, since mappers could have consumed part of it already.
+ */
+public class RetryingHttp implements Http {
+  private static final Logger log = LoggerFactory.getLogger(RetryingHttp.class);
+  static final int MAX_ATTEMPTS = 4;
+  static final Duration BASE_DELAY = Duration.ofMillis(500);
+  static final Duration MAX_DELAY = Duration.ofSeconds(30);
+  static final Duration MAX_WAIT = Duration.ofMinutes(1);
+  static final int FAILURE_THRESHOLD = 5;
+  static final Duration OPEN_CIRCUIT_COOLDOWN = Duration.ofSeconds(30);
+  private final Http delegate;
+  private final Clock clock;
+  private final Sleeper sleeper;
+  private final Random random;
+  private final Map<String, HostState> hosts = new ConcurrentHashMap<>();
+
+  RetryingHttp(Http delegate, Clock clock, Sleeper sleeper, Random random) {
+    this.delegate = delegate;
+    this.clock = clock;
+    this.sleeper = sleeper;
+    this.random = random;
+  }
+
+  public static RetryingHttp wrap(Http delegate) {
+    return new RetryingHttp(delegate, Clock.systemUTC(), duration -> Thread.sleep(duration.toMillis()), new Random());
+  }
+
+  @Override
+  public <T> Response<T> execute(Request<T> request) {
+    if (request.getMethod() != GET && request.getMethod() != HEAD)
+      return delegate.execute(request);
+
+    HostState host = hosts.computeIfAbsent(request.getUrl().getHost(), HostState::new);
+    for (int attempt = 1; ; attempt++) {
+      host.acquire(clock.instant());
+      awaitRateLimit(host, request);
+
+      Response<T> response;
+      AtomicBoolean mapping = new AtomicBoolean(false);
+      try {
+        response = delegate.execute(request.onMapping(() -> mapping.set(true)));
+      } catch (HttpException e) {
+        host.onFailure(clock.instant());
+        if (mapping.get() || attempt >= MAX_ATTEMPTS)
+          throw e;
+        Duration delay = backoff(attempt);
+        log.warn("Retrying {} in {} ms after attempt {} of {} failed: {}", request, delay.toMillis(), attempt, MAX_ATTEMPTS, e.getMessage());
+        sleep(delay);
+        continue;
+      } catch (RuntimeException e) {
+        host.release();
+        throw e;
+      }
+
+      Instant now = clock.instant();
+      Optional<Instant> notBefore = getNotBefore(response, now);
+      host.onRateLimit(notBefore);
+      if (response.getStatusCode() >= 500)
+        host.onFailure(now);
+      else
+        host.onSuccess();
+
+      if (!isRetryable(response) || attempt >= MAX_ATTEMPTS)
+        return response;
+      Duration delay = max(backoff(attempt), notBefore.map(instant -> Duration.between(now, instant)).orElse(Duration.ZERO));
+      if (delay.compareTo(MAX_WAIT) > 0)
+        return response;
+      log.warn("Retrying {} in {} ms after attempt {} of {} got HTTP {}", request, delay.toMillis(), attempt, MAX_ATTEMPTS, response.getStatusCode());
+      sleep(delay);
+    }
+  }
+
+  private void awaitRateLimit(HostState host, Request<?> request) {
+    Optional<Instant> notBefore = host.getNotBefore();
+    if (!notBefore.isPresent())
+      return;
+    Duration wait = Duration.between(clock.instant(), notBefore.get());
+    if (wait.isNegative() || wait.isZero())
+      return;
+    if (wait.compareTo(MAX_WAIT) > 0)
+      throw new HttpException("The rate limit of " + host.name + " is exhausted until " + notBefore.get());
+    log.warn("Waiting {} s for the rate limit of {} to be reset before {}", wait.getSeconds(), host.name, request);
+    sleep(wait);
+  }
+
+  /**
+   * Returns a random delay between zero and an exponentially growing limit
+   * ("full jitter"), to spread the retries of concurrent clients.
+   */
+  Duration backoff(int attempt) {
+    long limit = Math.min(MAX_DELAY.toMillis(), BASE_DELAY.toMillis() << Math.min(attempt - 1, 20));
+    return Duration.ofMillis((long) (random.nextDouble() * limit));
+  }
+
+  private void sleep(Duration duration) {
+    try {
+      sleeper.sleep(duration);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HttpException("Interrupted while waiting to retry a request", e);
+    }
+  }
+
+  private static boolean isRetryable(Response<?> response) {
+    int statusCode = response.getStatusCode();
+    return statusCode == 408
+        || statusCode == 429
+        || statusCode == 403 && isRateLimitExhausted(response)
+        || statusCode >= 500;
+  }
+
+  private static boolean isRateLimitExhausted(Response<?> response) {
+    return response.getHeaders().getLong("X-RateLimit-Remaining").orElse(1) == 0;
+  }
+
+  /**
+   * Returns the instant before which no more requests should be sent to the
+   * host of the given response, if it says so.
+   */
+  private static Optional<Instant> getNotBefore(Response<?> response, Instant now) {
+    if (isRateLimitExhausted(response)) {
+      Headers headers = response.getHeaders();
+      if (headers.getLong("X-RateLimit-Reset").isPresent())
+        return Optional.of(Instant.ofEpochSecond(headers.getLong("X-RateLimit-Reset").getAsLong()));
+    }
+    return getRetryAfter(response, now).map(now::plus);
+  }
+
+  /**
+   * Returns the delay of the Retry-After header, which can have either a
+   * number of seconds or an HTTP date.
+   */
+  private static Optional<Duration> getRetryAfter(Response<?> response, Instant now) {
+    Headers headers = response.getHeaders();
+    if (headers.getLong("Retry-After").isPresent())
+      return Optional.of(Duration.ofSeconds(Math.max(0, headers.getLong("Retry-After").getAsLong())));
+    return headers.get("Retry-After").flatMap(value -> {
+      try {
+        Instant date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        return Optional.of(date.isAfter(now) ? Duration.between(now, date) : Duration.ZERO);
+      } catch (DateTimeParseException e) {
+        return Optional.empty();
+      }
+    });
+  }
+
+  private static Duration max(Duration a, Duration b) {
+    return a.compareTo(b) >= 0 ? a : b;
+  }
+
+  @FunctionalInterface
+  interface Sleeper {
+    void sleep(Duration duration) throws InterruptedException;
+  }
+
+  private static class HostState {
+    private final String name;
+    private int consecutiveFailures = 0;
+    private Optional<Instant> openUntil = Optional.empty();
+    private boolean trialInFlight = false;
+    private Optional<Instant> notBefore = Optional.empty();
+
+    HostState(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Lets requests through while the circuit is closed, or a single trial
+     * request once the cooldown of an open circuit is over.
+     */
+    synchronized void acquire(Instant now) {
+      if (!openUntil.isPresent())
+        return;
+      if (now.isBefore(openUntil.get()) || trialInFlight)
+        throw new HttpException(name + " is not responding. Failing fast until " + openUntil.get());
+      trialInFlight = true;
+    }
+
+    synchronized void onSuccess() {
+      consecutiveFailures = 0;
+      openUntil = Optional.empty();
+      trialInFlight = false;
+    }
+
+    /**
+     * Lets another trial request through after one that failed for reasons
+     * unrelated to the host, like a failing mapper.
+     */
+    synchronized void release() {
+      trialInFlight = false;
+    }
+
+    synchronized void onFailure(Instant now) {
+      consecutiveFailures++;
+      if (trialInFlight || consecutiveFailures >= FAILURE_THRESHOLD) {
+        if (!openUntil.isPresent())
+          log.warn("Too many failed requests to {}. Failing fast for {} s", name, OPEN_CIRCUIT_COOLDOWN.getSeconds());
+        openUntil = Optional.of(now.plus(OPEN_CIRCUIT_COOLDOWN));
+        trialInFlight = false;
+      }
+    }
+
+    synchronized void onRateLimit(Optional<Instant> reset) {
+      notBefore = reset;
+    }
+
+    synchronized Optional<Instant> getNotBefore() {
+      return notBefore;
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * This class records the phases of a single request while it's being executed.
+ * <p>
+ * The recorder of the request being executed by the current thread is available
+ * through {@link #ifRecording(Consumer)}, which lets instrumented DNS resolvers,
+ * socket factories, etc. add their phases without knowing the request.
+ */
+final class TimingRecorder {
+  private static final ThreadLocal<TimingRecorder> CURRENT = new ThreadLocal<>();
+  private final String request;
+  private final long startNanos = System.nanoTime();
+  private long dnsNanos = -1;
+  private long connectNanos = -1;
+  private long tlsNanos = -1;
+  private long requestSentAt = -1;
+  private long headersReceivedAt = -1;
+  private final AtomicLong bytesReceived = new AtomicLong();
+
+  private TimingRecorder(String request) {
+    this.request = request;
+  }
+
+  /**
+   * Starts recording the given request, which becomes the current one of this thread.
+   */
+  private static TimingRecorder start(Request<?> request) {
+    TimingRecorder recorder = detached(request);
+    CURRENT.set(recorder);
+    return recorder;
+  }
+
+  /**
+   * Starts recording the given request without binding it to this thread, for
+   * requests that complete in other threads.
+   */
+  static TimingRecorder detached(Request<?> request) {
+    return new TimingRecorder(request.getMethod() + " " + request.getUrl());
+  }
+
+  /**
+   * Returns the recorder of the request being executed by {@link #record(Request, MetricsSink, Supplier)}
+   * in this thread.
+   */
+  static TimingRecorder current() {
+    return Optional.ofNullable(CURRENT.get()).orElseThrow(() -> new IllegalStateException("No request is being recorded"));
+  }
+
+  /**
+   * Runs the given execution of a request, recording its timing and sending
+   * it to the given sink, even if the execution fails.
+   */
+  static <T> Response<T> record(Request<T> request, MetricsSink sink, Supplier<Response<T>> execution) {
+    TimingRecorder recorder = start(request);
+    try {
+      Response<T> response = execution.get();
+      recorder.finish(sink, OptionalInt.of(response.getStatusCode()), Optional.empty());
+      return response;
+    } catch (RuntimeException e) {
+      recorder.finish(sink, OptionalInt.empty(), Optional.of(Optional.ofNullable(e.getMessage()).orElse(e.getClass().getSimpleName())));
+      throw e;
+    }
+  }
+
+  static void ifRecording(Consumer<TimingRecorder> consumer) {
+    TimingRecorder recorder = CURRENT.get();
+    if (recorder != null)
+      consumer.accept(recorder);
+  }
+
+  void addDns(long nanos) {
+    dnsNanos = Math.max(dnsNanos, 0) + nanos;
+  }
+
+  void addConnect(long nanos) {
+    connectNanos = Math.max(connectNanos, 0) + nanos;
+  }
+
+  void addTls(long nanos) {
+    tlsNanos = Math.max(tlsNanos, 0) + nanos;
+  }
+
+  void requestSent() {
+    requestSentAt = System.nanoTime();
+  }
+
+  void headersReceived() {
+    headersReceivedAt = System.nanoTime();
+  }
+
+  /**
+   * Returns a stream that counts the bytes read from the given one.
+   */
+  InputStream count(InputStream in) {
+    return new FilterInputStream(in) {
+      @Override
+      public int read() throws IOException {
+        int read = super.read();
+        if (read != -1)
+          bytesReceived.incrementAndGet();
+        return read;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0)
+          bytesReceived.addAndGet(read);
+        return read;
+      }
+    };
+  }
+
+  /**
+   * Stops recording and sends the resulting {@link RequestTiming} to the given sink.
+   */
+  void finish(MetricsSink sink, OptionalInt statusCode, Optional<String> failure) {
+    if (CURRENT.get() == this)
+      CURRENT.remove();
+    long now = System.nanoTime();
+    // The connect phase measured by TLS socket factories includes the handshake
+    long tcpConnectNanos = connectNanos >= 0 && tlsNanos >= 0 ? connectNanos - tlsNanos : connectNanos;
+    sink.record(new RequestTiming(
+        request,
+        statusCode,
+        failure,
+        duration(dnsNanos),
+        duration(tcpConnectNanos),
+        duration(tlsNanos),
+        requestSentAt >= 0 && headersReceivedAt >= 0 ? duration(headersReceivedAt - requestSentAt) : Optional.empty(),
+        headersReceivedAt >= 0 ? duration(now - headersReceivedAt) : Optional.empty(),
+        Duration.ofNanos(now - startNanos),
+        bytesReceived.get()
+    ));
+  }
+
+  private static Optional<Duration> duration(long nanos) {
+    return nanos >= 0 ? Optional.of(Duration.ofNanos(nanos)) : Optional.empty();
+  }
+}
@@ -1,87 +1,50 @@
 package org.opendatakit.aggregate.cli.reused.releases;
 
-import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
-
-import java.net.URL;
-import java.time.OffsetDateTime;
 import java.time.ZonedDateTime;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.Optional;
 
 public class Release implements Comparable<Release> {
-  private final URL url;
-  private final URL assetsUrl;
-  private final URL uploadUrl;
-  private final URL htmlUrl;
-  private final int id;
-  private final String nodeId;
   private final String tagName;
   private final Version version;
-  private final String targetCommitish;
-  private final String name;
   private final boolean draft;
-  private final Author author;
   private final boolean prerelease;
-  private final ZonedDateTime createdAt;
   private final ZonedDateTime publishedAt;
   private final List<Asset> assets;
-  private final URL tarballUrl;
-  private final URL zipballUrl;
-  private final String body;
-
-  public Release(URL url, URL assetsUrl, URL uploadUrl, URL htmlUrl, int id, String nodeId, String tagName, Version version, String targetCommitish, String name, boolean draft, Author author, boolean prerelease, ZonedDateTime createdAt, ZonedDateTime publishedAt, List<Asset> assets, URL tarballUrl, URL zipballUrl, String body) {
-    this.url = url;
-    this.assetsUrl = assetsUrl;
-    this.uploadUrl = uploadUrl;
-    this.htmlUrl = htmlUrl;
-    this.id = id;
-    this.nodeId = nodeId;
+
+  public Release(String tagName, Version version, boolean draft, boolean prerelease, ZonedDateTime publishedAt, List<Asset> assets) {
     this.tagName = tagName;
     this.version = version;
-    this.targetCommitish = targetCommitish;
-    this.name = name;
     this.draft = draft;
-    this.author = author;
     this.prerelease = prerelease;
-    this.createdAt = createdAt;
     this.publishedAt = publishedAt;
     this.assets = assets;
-    this.tarballUrl = tarballUrl;
-    this.zipballUrl = zipballUrl;
-    this.body = body;
   }
 
-  @SuppressWarnings("unchecked")
-  public static Release from(Map<String, Object> json) {
-    Version version;
-    String tagName = (String) json.get("tag_name");
+  static Version parseVersion(String tagName) {
     try {
-      version = Version.from(tagName);
+      return Version.from(tagName);
     } catch (IllegalArgumentException e) {
-      version = new Version.NullVersion(tagName);
+      return new Version.NullVersion(tagName);
     }
-    return new Release(
-        url((String) json.get("url")),
-        url((String) json.get("assets_url")),
-        url((String) json.get("upload_url")),
-        url((String) json.get("html_url")),
-        (Integer) json.get("id"),
-        (String) json.get("node_id"),
-        tagName,
-        version,
-        (String) json.get("target_commitish"),
-        (String) json.get("name"),
-        (Boolean) json.get("draft"),
-        Author.from((Map<String, Object>) json.get("author")),
-        (Boolean) json.get("prerelease"),
-        OffsetDateTime.parse((String) json.get("created_at")).toZonedDateTime(),
-        OffsetDateTime.parse((String) json.get("published_at")).toZonedDateTime(),
-        ((List<Map<String, Object>>) json.get("assets")).stream().map(Asset::from).collect(Collectors.toList()),
-        url((String) json.get("tarball_url")),
-        url((String) json.get("zipball_url")),
-        (String) json.get("body")
-    );
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    Release release = (Release) o;
+    return draft == release.draft &&
+        prerelease == release.prerelease &&
+        Objects.equals(tagName, release.tagName) &&
+        Objects.equals(publishedAt, release.publishedAt) &&
+        Objects.equals(assets, release.assets);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(tagName, draft, prerelease, publishedAt, assets);
   }
 
   @Override
@@ -116,7 +79,40 @@ public class Release implements Comparable<Release> {
     return publishedAt;
   }
 
+  public boolean isDraft() {
+    return draft;
+  }
+
   public boolean isVersion(Version version) {
     return this.version.equals(version);
   }
+
+  public List<Asset> getAssets() {
+    return assets;
+  }
+
+  /**
+   * Returns the {@link Asset} with the Aggregate WAR package of this release, if any.
+   */
+  public Optional<Asset> getWarAsset() {
+    return assets.stream()
+        .filter(asset -> asset.getName().endsWith(".war"))
+        .findFirst();
+  }
+
+  /**
+   * Returns the {@link Asset} with the SHA-256 checksum of the Aggregate WAR
+   * package of this release, if any.
+   * <p>
+   * It can be a file dedicated to the WAR package (e.g. "ODK-Aggregate-v2.0.0.war.sha256"),
+   * or a list of checksums of all the assets (e.g. "SHA256SUMS").
+   */
+  public Optional<Asset> getWarChecksumAsset() {
+    return getWarAsset().flatMap(war -> assets.stream()
+        .filter(asset -> asset.getName().equalsIgnoreCase(war.getName() + ".sha256")
+            || asset.getName().equalsIgnoreCase(war.getName() + ".sha256sum")
+            || asset.getName().equalsIgnoreCase("SHA256SUMS")
+            || asset.getName().equalsIgnoreCase("SHA256SUMS.txt"))
+        .findFirst());
+  }
 }
@@ -0,0 +1,130 @@
+package org.opendatakit.aggregate.cli.reused.releases;
+
+import static com.fasterxml.jackson.core.JsonToken.END_ARRAY;
+import static com.fasterxml.jackson.core.JsonToken.FIELD_NAME;
+import static com.fasterxml.jackson.core.JsonToken.START_ARRAY;
+import static com.fasterxml.jackson.core.JsonToken.START_OBJECT;
+import static com.fasterxml.jackson.core.JsonToken.VALUE_NULL;
+import static java.util.Collections.emptyList;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class decodes the list of releases returned by GitHub's API.
+ * <p>
+ * It reads the JSON tokens as they are streamed, pulling only the fields used
+ * by {@link Release} and {@link Asset}, and skipping the rest of values (author,
+ * URLs, release notes, etc.) without materializing them.
+ */
+class ReleaseDecoder {
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  static List<Release> decode(InputStream contents) {
+    try (JsonParser parser = FACTORY.createParser(contents)) {
+      expect(parser, parser.nextToken(), START_ARRAY);
+      List<Release> releases = new ArrayList<>();
+      JsonToken token;
+      while ((token = parser.nextToken()) != END_ARRAY) {
+        expect(parser, token, START_OBJECT);
+        releases.add(decodeRelease(parser));
+      }
+      return releases;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static Release decodeRelease(JsonParser parser) throws IOException {
+    String tagName = null;
+    boolean draft = false;
+    boolean prerelease = false;
+    String createdAt = null;
+    String publishedAt = null;
+    List<Asset> assets = emptyList();
+    while (parser.nextToken() == FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      switch (field) {
+        case "tag_name":
+          tagName = parser.getText();
+          break;
+        case "draft":
+          draft = parser.getBooleanValue();
+          break;
+        case "prerelease":
+          prerelease = parser.getBooleanValue();
+          break;
+        case "created_at":
+          createdAt = value == VALUE_NULL ? null : parser.getText();
+          break;
+        case "published_at":
+          publishedAt = value == VALUE_NULL ? null : parser.getText();
+          break;
+        case "assets":
+          assets = decodeAssets(parser, value);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    if (tagName == null)
+      throw new JsonParseException(parser, "Release without tag_name");
+    // Draft releases don't have a publish date yet
+    String dateTime = publishedAt != null ? publishedAt : createdAt;
+    if (dateTime == null)
+      throw new JsonParseException(parser, "Release without published_at or created_at");
+    return new Release(tagName, Release.parseVersion(tagName), draft, prerelease, OffsetDateTime.parse(dateTime).toZonedDateTime(), assets);
+  }
+
+  private static List<Asset> decodeAssets(JsonParser parser, JsonToken value) throws IOException {
+    expect(parser, value, START_ARRAY);
+    List<Asset> assets = new ArrayList<>();
+    JsonToken token;
+    while ((token = parser.nextToken()) != END_ARRAY) {
+      expect(parser, token, START_OBJECT);
+      assets.add(decodeAsset(parser));
+    }
+    return assets;
+  }
+
+  private static Asset decodeAsset(JsonParser parser) throws IOException {
+    String name = null;
+    long size = 0;
+    String browserDownloadUrl = null;
+    while (parser.nextToken() == FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "name":
+          name = parser.getText();
+          break;
+        case "size":
+          size = parser.getLongValue();
+          break;
+        case "browser_download_url":
+          browserDownloadUrl = parser.getText();
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    if (name == null || browserDownloadUrl == null)
+      throw new JsonParseException(parser, "Asset without name or browser_download_url");
+    return new Asset(name, size, url(browserDownloadUrl));
+  }
+
+  private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+    if (actual != expected)
+      throw new JsonParseException(parser, "Expected " + expected + " but got " + actual);
+  }
+}
@@ -5,22 +5,92 @@ import static java.util.stream.Collectors.toList;
 import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.opendatakit.aggregate.cli.reused.http.Http;
+import org.opendatakit.aggregate.cli.reused.http.Pagination;
 import org.opendatakit.aggregate.cli.reused.http.Request;
 
 public class ReleaseQueries {
+  private static final int PAGE_SIZE = 100;
+  private static final Pattern SHA256 = Pattern.compile("[0-9a-fA-F]{64}");
+
+  /**
+   * Returns the request of the first page of releases. Use {@link #fetchAll(Http, Request)}
+   * or {@link #fetch(Http, Request, Predicate)} to get the releases in the rest of pages.
+   */
   public static Request<List<Release>> all(boolean includePreReleases) {
-    return Request.getJsonList(url("https://api.github.com/repos/getodk/aggregate/releases"))
+    return Request.get(url("https://api.github.com/repos/getodk/aggregate/releases"), (headers, contents) -> ReleaseDecoder.decode(contents))
+        .withQueryParam("per_page", String.valueOf(PAGE_SIZE))
         .header("Accept", "application/vnd.github.v3+json")
         .header("User-Agent", "Aggregate Updater")
-        .withMapper(jsonObjects -> jsonObjects.stream()
-            .map(Release::from)
+        .withMapper(releases -> releases.stream()
             .filter(Release::isUpdateable)
             .filter(r -> includePreReleases || !r.isPreRelease())
-            .sorted(reverseOrder())
             .collect(toList()));
   }
 
-  public static Request<Release> latest(boolean includePreReleases) {
-    return all(includePreReleases).withMapper(releases -> releases.get(0));
+  /**
+   * Returns the releases in all the pages of the given query, sorted by
+   * descending version.
+   */
+  public static List<Release> fetchAll(Http http, Request<List<Release>> query) {
+    return fetch(http, query, releases -> false);
+  }
+
+  /**
+   * Returns the releases in the pages of the given query, sorted by descending
+   * version, stopping once the given predicate is satisfied.
+   */
+  public static List<Release> fetch(Http http, Request<List<Release>> query, Predicate<List<Release>> isSatisfied) {
+    return Pagination.fetch(http, query, isSatisfied).stream()
+        .sorted(reverseOrder())
+        .collect(toList());
+  }
+
+  /**
+   * Returns the release with the greatest version.
+   * <p>
+   * GitHub lists releases from newest to oldest, which means that the latest
+   * release will be in the first page that has any release.
+   */
+  public static Optional<Release> latest(Http http, Request<List<Release>> query) {
+    return fetch(http, query, releases -> !releases.isEmpty()).stream().findFirst();
+  }
+
+  /**
+   * Returns the request of the SHA-256 checksum of the given file, from an
+   * asset with the output format of sha256sum: lines with a digest and a file
+   * name, or a single digest.
+   */
+  public static Request<Optional<String>> checksum(Asset checksumAsset, String fileName) {
+    return Request.get(checksumAsset.getBrowserDownloadUrl())
+        .header("User-Agent", "Aggregate Updater")
+        .withMapper(contents -> parseChecksum(contents, fileName));
+  }
+
+  static Optional<String> parseChecksum(String contents, String fileName) {
+    List<String[]> lines = Stream.of(contents.split("\\r?\\n"))
+        .map(String::trim)
+        .filter(line -> !line.isEmpty())
+        .map(line -> line.split("\\s+\\*?", 2))
+        .filter(parts -> SHA256.matcher(parts[0]).matches())
+        .collect(toList());
+    if (lines.size() == 1 && lines.get(0).length == 1)
+      return Optional.of(lines.get(0)[0].toLowerCase());
+    return lines.stream()
+        .filter(parts -> parts.length == 2 && parts[1].trim().equals(fileName))
+        .map(parts -> parts[0].toLowerCase())
+        .findFirst();
+  }
+
+  /**
+   * Returns a predicate that is satisfied once a list of releases contains the
+   * given version.
+   */
+  public static Predicate<List<Release>> containing(Version version) {
+    return releases -> releases.stream().anyMatch(release -> release.isVersion(version));
   }
 }
@@ -43,6 +43,11 @@ public class Console {
     outStream.println(text);
   }
 
+  public void verbose(String text) {
+    if (verboseMode)
+      outStream.println(text);
+  }
+
   public void error() {
     errorStream.println();
   }
@@ -72,6 +77,11 @@ public class Console {
     outStream.println(table.render());
   }
 
+  public void verboseTable(List<List<String>> rows, String... headers) {
+    if (verboseMode)
+      table(rows, headers);
+  }
+
   public void execute(String command) {
     execute(command, false);
   }
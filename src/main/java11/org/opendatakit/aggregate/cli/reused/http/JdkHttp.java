@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2018 Nafundi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static java.net.http.HttpClient.Redirect.NORMAL;
+import static java.net.http.HttpClient.Version.HTTP_2;
+import static java.util.stream.Collectors.toList;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.uri;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.Authenticator;
+import java.net.ConnectException;
+import java.net.PasswordAuthentication;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import org.opendatakit.aggregate.cli.reused.Pair;
+
+/**
+ * This class implements {@link Http} with the JDK's HTTP client, available
+ * since Java 11.
+ * <p>
+ * It negotiates HTTP/2 when the server supports it, which multiplexes
+ * concurrent requests to the same host over a single connection, and falls
+ * back to HTTP/1.1 otherwise. Clients are kept for the whole run, and there's
+ * one per set of credentials, since the JDK client authenticates at the
+ * client level.
+ */
+class JdkHttp implements Http {
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+  private final HttpClient anonymousClient = buildClient(Optional.empty());
+  private final Map<Credentials, HttpClient> authenticatedClients = new ConcurrentHashMap<>();
+  private final MetricsSink metrics;
+
+  JdkHttp(MetricsSink metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Executes the request, recording its timing. The JDK client doesn't expose
+   * its DNS, connect and TLS phases, which are included in the time to first byte.
+   */
+  @Override
+  public <T> Response<T> execute(Request<T> request) {
+    return TimingRecorder.record(request, metrics, () -> doExecute(request));
+  }
+
+  private <T> Response<T> doExecute(Request<T> request) {
+    TimingRecorder recorder = TimingRecorder.current();
+    try {
+      recorder.requestSent();
+      HttpResponse<InputStream> response = getClient(request).send(buildRequest(request), BodyHandlers.ofInputStream());
+      recorder.headersReceived();
+      return map(request, response, recorder);
+    } catch (IOException e) {
+      throw translate(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HttpException("Interrupted while waiting for " + request.getUrl(), e);
+    }
+  }
+
+  /**
+   * Sends the request without blocking any thread while waiting for the
+   * response, and maps its body in the bounded pool of {@link Http#executeAsync(Request)}.
+   */
+  @Override
+  public <T> CompletableFuture<Response<T>> executeAsync(Request<T> request) {
+    TimingRecorder recorder = TimingRecorder.detached(request);
+    recorder.requestSent();
+    return getClient(request).sendAsync(buildRequest(request), BodyHandlers.ofInputStream())
+        .handleAsync((response, error) -> {
+          if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            RuntimeException failure = cause instanceof IOException ? translate((IOException) cause) : new CompletionException(cause);
+            recorder.finish(metrics, OptionalInt.empty(), Optional.of(String.valueOf(failure.getMessage())));
+            throw failure;
+          }
+          recorder.headersReceived();
+          try {
+            Response<T> mapped = map(request, response, recorder);
+            recorder.finish(metrics, OptionalInt.of(mapped.getStatusCode()), Optional.empty());
+            return mapped;
+          } catch (RuntimeException e) {
+            recorder.finish(metrics, OptionalInt.empty(), Optional.of(String.valueOf(e.getMessage())));
+            throw e;
+          }
+        }, AsyncHttpExecutor.INSTANCE);
+  }
+
+  private HttpClient getClient(Request<?> request) {
+    HttpClient[] client = {anonymousClient};
+    request.ifCredentials((url, credentials) -> client[0] = authenticatedClients.computeIfAbsent(
+        credentials,
+        c -> buildClient(Optional.of(c))
+    ));
+    return client[0];
+  }
+
+  private static HttpClient buildClient(Optional<Credentials> credentials) {
+    HttpClient.Builder builder = HttpClient.newBuilder()
+        .version(HTTP_2)
+        .followRedirects(NORMAL)
+        .connectTimeout(TIMEOUT);
+    credentials.ifPresent(c -> builder.authenticator(new Authenticator() {
+      @Override
+      protected PasswordAuthentication getPasswordAuthentication() {
+        return new PasswordAuthentication(c.getUsername(), c.getPassword().toCharArray());
+      }
+    }));
+    return builder.build();
+  }
+
+  private static HttpRequest buildRequest(Request<?> request) {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(uri(request.getUrl()))
+        .timeout(TIMEOUT)
+        .header("X-OpenRosa-Version", "1.0");
+    request.headers.forEach(pair -> builder.header(pair.getLeft(), pair.getRight()));
+    switch (request.getMethod()) {
+      case GET:
+        return builder.GET().build();
+      case HEAD:
+        return builder.method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+      default:
+        throw new HttpException("Method " + request.getMethod() + " is not supported");
+    }
+  }
+
+  private static <T> Response<T> map(Request<T> request, HttpResponse<InputStream> response, TimingRecorder recorder) {
+    int statusCode = response.statusCode();
+    Headers headers = new Headers(response.headers().map().entrySet().stream()
+        .flatMap(entry -> entry.getValue().stream().map(value -> Pair.of(entry.getKey(), value)))
+        .collect(toList()));
+    // HTTP/2 has no reason phrases
+    String statusPhrase = "HTTP " + statusCode;
+    try (InputStream body = recorder.count(answerEmptyReads(response.body()))) {
+      if (statusCode >= 500)
+        return new Response.ServerError<>(statusCode, statusPhrase, headers);
+      if (statusCode >= 400)
+        return new Response.ClientError<>(statusCode, statusPhrase, headers);
+      if (statusCode >= 300)
+        return new Response.Redirection<>(statusCode, statusPhrase, headers);
+      return new Response.Success<>(statusCode, request.map(headers, body), headers);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Answers reads of zero bytes, which InputStream.readAllBytes and other
+   * mappers are allowed to make, without reaching the JDK's body stream. It
+   * would wait for the next chunk of the body before answering them, and it
+   * fails an assertion on them when assertions are enabled, as in tests.
+   */
+  private static InputStream answerEmptyReads(InputStream body) {
+    return new FilterInputStream(body) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+          return 0;
+        return super.read(b, off, len);
+      }
+    };
+  }
+
+  private static RuntimeException translate(IOException e) {
+    if (e instanceof ConnectException)
+      return new HttpException("Connection refused");
+    if (e instanceof HttpTimeoutException)
+      return new HttpException("The connection has timed out");
+    return new UncheckedIOException(e);
+  }
+}
@@ -0,0 +1,69 @@
+package org.opendatakit.aggregate.cli.operations;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+class RetentionPolicyTest {
+  private static final LocalDateTime NOW = LocalDateTime.of(2019, 3, 31, 12, 0);
+  // One backup per week, 100 bytes each, from oldest to newest
+  private static final List<BackupCatalog.Entry> BACKUPS = Arrays.asList(
+      backup(28, BackupMode.ZIP),
+      backup(21, BackupMode.ZIP),
+      backup(14, BackupMode.DEDUP),
+      backup(7, BackupMode.DEDUP),
+      backup(0, BackupMode.SNAPSHOT)
+  );
+
+  @Test
+  void keeps_the_last_backups_or_the_young_ones() {
+    assertThat(prunedAges(RetentionPolicy.of(Optional.of(2), Optional.empty(), Optional.empty())), contains(28, 21, 14));
+    assertThat(prunedAges(RetentionPolicy.of(Optional.empty(), Optional.of(Duration.ofDays(15)), Optional.empty())), contains(28, 21));
+    assertThat(prunedAges(RetentionPolicy.of(Optional.of(4), Optional.of(Duration.ofDays(15)), Optional.empty())), contains(28));
+  }
+
+  @Test
+  void prunes_the_oldest_kept_backups_until_they_fit_in_the_size_limit() {
+    assertThat(prunedAges(RetentionPolicy.of(Optional.empty(), Optional.empty(), Optional.of(250L))), contains(28, 21, 14));
+    assertThat(prunedAges(RetentionPolicy.of(Optional.of(4), Optional.empty(), Optional.of(250L))), contains(28, 21, 14));
+    assertThat(prunedAges(RetentionPolicy.of(Optional.empty(), Optional.empty(), Optional.of(500L))), is(empty()));
+  }
+
+  @Test
+  void never_prunes_the_newest_backup() {
+    assertThat(prunedAges(RetentionPolicy.of(Optional.empty(), Optional.of(Duration.ofHours(1)), Optional.of(10L))), contains(28, 21, 14, 7));
+  }
+
+  @Test
+  void parses_sizes_and_ages() {
+    assertThat(RetentionPolicy.parseSize("512"), is(512L));
+    assertThat(RetentionPolicy.parseSize("1.5k"), is(1536L));
+    assertThat(RetentionPolicy.parseSize("2G"), is(2L << 30));
+    assertThat(RetentionPolicy.parseAge("12h"), is(Duration.ofHours(12)));
+    assertThat(RetentionPolicy.parseAge("30d"), is(Duration.ofDays(30)));
+    assertThat(RetentionPolicy.parseAge("4W"), is(Duration.ofDays(28)));
+    assertThrows(IllegalArgumentException.class, () -> RetentionPolicy.parseSize("a lot"));
+    assertThrows(IllegalArgumentException.class, () -> RetentionPolicy.parseAge("30"));
+  }
+
+  private static List<Integer> prunedAges(RetentionPolicy policy) {
+    return policy.selectPruned(BACKUPS, NOW).stream()
+        .map(entry -> (int) Duration.between(entry.getCreated(), NOW).toDays())
+        .collect(toList());
+  }
+
+  private static BackupCatalog.Entry backup(int daysAgo, BackupMode mode) {
+    LocalDateTime created = NOW.minusDays(daysAgo);
+    return new BackupCatalog.Entry(EnvironmentConfiguration.buildBackupName(created), mode, created, 100);
+  }
+}
@@ -0,0 +1,135 @@
+package org.opendatakit.aggregate.cli.operations;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opendatakit.aggregate.cli.reused.fs.ArtifactCache;
+import org.opendatakit.aggregate.cli.reused.fs.Checksums;
+import org.opendatakit.aggregate.cli.reused.http.CommonsHttp;
+import org.opendatakit.aggregate.cli.reused.http.DownloadProgress;
+import org.opendatakit.aggregate.cli.reused.http.Downloader;
+import org.opendatakit.aggregate.cli.reused.http.FileServer;
+import org.opendatakit.aggregate.cli.reused.http.Mirrors;
+import org.opendatakit.aggregate.cli.reused.http.Request;
+import org.opendatakit.aggregate.cli.reused.http.Response;
+
+class ServeCacheTest {
+  private final byte[] contents = new byte[3 * 1024 * 1024 + 17];
+  private Path tmpDir;
+  private String sha256;
+  private FileServer peer;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    new Random(7).nextBytes(contents);
+    tmpDir = Files.createTempDirectory("aggregate-cli-serve-cache-test");
+    Path war = tmpDir.resolve("aggregate.war");
+    Files.write(war, contents);
+    sha256 = Checksums.sha256(war);
+    ArtifactCache peerCache = ArtifactCache.at(tmpDir.resolve("peer-cache"), Long.MAX_VALUE);
+    peerCache.put(WarPackage.cacheKey("v2.0.0"), war, sha256);
+    peer = ServeCache.start(peerCache, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+  }
+
+  @AfterEach
+  void tearDown() {
+    peer.close();
+  }
+
+  @Test
+  void serves_cached_wars_to_other_instances() {
+    // The official URL is not reachable, like in a site without Internet access
+    URL unreachable = url("http://127.0.0.1:1/getodk/aggregate/releases/download/v2.0.0/ODK-Aggregate-v2.0.0.war");
+    URL mirror = peerUrl("/v2.0.0/ODK-Aggregate-v2.0.0.war");
+    List<URL> sources = Mirrors.byLatency(new CommonsHttp(), Arrays.asList(unreachable, mirror), Duration.ofSeconds(5));
+    assertThat(sources, contains(mirror, unreachable));
+
+    Path target = tmpDir.resolve("downloaded.war");
+    DownloadProgress progress = new Downloader(new CommonsHttp()).download(sources, target, OptionalLong.of(contents.length), 4, p -> { });
+
+    assertThat(progress.getSha256().get(), is(sha256));
+    ArtifactCache localCache = ArtifactCache.at(tmpDir.resolve("local-cache"), Long.MAX_VALUE);
+    localCache.put(WarPackage.cacheKey("v2.0.0"), target, sha256);
+    assertThat(localCache.keys(), contains("aggregate-v2.0.0"));
+  }
+
+  @Test
+  void serves_byte_ranges() {
+    Response<byte[]> response = new CommonsHttp().execute(Request.get(peerUrl("/v2.0.0/ODK-Aggregate-v2.0.0.war"), (headers, body) -> readAll(body))
+        .header("Range", "bytes=10-19"));
+
+    assertThat(response.getStatusCode(), is(206));
+    assertThat(response.getHeaders().get("Content-Range"), is(Optional.of("bytes 10-19/" + contents.length)));
+    assertThat(response.get(), is(Arrays.copyOfRange(contents, 10, 20)));
+  }
+
+  @Test
+  void serves_concurrent_probes_and_byte_ranges() throws InterruptedException, ExecutionException {
+    // Like the segmented downloader, which probes the mirror and then requests its segments in parallel
+    int requests = 32;
+    ExecutorService executor = Executors.newFixedThreadPool(requests);
+    try {
+      List<Future<Integer>> statusCodes = new ArrayList<>();
+      for (int i = 0; i < requests; i++) {
+        int from = i * 1000;
+        statusCodes.add(executor.submit(() -> from % 2000 == 0
+            ? new CommonsHttp().execute(Request.head(peerUrl("/v2.0.0/ODK-Aggregate-v2.0.0.war"))).getStatusCode()
+            : new CommonsHttp().execute(Request.get(peerUrl("/v2.0.0/ODK-Aggregate-v2.0.0.war"), (headers, body) -> readAll(body))
+                .header("Range", "bytes=" + from + "-" + (from + 999))).getStatusCode()));
+      }
+      for (int i = 0; i < requests; i++)
+        assertThat(statusCodes.get(i).get(), is(i % 2 == 0 ? 200 : 206));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void doesnt_serve_uncached_versions() {
+    assertThat(new CommonsHttp().execute(Request.head(peerUrl("/v1.0.0/ODK-Aggregate-v1.0.0.war"))).isSuccess(), is(false));
+    assertThat(new CommonsHttp().execute(Request.head(peerUrl("/not%20a%20key/ODK-Aggregate.war"))).isSuccess(), is(false));
+    assertThat(new CommonsHttp().execute(Request.head(peerUrl("/v2.0.0/ODK-Aggregate-v2.0.0.war"))).isSuccess(), is(true));
+  }
+
+  private static byte[] readAll(InputStream body) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = body.read(buffer)) != -1)
+        out.write(buffer, 0, read);
+      return out.toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private URL peerUrl(String path) {
+    return url("http://127.0.0.1:" + peer.getPort() + path);
+  }
+}
@@ -0,0 +1,77 @@
+package org.opendatakit.aggregate.cli.reused;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+
+class FuturesTest {
+  @Test
+  void all_of_keeps_the_order_of_the_given_futures() {
+    CompletableFuture<String> first = new CompletableFuture<>();
+    CompletableFuture<String> second = new CompletableFuture<>();
+    CompletableFuture<List<String>> all = Futures.allOf(asList(first, second));
+
+    second.complete("b");
+    first.complete("a");
+
+    assertThat(all.join(), contains("a", "b"));
+  }
+
+  @Test
+  void all_of_fails_as_soon_as_any_future_fails() {
+    CompletableFuture<String> first = new CompletableFuture<>();
+    CompletableFuture<String> second = new CompletableFuture<>();
+    CompletableFuture<List<String>> all = Futures.allOf(asList(first, second));
+
+    second.completeExceptionally(new IllegalStateException("boom"));
+
+    assertThat(all.isCompletedExceptionally(), is(true));
+    assertThrows(IllegalStateException.class, () -> Futures.join(all));
+  }
+
+  @Test
+  void first_successful_skips_failed_and_unsuccessful_values() {
+    CompletableFuture<String> failed = new CompletableFuture<>();
+    CompletableFuture<String> unsuccessful = new CompletableFuture<>();
+    CompletableFuture<String> successful = new CompletableFuture<>();
+    CompletableFuture<String> first = Futures.firstSuccessful(asList(failed, unsuccessful, successful), value -> !value.isEmpty());
+
+    failed.completeExceptionally(new IllegalStateException("boom"));
+    unsuccessful.complete("");
+    successful.complete("ok");
+
+    assertThat(first.join(), is("ok"));
+  }
+
+  @Test
+  void first_successful_fails_when_all_futures_fail() {
+    CompletableFuture<String> first = new CompletableFuture<>();
+    CompletableFuture<String> second = new CompletableFuture<>();
+    CompletableFuture<String> result = Futures.firstSuccessful(asList(first, second));
+
+    first.completeExceptionally(new IllegalStateException("first"));
+    second.completeExceptionally(new IllegalArgumentException("second"));
+
+    assertThrows(IllegalArgumentException.class, () -> Futures.join(result));
+  }
+
+  @Test
+  void with_timeout_fails_futures_that_take_too_long() throws InterruptedException {
+    CompletableFuture<String> slow = Futures.withTimeout(new CompletableFuture<>(), Duration.ofMillis(50));
+    CompletableFuture<String> fast = Futures.withTimeout(CompletableFuture.completedFuture("ok"), Duration.ofMillis(50));
+
+    ExecutionException e = assertThrows(ExecutionException.class, slow::get);
+    assertThat(e.getCause(), instanceOf(TimeoutException.class));
+    assertThat(fast.join(), is("ok"));
+  }
+}
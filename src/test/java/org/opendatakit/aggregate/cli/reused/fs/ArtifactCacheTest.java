@@ -0,0 +1,141 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ArtifactCacheTest {
+  private Path tmpDir;
+  private Path cacheDir;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    tmpDir = Files.createTempDirectory("aggregate-cli-artifact-cache-test");
+    cacheDir = tmpDir.resolve("cache");
+  }
+
+  @Test
+  void stores_artifacts_by_key_and_contents() throws IOException {
+    ArtifactCache cache = ArtifactCache.at(cacheDir, 1024);
+
+    assertThat(cache.read("aggregate-v2.0.0", ArtifactCacheTest::contents), is(Optional.empty()));
+    put(cache, "aggregate-v2.0.0", "some war");
+    put(cache, "aggregate-v2.0.0", "a rebuilt war");
+
+    assertThat(cache.read("aggregate-v2.0.0", ArtifactCacheTest::contents), is(Optional.of("a rebuilt war")));
+    assertThat(entries(), is(1L));
+  }
+
+  @Test
+  void reads_artifacts_from_concurrent_threads() throws Exception {
+    ArtifactCache cache = ArtifactCache.at(cacheDir, 1024);
+    put(cache, "aggregate-v2.0.0", "some war");
+    int readers = 8;
+    // Each reader waits inside its read until all of them are reading at once
+    CountDownLatch reading = new CountDownLatch(readers);
+    ExecutorService executor = Executors.newFixedThreadPool(readers);
+    try {
+      List<Future<Optional<Boolean>>> reads = new ArrayList<>();
+      for (int i = 0; i < readers; i++)
+        reads.add(executor.submit(() -> cache.read("aggregate-v2.0.0", file -> {
+          reading.countDown();
+          try {
+            return reading.await(10, SECONDS) && contents(file).equals("some war");
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+          }
+        })));
+      for (Future<Optional<Boolean>> read : reads)
+        assertThat(read.get(), is(Optional.of(true)));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void evicts_the_least_recently_used_artifacts() throws IOException {
+    ArtifactCache cache = ArtifactCache.at(cacheDir, 20);
+    put(cache, "aggregate-v1.0.0", "ten bytes!");
+    put(cache, "aggregate-v2.0.0", "ten bytes?");
+    ageEntries();
+    cache.read("aggregate-v1.0.0", ArtifactCacheTest::contents);
+
+    put(cache, "aggregate-v3.0.0", "ten bytes.");
+
+    assertThat(cache.read("aggregate-v1.0.0", ArtifactCacheTest::contents).isPresent(), is(true));
+    assertThat(cache.read("aggregate-v2.0.0", ArtifactCacheTest::contents).isPresent(), is(false));
+    assertThat(cache.read("aggregate-v3.0.0", ArtifactCacheTest::contents).isPresent(), is(true));
+  }
+
+  @Test
+  void ignores_corrupted_artifacts() throws IOException {
+    ArtifactCache cache = ArtifactCache.at(cacheDir, 1024);
+    put(cache, "aggregate-v2.0.0", "some war");
+    try (Stream<Path> files = Files.list(cacheDir)) {
+      Path entry = files.filter(f -> f.getFileName().toString().startsWith("aggregate-")).findFirst().get();
+      Files.write(entry, "tampered".getBytes(UTF_8));
+    }
+
+    assertThat(cache.read("aggregate-v2.0.0", ArtifactCacheTest::contents), is(Optional.empty()));
+  }
+
+  @Test
+  void reads_artifacts_by_key_and_digest() throws IOException {
+    ArtifactCache cache = ArtifactCache.at(cacheDir, 1024);
+    put(cache, "aggregate-v2.0.0", "some war");
+
+    assertThat(cache.read("aggregate-v2.0.0", Optional.of(sha256("some war")), ArtifactCacheTest::contents), is(Optional.of("some war")));
+    assertThat(cache.read("aggregate-v2.0.0", Optional.of(sha256("other war")), ArtifactCacheTest::contents), is(Optional.empty()));
+  }
+
+  private void put(ArtifactCache cache, String key, String contents) throws IOException {
+    Path file = Files.write(Files.createTempFile(tmpDir, "download", ".war"), contents.getBytes(UTF_8));
+    cache.put(key, file, sha256(contents));
+  }
+
+  private static String sha256(String contents) {
+    return Checksums.hex(Checksums.newSha256().digest(contents.getBytes(UTF_8)));
+  }
+
+  private long entries() throws IOException {
+    try (Stream<Path> files = Files.list(cacheDir)) {
+      return files.filter(f -> f.getFileName().toString().endsWith(".artifact")).count();
+    }
+  }
+
+  // Puts all the entries one hour in the past, so that the next uses are
+  // ordered even on file systems with coarse modification times
+  private void ageEntries() throws IOException {
+    try (Stream<Path> files = Files.list(cacheDir)) {
+      for (Path file : (Iterable<Path>) files::iterator)
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minusSeconds(3600)));
+    }
+  }
+
+  private static String contents(Path file) {
+    try {
+      return new String(Files.readAllBytes(file), UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ContentStoreTest {
+  private Path tmpDir;
+  private Path root;
+  private ContentStore store;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    tmpDir = Files.createTempDirectory("aggregate-cli-content-store-test");
+    root = tmpDir.resolve("ROOT");
+    Files.createDirectories(root.resolve("WEB-INF/lib"));
+    Files.createDirectories(root.resolve("META-INF"));
+    Files.write(root.resolve("WEB-INF/web.xml"), "<web-app/>".getBytes(UTF_8));
+    Files.write(root.resolve("WEB-INF/lib/library.jar"), new byte[100_000]);
+    Files.setLastModifiedTime(root.resolve("WEB-INF/web.xml"), FileTime.fromMillis(1_500_000_000_000L));
+    store = ContentStore.at(tmpDir.resolve("store"), 2);
+  }
+
+  @Test
+  void stores_each_distinct_contents_once() throws IOException {
+    ContentStore.Stats first = store.store("aggregate-1", root);
+    Files.write(root.resolve("WEB-INF/web.xml"), "<web-app version=\"3.0\"/>".getBytes(UTF_8));
+    ContentStore.Stats second = store.store("aggregate-2", root);
+
+    assertThat(first.getFiles(), is(2));
+    assertThat(first.getStoredFiles(), is(2));
+    assertThat(second.getFiles(), is(2));
+    assertThat(second.getStoredFiles(), is(1));
+    assertThat(second.getStoredBytes(), is(24L));
+    assertThat(store.list(), contains("aggregate-1", "aggregate-2"));
+    assertThat(countBlobs(), is(3L));
+  }
+
+  @Test
+  void restores_a_snapshot() throws IOException {
+    store.store("aggregate-1", root);
+    Files.write(root.resolve("WEB-INF/web.xml"), "<web-app version=\"3.0\"/>".getBytes(UTF_8));
+    store.store("aggregate-2", root);
+    Path restored = tmpDir.resolve("restored");
+
+    int files = store.restore("aggregate-1", restored);
+
+    assertThat(files, is(2));
+    assertThat(Files.isDirectory(restored.resolve("META-INF")), is(true));
+    assertThat(new String(Files.readAllBytes(restored.resolve("WEB-INF/web.xml")), UTF_8), is("<web-app/>"));
+    assertThat(Files.getLastModifiedTime(restored.resolve("WEB-INF/web.xml")).toMillis(), is(1_500_000_000_000L));
+    assertThat(Checksums.sha256(restored.resolve("WEB-INF/lib/library.jar")), is(Checksums.sha256(root.resolve("WEB-INF/lib/library.jar"))));
+  }
+
+  @Test
+  void detects_corrupted_blobs() throws IOException {
+    store.store("aggregate-1", root);
+    Path blob = tmpDir.resolve("store/blobs").resolve(Checksums.sha256(root.resolve("WEB-INF/web.xml")).substring(0, 2)).resolve(Checksums.sha256(root.resolve("WEB-INF/web.xml")));
+    Files.write(blob, "<evil/>".getBytes(UTF_8));
+
+    assertThrows(UncheckedIOException.class, () -> store.restore("aggregate-1", tmpDir.resolve("restored")));
+  }
+
+  @Test
+  void collects_the_blobs_of_deleted_snapshots_only() throws IOException {
+    store.store("aggregate-1", root);
+    Files.write(root.resolve("WEB-INF/web.xml"), "<web-app version=\"3.0\"/>".getBytes(UTF_8));
+    store.store("aggregate-2", root);
+
+    store.delete("aggregate-1");
+    long freedBytes = store.collectGarbage();
+
+    assertThat(freedBytes, is(10L));
+    assertThat(store.list(), contains("aggregate-2"));
+    assertThat(countBlobs(), is(2L));
+    assertThat(store.getSize(), is(100_024L));
+    assertThat(store.restore("aggregate-2", tmpDir.resolve("restored")), is(2));
+  }
+
+  private long countBlobs() throws IOException {
+    try (Stream<Path> blobs = Files.walk(tmpDir.resolve("store/blobs"))) {
+      return blobs.filter(Files::isRegularFile).count();
+    }
+  }
+}
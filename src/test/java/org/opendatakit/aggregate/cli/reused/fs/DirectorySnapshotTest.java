@@ -0,0 +1,55 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DirectorySnapshotTest {
+  private Path tmpDir;
+  private Path root;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    tmpDir = Files.createTempDirectory("aggregate-cli-directory-snapshot-test");
+    root = tmpDir.resolve("ROOT");
+    Files.createDirectories(root.resolve("WEB-INF/lib"));
+    Files.createDirectories(root.resolve("META-INF"));
+    Files.write(root.resolve("WEB-INF/web.xml"), "<web-app/>".getBytes(UTF_8));
+    Files.write(root.resolve("WEB-INF/lib/library.jar"), new byte[100_000]);
+  }
+
+  @Test
+  void links_the_files_of_the_directory() throws IOException {
+    Path backup = tmpDir.resolve("backup");
+
+    DirectorySnapshot snapshot = DirectorySnapshot.take(root, backup, 2);
+
+    assertThat(snapshot.getFiles(), is(2));
+    assertThat(snapshot.isLinked(), is(true));
+    assertThat(Files.isDirectory(backup.resolve("META-INF")), is(true));
+    assertThat(Files.isSameFile(backup.resolve("WEB-INF/lib/library.jar"), root.resolve("WEB-INF/lib/library.jar")), is(true));
+    assertThat(new String(Files.readAllBytes(backup.resolve("WEB-INF/web.xml")), UTF_8), is("<web-app/>"));
+  }
+
+  @Test
+  void copies_the_files_to_other_file_systems() throws IOException {
+    Path otherFileSystem = Paths.get("/dev/shm");
+    assumeTrue(Files.isWritable(otherFileSystem) && !Files.getFileStore(otherFileSystem).equals(Files.getFileStore(tmpDir)));
+    Path backup = Files.createTempDirectory(otherFileSystem, "aggregate-cli-directory-snapshot-test").resolve("backup");
+
+    DirectorySnapshot snapshot = DirectorySnapshot.take(root, backup);
+
+    assertThat(snapshot.getFiles(), is(2));
+    assertThat(snapshot.isLinked(), is(false));
+    assertThat(Checksums.sha256(backup.resolve("WEB-INF/lib/library.jar")), is(Checksums.sha256(root.resolve("WEB-INF/lib/library.jar"))));
+    UncheckedFiles.deleteTree(backup.getParent());
+  }
+}
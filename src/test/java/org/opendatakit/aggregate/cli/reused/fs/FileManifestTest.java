@@ -0,0 +1,77 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FileManifestTest {
+  private Path tmpDir;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    tmpDir = Files.createTempDirectory("aggregate-cli-file-manifest-test");
+  }
+
+  @Test
+  void lists_the_same_files_for_a_zip_file_and_its_extracted_directory() throws IOException {
+    Path war = buildWar(tmpDir.resolve("aggregate.war"), "<web-app/>");
+    ZipExtractor.parallel(Ownership.PERMISSIONS_ONLY).extract(war, tmpDir.resolve("ROOT"));
+
+    FileManifest fromZip = FileManifest.of(ZipDirectory.read(war));
+    FileManifest fromDir = FileManifest.scan(tmpDir.resolve("ROOT"));
+
+    assertThat(fromZip.getNames(), contains("WEB-INF/lib/library.jar", "WEB-INF/web.xml"));
+    assertThat(fromDir.getUnchangedNames(fromZip), contains("WEB-INF/lib/library.jar", "WEB-INF/web.xml"));
+  }
+
+  @Test
+  void tells_which_files_have_changed() throws IOException {
+    FileManifest previous = FileManifest.of(ZipDirectory.read(buildWar(tmpDir.resolve("previous.war"), "<web-app/>")));
+    FileManifest next = FileManifest.of(ZipDirectory.read(buildWar(tmpDir.resolve("next.war"), "<web-app version=\"3.0\"/>")));
+
+    assertThat(next.getUnchangedNames(previous), contains("WEB-INF/lib/library.jar"));
+  }
+
+  @Test
+  void can_be_written_and_read_back() throws IOException {
+    FileManifest manifest = FileManifest.of(ZipDirectory.read(buildWar(tmpDir.resolve("aggregate.war"), "<web-app/>")));
+    Path file = tmpDir.resolve("aggregate.manifest");
+
+    manifest.write(file);
+    FileManifest readManifest = FileManifest.read(file).get();
+
+    assertThat(readManifest.getUnchangedNames(manifest), contains("WEB-INF/lib/library.jar", "WEB-INF/web.xml"));
+    assertThat(readManifest.getSize("WEB-INF/lib/library.jar"), is(100_000L));
+  }
+
+  @Test
+  void ignores_invalid_manifests() throws IOException {
+    Path file = tmpDir.resolve("aggregate.manifest");
+    Files.write(file, "not a manifest\n".getBytes(UTF_8));
+
+    assertThat(FileManifest.read(file), is(Optional.empty()));
+    assertThat(FileManifest.read(tmpDir.resolve("missing.manifest")), is(Optional.empty()));
+  }
+
+  private static Path buildWar(Path war, String webXml) throws IOException {
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(war))) {
+      zip.putNextEntry(new ZipEntry("WEB-INF/"));
+      zip.putNextEntry(new ZipEntry("WEB-INF/web.xml"));
+      zip.write(webXml.getBytes(UTF_8));
+      zip.putNextEntry(new ZipEntry("WEB-INF/lib/library.jar"));
+      zip.write(new byte[100_000]);
+      zip.closeEntry();
+    }
+    return war;
+  }
+}
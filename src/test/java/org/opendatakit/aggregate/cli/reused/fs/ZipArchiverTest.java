@@ -0,0 +1,179 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+class ZipArchiverTest {
+  private Path tmpDir;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    tmpDir = Files.createTempDirectory("aggregate-cli-zip-archiver-test");
+  }
+
+  @Test
+  void archives_a_directory() throws IOException {
+    Path root = tmpDir.resolve("ROOT");
+    Files.createDirectories(root.resolve("WEB-INF/lib"));
+    Files.write(root.resolve("WEB-INF/web.xml"), "<web-app/>".getBytes(UTF_8));
+    Files.write(root.resolve("WEB-INF/lib/library.jar"), new byte[100_000]);
+    Files.setLastModifiedTime(root.resolve("WEB-INF/web.xml"), FileTime.fromMillis(1_500_000_000_000L));
+    Path backup = tmpDir.resolve("backup.zip");
+
+    int files = ZipArchiver.withParallelism(2, 6).archive(root, backup);
+
+    assertThat(files, is(2));
+    try (ZipFile zip = new ZipFile(backup.toFile())) {
+      assertThat(zip.size(), is(5));
+      assertThat(zip.getEntry("ROOT/WEB-INF/lib/").isDirectory(), is(true));
+      ZipEntry webXml = zip.getEntry("ROOT/WEB-INF/web.xml");
+      assertThat(new String(readAll(zip, webXml), UTF_8), is("<web-app/>"));
+      // MS-DOS times have a resolution of two seconds
+      assertThat(webXml.getTime() / 2000, is(1_500_000_000_000L / 2000));
+      ZipEntry library = zip.getEntry("ROOT/WEB-INF/lib/library.jar");
+      assertThat(library.getMethod(), is(ZipEntry.DEFLATED));
+      assertThat(library.getCompressedSize(), lessThan(1_000L));
+      assertThat(readAll(zip, library).length, is(100_000));
+    }
+    // The archive can be extracted back
+    ZipExtractor.parallel(Ownership.PERMISSIONS_ONLY).extract(backup, tmpDir.resolve("restored"));
+    assertThat(Checksums.sha256(tmpDir.resolve("restored/ROOT/WEB-INF/lib/library.jar")), is(Checksums.sha256(root.resolve("WEB-INF/lib/library.jar"))));
+  }
+
+  @Test
+  void stores_files_without_compressing_them() throws IOException {
+    Path root = tmpDir.resolve("ROOT");
+    Files.createDirectories(root);
+    Files.write(root.resolve("library.jar"), new byte[100_000]);
+    Path backup = tmpDir.resolve("backup.zip");
+
+    ZipArchiver.parallel(ZipArchiver.STORE_ONLY).archive(root, backup);
+
+    try (ZipFile zip = new ZipFile(backup.toFile())) {
+      ZipEntry library = zip.getEntry("ROOT/library.jar");
+      assertThat(library.getMethod(), is(ZipEntry.STORED));
+      assertThat(readAll(zip, library).length, is(100_000));
+    }
+  }
+
+  @Test
+  void archives_the_same_entries_with_any_parallelism() throws IOException {
+    Path root = buildWebapp(tmpDir.resolve("ROOT"));
+
+    int singleFiles = ZipArchiver.withParallelism(1, 6).archive(root, tmpDir.resolve("single.zip"));
+    int parallelFiles = ZipArchiver.withParallelism(4, 6).archive(root, tmpDir.resolve("parallel.zip"));
+
+    assertThat(singleFiles, is(3100));
+    assertThat(parallelFiles, is(singleFiles));
+    try (ZipFile single = new ZipFile(tmpDir.resolve("single.zip").toFile());
+         ZipFile parallel = new ZipFile(tmpDir.resolve("parallel.zip").toFile())) {
+      assertThat(parallel.size(), is(single.size()));
+      for (ZipEntry entry : Collections.list(single.entries())) {
+        ZipEntry parallelEntry = parallel.getEntry(entry.getName());
+        assertThat(parallelEntry.getCrc(), is(entry.getCrc()));
+        // Reading the whole entry verifies its CRC
+        assertThat(readAll(parallel, parallelEntry).length, is((int) entry.getSize()));
+      }
+    }
+  }
+
+  /**
+   * Compares the backup of an Aggregate-sized ROOT webapp with zip, the
+   * parallel archiver and the store only level. Run it with the benchmark task.
+   */
+  @Test
+  @Tag("benchmark")
+  void measures_the_archiving_against_zip() throws IOException {
+    Path root = buildWebapp(tmpDir.resolve("ROOT"));
+    int processors = Runtime.getRuntime().availableProcessors();
+    // Warm up the JIT, which would penalize the first measurement otherwise
+    ZipArchiver.parallel(6).archive(root, tmpDir.resolve("warmup.zip"));
+
+    long zip = measure(() -> zip(tmpDir, "ROOT", tmpDir.resolve("zip.zip")));
+    long parallel = measure(() -> ZipArchiver.parallel(6).archive(root, tmpDir.resolve("parallel.zip")));
+    long stored = measure(() -> ZipArchiver.parallel(ZipArchiver.STORE_ONLY).archive(root, tmpDir.resolve("stored.zip")));
+
+    System.out.println(String.format(
+        "Archiving %d MB with %d processors: zip -q -r %d ms (%d MB), parallel %d ms (%d MB), store only %d ms",
+        Files.size(tmpDir.resolve("stored.zip")) / 1024 / 1024, processors,
+        zip, Files.size(tmpDir.resolve("zip.zip")) / 1024 / 1024,
+        parallel, Files.size(tmpDir.resolve("parallel.zip")) / 1024 / 1024,
+        stored
+    ));
+    try (ZipFile zipArchive = new ZipFile(tmpDir.resolve("zip.zip").toFile());
+         ZipFile parallelArchive = new ZipFile(tmpDir.resolve("parallel.zip").toFile())) {
+      assertThat(parallelArchive.size(), is(zipArchive.size()));
+    }
+  }
+
+  private static void zip(Path workingDir, String dirName, Path archive) {
+    try {
+      Process process = new ProcessBuilder("zip", "-q", "-r", archive.toString(), dirName).directory(workingDir.toFile()).inheritIO().start();
+      if (process.waitFor() != 0)
+        throw new IllegalStateException("zip exited with code " + process.exitValue());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static long measure(Runnable archiving) {
+    long start = System.nanoTime();
+    archiving.run();
+    return (System.nanoTime() - start) / 1_000_000;
+  }
+
+  private static byte[] readAll(ZipFile zip, ZipEntry entry) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = zip.getInputStream(entry)) {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1)
+        out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Builds a directory with a layout similar to Aggregate's ROOT webapp: a
+   * hundred libraries and thousands of small classes.
+   */
+  private static Path buildWebapp(Path root) throws IOException {
+    Random random = new Random(42);
+    byte[] words = "public class Submission extends Entity implements Serializable { } ".getBytes(UTF_8);
+    Files.createDirectories(root.resolve("WEB-INF/lib"));
+    Files.createDirectories(root.resolve("WEB-INF/classes/org/opendatakit"));
+    for (int i = 0; i < 100; i++) {
+      byte[] contents = new byte[256 * 1024 + random.nextInt(256 * 1024)];
+      for (int j = 0; j < contents.length; j++)
+        contents[j] = random.nextInt(4) == 0 ? (byte) random.nextInt() : words[j % words.length];
+      Files.write(root.resolve("WEB-INF/lib/library-" + i + ".jar"), contents);
+    }
+    for (int i = 0; i < 3000; i++) {
+      byte[] contents = new byte[2048 + random.nextInt(4096)];
+      for (int j = 0; j < contents.length; j++)
+        contents[j] = words[(j + i) % words.length];
+      Files.write(root.resolve("WEB-INF/classes/org/opendatakit/Class" + i + ".class"), contents);
+    }
+    return root;
+  }
+}
@@ -0,0 +1,203 @@
+package org.opendatakit.aggregate.cli.reused.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+class ZipExtractorTest {
+  private Path tmpDir;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    tmpDir = Files.createTempDirectory("aggregate-cli-zip-extractor-test");
+  }
+
+  @Test
+  void extracts_all_the_entries() throws IOException {
+    Path war = tmpDir.resolve("aggregate.war");
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(war))) {
+      zip.putNextEntry(new ZipEntry("META-INF/"));
+      zip.putNextEntry(new ZipEntry("WEB-INF/web.xml"));
+      zip.write("<web-app/>".getBytes(UTF_8));
+      // Some ZIP files don't have entries for all their directories
+      ZipEntry library = new ZipEntry("WEB-INF/lib/library.jar");
+      library.setTime(1_500_000_000_000L);
+      zip.putNextEntry(library);
+      zip.write(new byte[100_000]);
+      zip.closeEntry();
+    }
+    Path root = tmpDir.resolve("ROOT");
+
+    int files = ZipExtractor.withParallelism(2, Ownership.PERMISSIONS_ONLY).extract(war, root);
+
+    assertThat(files, is(2));
+    assertThat(Files.isDirectory(root.resolve("META-INF")), is(true));
+    assertThat(new String(Files.readAllBytes(root.resolve("WEB-INF/web.xml")), UTF_8), is("<web-app/>"));
+    assertThat(Files.size(root.resolve("WEB-INF/lib/library.jar")), is(100_000L));
+    assertThat(Files.getLastModifiedTime(root.resolve("WEB-INF/lib/library.jar")).toMillis(), is(1_500_000_000_000L));
+    assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(root.resolve("WEB-INF/web.xml"))), is("rw-r--r--"));
+    assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(root.resolve("WEB-INF/lib"))), is("rwxr-xr-x"));
+  }
+
+  @Test
+  void rejects_entries_out_of_the_target_directory() throws IOException {
+    Path war = tmpDir.resolve("evil.war");
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(war))) {
+      zip.putNextEntry(new ZipEntry("../evil.txt"));
+      zip.write("gotcha".getBytes(UTF_8));
+    }
+
+    assertThrows(UncheckedIOException.class, () -> ZipExtractor.parallel(Ownership.PERMISSIONS_ONLY).extract(war, tmpDir.resolve("ROOT")));
+    assertThat(Files.exists(tmpDir.resolve("evil.txt")), is(false));
+  }
+
+  @Test
+  void extracts_a_stream() throws IOException {
+    Path war = tmpDir.resolve("aggregate.war");
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(war))) {
+      zip.putNextEntry(new ZipEntry("WEB-INF/web.xml"));
+      zip.write("<web-app/>".getBytes(UTF_8));
+      zip.putNextEntry(new ZipEntry("WEB-INF/lib/library.jar"));
+      zip.write(new byte[100_000]);
+      zip.closeEntry();
+    }
+    Path root = tmpDir.resolve("ROOT");
+
+    int files;
+    try (InputStream in = Files.newInputStream(war)) {
+      files = ZipExtractor.parallel(Ownership.PERMISSIONS_ONLY).extract(in, root);
+    }
+
+    assertThat(files, is(2));
+    assertThat(new String(Files.readAllBytes(root.resolve("WEB-INF/web.xml")), UTF_8), is("<web-app/>"));
+    assertThat(Files.size(root.resolve("WEB-INF/lib/library.jar")), is(100_000L));
+  }
+
+  @Test
+  void rejects_corrupted_streams() throws IOException {
+    byte[] contents = "<web-app/>".getBytes(UTF_8);
+    CRC32 crc = new CRC32();
+    crc.update(contents);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+      // Stored entries keep their contents as they are, which makes them easy to corrupt
+      ZipEntry entry = new ZipEntry("WEB-INF/web.xml");
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(contents.length);
+      entry.setCrc(crc.getValue());
+      zip.putNextEntry(entry);
+      zip.write(contents);
+    }
+    byte[] corrupted = bytes.toByteArray();
+    corrupted[ZipDirectory.LOCAL_HEADER_SIZE + "WEB-INF/web.xml".length()] ^= 1;
+
+    assertThrows(UncheckedIOException.class, () -> ZipExtractor.parallel(Ownership.PERMISSIONS_ONLY).extract(new ByteArrayInputStream(corrupted), tmpDir.resolve("ROOT")));
+  }
+
+  @Test
+  void extracts_the_same_files_with_any_parallelism() throws IOException {
+    Path war = buildWar(tmpDir.resolve("big.war"));
+
+    int singleFiles = ZipExtractor.withParallelism(1, Ownership.PERMISSIONS_ONLY).extract(war, tmpDir.resolve("single"));
+    int parallelFiles = ZipExtractor.withParallelism(4, Ownership.PERMISSIONS_ONLY).extract(war, tmpDir.resolve("parallel"));
+
+    assertThat(singleFiles, is(3100));
+    assertThat(parallelFiles, is(singleFiles));
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(tmpDir.resolve("single"))) {
+      files = walk.filter(Files::isRegularFile).collect(toList());
+    }
+    for (Path file : files) {
+      Path parallelFile = tmpDir.resolve("parallel").resolve(tmpDir.resolve("single").relativize(file));
+      assertThat(Checksums.sha256(parallelFile), is(Checksums.sha256(file)));
+    }
+  }
+
+  /**
+   * Compares the extraction of an Aggregate-sized WAR package with unzip, a
+   * single worker and a worker per processor. Run it with the benchmark task.
+   */
+  @Test
+  @Tag("benchmark")
+  void measures_the_extraction_against_unzip() throws IOException {
+    Path war = buildWar(tmpDir.resolve("big.war"));
+    int processors = Runtime.getRuntime().availableProcessors();
+    // Warm up the JIT, which would penalize the first measurement otherwise
+    ZipExtractor.parallel(Ownership.PERMISSIONS_ONLY).extract(war, tmpDir.resolve("warmup"));
+
+    long unzip = measure(() -> unzip(war, tmpDir.resolve("unzip")));
+    long singleWorker = measure(() -> ZipExtractor.withParallelism(1, Ownership.PERMISSIONS_ONLY).extract(war, tmpDir.resolve("single")));
+    long parallel = measure(() -> ZipExtractor.parallel(Ownership.PERMISSIONS_ONLY).extract(war, tmpDir.resolve("parallel")));
+
+    System.out.println(String.format(
+        "Extracting %d MB with %d processors: unzip -qq %d ms, 1 worker %d ms, %d workers %d ms",
+        Files.size(war) / 1024 / 1024, processors, unzip, singleWorker, processors, parallel
+    ));
+    assertThat(Checksums.sha256(tmpDir.resolve("parallel/WEB-INF/lib/library-0.jar")), is(Checksums.sha256(tmpDir.resolve("unzip/WEB-INF/lib/library-0.jar"))));
+  }
+
+  private static void unzip(Path war, Path targetDir) {
+    try {
+      Process process = new ProcessBuilder("unzip", "-qq", war.toString(), "-d", targetDir.toString()).inheritIO().start();
+      if (process.waitFor() != 0)
+        throw new IllegalStateException("unzip exited with code " + process.exitValue());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static long measure(Runnable extraction) {
+    long start = System.nanoTime();
+    extraction.run();
+    return (System.nanoTime() - start) / 1_000_000;
+  }
+
+  /**
+   * Builds a WAR package with a layout similar to Aggregate's: a hundred
+   * libraries and thousands of small classes.
+   */
+  private static Path buildWar(Path war) throws IOException {
+    Random random = new Random(42);
+    byte[] words = "public class Submission extends Entity implements Serializable { } ".getBytes(UTF_8);
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(war))) {
+      for (int i = 0; i < 100; i++) {
+        zip.putNextEntry(new ZipEntry("WEB-INF/lib/library-" + i + ".jar"));
+        byte[] contents = new byte[256 * 1024 + random.nextInt(256 * 1024)];
+        for (int j = 0; j < contents.length; j++)
+          contents[j] = random.nextInt(4) == 0 ? (byte) random.nextInt() : words[j % words.length];
+        zip.write(contents);
+      }
+      for (int i = 0; i < 3000; i++) {
+        zip.putNextEntry(new ZipEntry("WEB-INF/classes/org/opendatakit/Class" + i + ".class"));
+        byte[] contents = new byte[2048 + random.nextInt(4096)];
+        for (int j = 0; j < contents.length; j++)
+          contents[j] = words[(j + i) % words.length];
+        zip.write(contents);
+      }
+    }
+    return war;
+  }
+}
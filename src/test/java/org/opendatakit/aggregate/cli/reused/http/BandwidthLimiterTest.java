@@ -0,0 +1,55 @@
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import org.junit.jupiter.api.Test;
+
+class BandwidthLimiterTest {
+  @Test
+  void parses_limits_with_binary_units_and_time_windows() {
+    assertThat(BandwidthLimiter.parse("512").toString(), is("512 B/s"));
+    assertThat(BandwidthLimiter.parse("512K").toString(), is("512.0 KB/s"));
+    assertThat(BandwidthLimiter.parse("1.5m").toString(), is("1.5 MB/s"));
+    assertThat(BandwidthLimiter.parse("1M,8:00-18:30").toString(), is("1.0 MB/s between 08:00 and 18:30"));
+    assertThrows(IllegalArgumentException.class, () -> BandwidthLimiter.parse("fast"));
+    assertThrows(IllegalArgumentException.class, () -> BandwidthLimiter.parse("1M,25:00-26:00"));
+  }
+
+  @Test
+  void limits_only_during_its_time_window() {
+    BandwidthLimiter officeHours = BandwidthLimiter.parse("1M,08:00-18:00");
+    BandwidthLimiter nights = BandwidthLimiter.parse("1M,22:00-06:00");
+
+    assertThat(officeHours.withClock(at(12, 0)).isLimiting(), is(true));
+    assertThat(officeHours.withClock(at(18, 0)).isLimiting(), is(false));
+    assertThat(nights.withClock(at(23, 0)).isLimiting(), is(true));
+    assertThat(nights.withClock(at(5, 59)).isLimiting(), is(true));
+    assertThat(nights.withClock(at(12, 0)).isLimiting(), is(false));
+    assertThat(BandwidthLimiter.UNLIMITED.isLimiting(), is(false));
+  }
+
+  @Test
+  void keeps_the_throughput_under_the_limit() {
+    BandwidthLimiter limiter = BandwidthLimiter.parse("1M");
+    int chunk = 16 * 1024;
+    int chunks = 96; // 1.5 MB, a third of which has to wait for the bucket
+
+    long start = System.nanoTime();
+    for (int i = 0; i < chunks; i++)
+      limiter.acquire(chunk);
+    long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+    // The first second worth of bytes goes through without waiting
+    assertThat(elapsedMillis, greaterThanOrEqualTo(450L));
+  }
+
+  private static Clock at(int hour, int minute) {
+    return Clock.fixed(LocalDateTime.of(2018, 11, 20, hour, minute).toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+  }
+}
@@ -0,0 +1,101 @@
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static com.github.dreamhead.moco.Moco.and;
+import static com.github.dreamhead.moco.Moco.by;
+import static com.github.dreamhead.moco.Moco.eq;
+import static com.github.dreamhead.moco.Moco.header;
+import static com.github.dreamhead.moco.Moco.httpServer;
+import static com.github.dreamhead.moco.Moco.status;
+import static com.github.dreamhead.moco.Moco.text;
+import static com.github.dreamhead.moco.Moco.uri;
+import static com.github.dreamhead.moco.Moco.with;
+import static com.github.dreamhead.moco.Runner.running;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
+
+import com.github.dreamhead.moco.HttpServer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CachingHttpTest {
+  private Path cacheDir;
+  private List<Integer> statusCodes;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    cacheDir = Files.createTempDirectory("aggregate-cli-cache-test");
+    statusCodes = new ArrayList<>();
+  }
+
+  @Test
+  void serves_not_modified_responses_from_disk() throws Exception {
+    HttpServer server = httpServer();
+    server.request(and(by(uri("/releases")), eq(header("If-None-Match"), "\"v1\""))).response(status(304));
+    server.request(by(uri("/releases"))).response(header("ETag", "\"v1\""), with(text("some releases")));
+
+    running(server, () -> {
+      Http http = CachingHttp.at(cacheDir, recordingStatusCodes(new CommonsHttp()));
+      Request<String> request = get(server).cached(Duration.ZERO);
+
+      assertThat(http.execute(request).get(), is("some releases"));
+      assertThat(http.execute(request).get(), is("some releases"));
+      // A new instance proves the body comes from disk
+      assertThat(CachingHttp.at(cacheDir, recordingStatusCodes(new CommonsHttp())).execute(request).get(), is("some releases"));
+    });
+
+    assertThat(statusCodes, contains(200, 304, 304));
+  }
+
+  @Test
+  void fresh_responses_are_used_without_contacting_the_server() throws Exception {
+    HttpServer server = httpServer();
+    server.request(by(uri("/releases"))).response(header("ETag", "\"v1\""), with(text("some releases")));
+
+    running(server, () -> {
+      Http http = CachingHttp.at(cacheDir, recordingStatusCodes(new CommonsHttp()));
+      Request<String> request = get(server).cached(Duration.ofMinutes(1));
+
+      assertThat(http.execute(request).get(), is("some releases"));
+      assertThat(http.execute(request).get(), is("some releases"));
+    });
+
+    assertThat(statusCodes, contains(200));
+  }
+
+  @Test
+  void requests_not_marked_as_cached_bypass_the_cache() throws Exception {
+    HttpServer server = httpServer();
+    server.request(by(uri("/releases"))).response(header("ETag", "\"v1\""), with(text("some releases")));
+
+    running(server, () -> {
+      Http http = CachingHttp.at(cacheDir, recordingStatusCodes(new CommonsHttp()));
+
+      assertThat(http.execute(get(server).cached(Duration.ofMinutes(1))).get(), is("some releases"));
+      assertThat(http.execute(get(server)).get(), is("some releases"));
+    });
+
+    assertThat(statusCodes, contains(200, 200));
+  }
+
+  private Http recordingStatusCodes(Http http) {
+    return new Http() {
+      @Override
+      public <T> Response<T> execute(Request<T> request) {
+        Response<T> response = http.execute(request);
+        statusCodes.add(response.getStatusCode());
+        return response;
+      }
+    };
+  }
+
+  private static Request<String> get(HttpServer server) {
+    return Request.get(url("http://localhost:" + server.port() + "/releases"));
+  }
+}
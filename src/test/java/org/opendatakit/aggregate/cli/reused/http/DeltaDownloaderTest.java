@@ -0,0 +1,160 @@
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opendatakit.aggregate.cli.reused.fs.Checksums;
+import org.opendatakit.aggregate.cli.reused.http.FileServer.ServedFile;
+
+class DeltaDownloaderTest {
+  private final Random random = new Random(42);
+  private Path tmpDir;
+  private Path base;
+  private Path newVersion;
+  private Path target;
+  private FileServer server;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    tmpDir = Files.createTempDirectory("aggregate-cli-delta-download-test");
+    byte[] sharedLibrary = randomBytes(512 * 1024);
+    Map<String, byte[]> baseEntries = new LinkedHashMap<>();
+    baseEntries.put("WEB-INF/web.xml", "<web-app/>".getBytes());
+    baseEntries.put("WEB-INF/lib/shared.jar", sharedLibrary);
+    baseEntries.put("WEB-INF/lib/changed.jar", randomBytes(256 * 1024));
+    Map<String, byte[]> newEntries = new LinkedHashMap<>();
+    newEntries.put("WEB-INF/web.xml", "<web-app version=\"3.0\"/>".getBytes());
+    newEntries.put("WEB-INF/lib/added.jar", randomBytes(128 * 1024));
+    newEntries.put("WEB-INF/lib/shared.jar", sharedLibrary);
+    newEntries.put("WEB-INF/lib/changed.jar", randomBytes(256 * 1024));
+    base = zip("base.war", baseEntries, 1_500_000_000_000L);
+    newVersion = zip("new.war", newEntries, 1_600_000_000_000L);
+    target = tmpDir.resolve("target.war");
+    server = FileServer.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), path -> Optional.of(ServedFile.of(open(newVersion), "new")));
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.close();
+  }
+
+  @Test
+  void rebuilds_the_new_version_reusing_the_unchanged_entries() {
+    String sha256 = Checksums.sha256(newVersion);
+
+    DownloadProgress progress = new DeltaDownloader(new CommonsHttp(), BandwidthLimiter.UNLIMITED)
+        .download(serverUrl(), base, target, Optional.of(sha256), 2)
+        .get();
+
+    assertThat(Checksums.sha256(target), is(sha256));
+    assertThat(progress.getSha256().get(), is(sha256));
+    // The random half of the shared library doesn't compress
+    assertThat(progress.getReusedBytes(), greaterThanOrEqualTo(256L * 1024));
+    assertThat(progress.getDownloadedBytes() + progress.getReusedBytes(), is(size(newVersion)));
+    assertThat(progress.getDownloadedBytes(), lessThan(size(newVersion) / 2));
+  }
+
+  @Test
+  void verifies_the_entries_when_the_digest_is_not_known() {
+    DownloadProgress progress = new DeltaDownloader(new CommonsHttp(), BandwidthLimiter.UNLIMITED)
+        .download(serverUrl(), base, target, Optional.empty(), 1)
+        .get();
+
+    assertThat(progress.getSha256().get(), is(Checksums.sha256(newVersion)));
+  }
+
+  @Test
+  void gives_up_when_the_rebuilt_file_has_an_unexpected_digest() {
+    Optional<DownloadProgress> progress = new DeltaDownloader(new CommonsHttp(), BandwidthLimiter.UNLIMITED)
+        .download(serverUrl(), base, target, Optional.of(Checksums.sha256(base)), 1);
+
+    assertThat(progress.isPresent(), is(false));
+  }
+
+  @Test
+  void gives_up_when_the_server_doesnt_support_ranges() throws IOException {
+    HttpServer noRanges = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    noRanges.createContext("/new.war", exchange -> {
+      byte[] contents = Files.readAllBytes(newVersion);
+      exchange.sendResponseHeaders(200, contents.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(contents);
+      }
+    });
+    noRanges.start();
+    try {
+      Optional<DownloadProgress> progress = new DeltaDownloader(new CommonsHttp(), BandwidthLimiter.UNLIMITED)
+          .download(url("http://127.0.0.1:" + noRanges.getAddress().getPort() + "/new.war"), base, target, Optional.empty(), 1);
+
+      assertThat(progress.isPresent(), is(false));
+    } finally {
+      noRanges.stop(0);
+    }
+  }
+
+  private URL serverUrl() {
+    return url("http://127.0.0.1:" + server.getPort() + "/new.war");
+  }
+
+  private Path zip(String name, Map<String, byte[]> entries, long time) throws IOException {
+    Path file = tmpDir.resolve(name);
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))) {
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        ZipEntry zipEntry = new ZipEntry(entry.getKey());
+        zipEntry.setTime(time);
+        zip.putNextEntry(zipEntry);
+        zip.write(entry.getValue());
+        zip.closeEntry();
+      }
+    }
+    return file;
+  }
+
+  private byte[] randomBytes(int size) {
+    // Half random, half zeros, to get compressible but distinct contents
+    byte[] bytes = new byte[size];
+    byte[] randomHalf = new byte[size / 2];
+    random.nextBytes(randomHalf);
+    System.arraycopy(randomHalf, 0, bytes, 0, randomHalf.length);
+    return bytes;
+  }
+
+  private static FileChannel open(Path file) {
+    try {
+      return FileChannel.open(file, READ);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static long size(Path file) {
+    try {
+      return Files.size(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
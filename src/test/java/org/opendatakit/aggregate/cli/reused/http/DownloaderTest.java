@@ -0,0 +1,185 @@
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opendatakit.aggregate.cli.reused.fs.Checksums;
+
+class DownloaderTest {
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+  private final byte[] contents = new byte[5 * 1024 * 1024 + 123];
+  private final List<String> rangeHeaders = new CopyOnWriteArrayList<>();
+  private final List<String> ifRangeHeaders = new CopyOnWriteArrayList<>();
+  private HttpServer server;
+  private Path target;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    new Random(42).nextBytes(contents);
+    target = Files.createTempFile("aggregate-cli-download-test", ".war");
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/aggregate.war", exchange -> serve(exchange, contents, true));
+    server.start();
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    server.stop(0);
+    Files.deleteIfExists(target);
+  }
+
+  @Test
+  void computes_the_digest_of_a_single_stream_download() {
+    DownloadProgress progress = new Downloader(new CommonsHttp()).download(url(), target, p -> { });
+
+    assertThat(progress.getSha256().get(), is(sha256(contents)));
+    assertThat(Checksums.sha256(target), is(sha256(contents)));
+  }
+
+  @Test
+  void computes_the_digest_of_a_segmented_download() {
+    DownloadProgress progress = new Downloader(new CommonsHttp()).download(url(), target, OptionalLong.of(contents.length), 4, p -> { });
+
+    assertThat(progress.getSha256().get(), is(sha256(contents)));
+    assertThat(Checksums.sha256(target), is(sha256(contents)));
+  }
+
+  @Test
+  void fails_over_to_the_next_source() {
+    List<URL> sources = Arrays.asList(url("/missing.war"), url("/aggregate.war"));
+
+    DownloadProgress progress = new Downloader(new CommonsHttp()).download(sources, target, OptionalLong.of(contents.length), 4, p -> { });
+
+    assertThat(progress.getSha256().get(), is(sha256(contents)));
+  }
+
+  @Test
+  void digests_the_whole_stream_even_if_the_reader_stops_early() {
+    byte[] firstBytes = new byte[1000];
+
+    DownloadProgress progress = new Downloader(new CommonsHttp()).stream(url(), in -> {
+      try {
+        in.read(firstBytes);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, p -> { });
+
+    assertThat(firstBytes, is(Arrays.copyOf(contents, 1000)));
+    assertThat(progress.getSha256().get(), is(sha256(contents)));
+    assertThat(progress.getDownloadedBytes(), is((long) contents.length));
+  }
+
+  @Test
+  void resumes_an_interrupted_download_from_its_last_byte() {
+    URL url = interruptedOnce(exchange -> serve(exchange, contents, true));
+
+    DownloadProgress progress = new Downloader(new CommonsHttp()).download(url, target, p -> { });
+
+    assertThat(progress.getSha256().get(), is(sha256(contents)));
+    assertThat(rangeHeaders, contains("none", "bytes=" + contents.length / 2 + "-"));
+    assertThat(ifRangeHeaders, contains("none", "\"v1\""));
+  }
+
+  @Test
+  void starts_over_when_the_server_ignores_the_range() {
+    URL url = interruptedOnce(exchange -> serve(exchange, contents, false));
+
+    DownloadProgress progress = new Downloader(new CommonsHttp()).download(url, target, p -> { });
+
+    assertThat(progress.getSha256().get(), is(sha256(contents)));
+    assertThat(Checksums.sha256(target), is(sha256(contents)));
+  }
+
+  @Test
+  void starts_over_when_the_file_changes_during_the_download() {
+    byte[] newContents = Arrays.copyOf(contents, contents.length - 1000);
+    newContents[0] ^= 1;
+    URL url = interruptedOnce(exchange -> {
+      // The server only honors the range if the file hasn't changed since the first request
+      exchange.getResponseHeaders().add("ETag", "\"v2\"");
+      serve(exchange, newContents, "\"v2\"".equals(exchange.getRequestHeaders().getFirst("If-Range")));
+    });
+
+    DownloadProgress progress = new Downloader(new CommonsHttp()).download(url, target, p -> { });
+
+    assertThat(ifRangeHeaders, contains("none", "\"v1\""));
+    assertThat(progress.getSha256().get(), is(sha256(newContents)));
+    assertThat(Checksums.sha256(target), is(sha256(newContents)));
+  }
+
+  /**
+   * Serves the first half of the contents and drops the connection, and then
+   * answers the following requests with the given handler.
+   */
+  private URL interruptedOnce(HttpHandler handler) {
+    AtomicBoolean interrupted = new AtomicBoolean(false);
+    server.createContext("/interrupted.war", exchange -> {
+      rangeHeaders.add(Optional.ofNullable(exchange.getRequestHeaders().getFirst("Range")).orElse("none"));
+      ifRangeHeaders.add(Optional.ofNullable(exchange.getRequestHeaders().getFirst("If-Range")).orElse("none"));
+      if (interrupted.compareAndSet(false, true)) {
+        exchange.getResponseHeaders().add("ETag", "\"v1\"");
+        exchange.sendResponseHeaders(200, contents.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(contents, 0, contents.length / 2);
+        out.flush();
+        // Closing the exchange before writing the whole body closes the connection
+        exchange.close();
+      } else
+        handler.handle(exchange);
+    });
+    return url("/interrupted.war");
+  }
+
+  private static void serve(HttpExchange exchange, byte[] body, boolean honorRanges) throws IOException {
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    Matcher matcher = range == null ? null : RANGE.matcher(range);
+    int start = 0;
+    int end = body.length;
+    if (honorRanges && matcher != null && matcher.matches()) {
+      start = Integer.parseInt(matcher.group(1));
+      end = matcher.group(2).isEmpty() ? body.length : Integer.parseInt(matcher.group(2)) + 1;
+      exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + body.length);
+      exchange.sendResponseHeaders(206, end - start);
+    } else
+      exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(Arrays.copyOfRange(body, start, end));
+    }
+  }
+
+  private URL url() {
+    return url("/aggregate.war");
+  }
+
+  private URL url(String path) {
+    return HttpHelpers.url("http://localhost:" + server.getAddress().getPort() + path);
+  }
+
+  private static String sha256(byte[] bytes) {
+    return Checksums.hex(Checksums.newSha256().digest(bytes));
+  }
+}
@@ -0,0 +1,69 @@
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static com.github.dreamhead.moco.Moco.by;
+import static com.github.dreamhead.moco.Moco.httpServer;
+import static com.github.dreamhead.moco.Moco.status;
+import static com.github.dreamhead.moco.Moco.uri;
+import static com.github.dreamhead.moco.Runner.running;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
+
+import com.github.dreamhead.moco.HttpServer;
+import java.util.List;
+import java.util.OptionalInt;
+import org.junit.jupiter.api.Test;
+
+class HttpMetricsTest {
+  private static final String BODY = "some releases";
+
+  @Test
+  void records_the_phases_of_new_and_reused_connections() throws Exception {
+    HttpServer server = httpServer();
+    server.get(by(uri("/releases"))).response(BODY);
+    server.get(by(uri("/missing"))).response(status(404));
+    HttpMetrics metrics = new HttpMetrics();
+
+    running(server, () -> {
+      try (PooledHttp http = new PooledHttp(metrics)) {
+        http.execute(get(server, "/releases"));
+        http.execute(get(server, "/missing"));
+      }
+    });
+
+    List<RequestTiming> timings = metrics.getTimings();
+    assertThat(timings, hasSize(2));
+
+    RequestTiming first = timings.get(0);
+    assertThat(first.getRequest(), is("GET http://localhost:" + server.port() + "/releases"));
+    assertThat(first.getStatusCode(), is(OptionalInt.of(200)));
+    assertThat(first.getBytesReceived(), is((long) BODY.length()));
+    assertThat(first.isReusedConnection(), is(false));
+    assertThat(first.getDns().isPresent(), is(true));
+    assertThat(first.getTls().isPresent(), is(false));
+    assertThat(first.getTimeToFirstByte().get(), lessThanOrEqualTo(first.getTotal()));
+
+    RequestTiming second = timings.get(1);
+    assertThat(second.getStatusCode(), is(OptionalInt.of(404)));
+    assertThat(second.isReusedConnection(), is(true));
+    assertThat(second.getDns().isPresent(), is(false));
+  }
+
+  @Test
+  void records_failed_requests() {
+    HttpMetrics metrics = new HttpMetrics();
+
+    assertThrows(HttpException.class, () -> new CommonsHttp(metrics).execute(Request.get(url("http://localhost:1/releases"))));
+
+    assertThat(metrics.getTimings(), hasSize(1));
+    assertThat(metrics.getTimings().get(0).getStatusCode(), is(OptionalInt.empty()));
+    assertThat(metrics.getTimings().get(0).getFailure().get(), is("Connection refused"));
+  }
+
+  private static Request<String> get(HttpServer server, String path) {
+    return Request.get(url("http://localhost:" + server.port() + path));
+  }
+}
@@ -0,0 +1,46 @@
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static com.github.dreamhead.moco.Moco.by;
+import static com.github.dreamhead.moco.Moco.httpServer;
+import static com.github.dreamhead.moco.Moco.latency;
+import static com.github.dreamhead.moco.Moco.text;
+import static com.github.dreamhead.moco.Moco.uri;
+import static com.github.dreamhead.moco.Moco.with;
+import static com.github.dreamhead.moco.Runner.running;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.lessThan;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
+
+import com.github.dreamhead.moco.HttpServer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.opendatakit.aggregate.cli.reused.Futures;
+
+class HttpTest {
+  private static final long LATENCY_MILLIS = 300;
+  private static final int REQUESTS = 4;
+
+  @Test
+  void async_requests_overlap() throws Exception {
+    HttpServer server = httpServer();
+    server.request(by(uri("/slow"))).response(with(text("pong")), with(latency(LATENCY_MILLIS, TimeUnit.MILLISECONDS)));
+
+    running(server, () -> {
+      Http http = new CommonsHttp();
+      long start = System.nanoTime();
+      List<CompletableFuture<String>> futures = IntStream.range(0, REQUESTS)
+          .mapToObj(i -> http.executeAsync(Request.get(url("http://localhost:" + server.port() + "/slow"))).thenApply(Response::get))
+          .collect(toList());
+      List<String> outputs = Futures.join(Futures.allOf(futures));
+      long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      assertThat(outputs, contains("pong", "pong", "pong", "pong"));
+      assertThat(elapsedMillis, lessThan(REQUESTS * LATENCY_MILLIS));
+    });
+  }
+}
@@ -0,0 +1,81 @@
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static com.github.dreamhead.moco.Moco.by;
+import static com.github.dreamhead.moco.Moco.httpServer;
+import static com.github.dreamhead.moco.Moco.status;
+import static com.github.dreamhead.moco.Moco.uri;
+import static com.github.dreamhead.moco.Runner.running;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
+
+import com.github.dreamhead.moco.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+
+class MirrorsTest {
+  @Test
+  void puts_the_fastest_mirror_first() throws IOException {
+    // Moco's latency would delay the responses of the rest of mirrors too,
+    // which is why this test uses a server that handles requests concurrently
+    com.sun.net.httpserver.HttpServer server = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.createContext("/slow/aggregate.war", exchange -> {
+      try {
+        Thread.sleep(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+    });
+    server.createContext("/failing/aggregate.war", exchange -> {
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+    });
+    server.createContext("/fast/aggregate.war", exchange -> {
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+    });
+    server.start();
+    try {
+      int port = server.getAddress().getPort();
+      URL slow = mirror(port, "slow");
+      URL failing = mirror(port, "failing");
+      URL fast = mirror(port, "fast");
+
+      List<URL> ranked = Mirrors.byLatency(new CommonsHttp(), Arrays.asList(slow, failing, fast), Duration.ofSeconds(5));
+
+      assertThat(ranked, contains(fast, slow, failing));
+    } finally {
+      server.stop(0);
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void keeps_the_original_order_if_no_mirror_responds() throws Exception {
+    HttpServer server = httpServer();
+    server.request(by(uri("/failing/aggregate.war"))).response(status(404));
+
+    running(server, () -> {
+      URL missing = mirror(server.port(), "missing");
+      URL failing = mirror(server.port(), "failing");
+
+      assertThat(Mirrors.byLatency(new CommonsHttp(), Arrays.asList(missing, failing), Duration.ofSeconds(5)), contains(missing, failing));
+    });
+  }
+
+  private static URL mirror(int port, String name) {
+    return url("http://localhost:" + port + "/" + name + "/aggregate.war");
+  }
+}
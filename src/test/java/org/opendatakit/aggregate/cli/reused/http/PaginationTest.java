@@ -0,0 +1,78 @@
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static com.github.dreamhead.moco.Moco.and;
+import static com.github.dreamhead.moco.Moco.by;
+import static com.github.dreamhead.moco.Moco.eq;
+import static com.github.dreamhead.moco.Moco.header;
+import static com.github.dreamhead.moco.Moco.httpServer;
+import static com.github.dreamhead.moco.Moco.query;
+import static com.github.dreamhead.moco.Moco.status;
+import static com.github.dreamhead.moco.Moco.text;
+import static com.github.dreamhead.moco.Moco.uri;
+import static com.github.dreamhead.moco.Moco.with;
+import static com.github.dreamhead.moco.Runner.running;
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
+
+import com.github.dreamhead.moco.HttpServer;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PaginationTest {
+  private static final String LINKS = "</items?per_page=2&page=2>; rel=\"next\", </items?per_page=2&page=3>; rel=\"last\"";
+
+  @Test
+  void fetches_all_the_pages_in_order() throws Exception {
+    HttpServer server = httpServer();
+    server.request(and(by(uri("/items")), eq(query("page"), "2"))).response("c,d");
+    server.request(and(by(uri("/items")), eq(query("page"), "3"))).response("e");
+    server.request(by(uri("/items"))).response(header("Link", LINKS), with(text("a,b")));
+
+    running(server, () -> {
+      List<String> items = Pagination.fetchAll(new CommonsHttp(), items(server));
+      assertThat(items, contains("a", "b", "c", "d", "e"));
+    });
+  }
+
+  @Test
+  void stops_merging_pages_once_the_predicate_is_satisfied() throws Exception {
+    HttpServer server = httpServer();
+    server.request(and(by(uri("/items")), eq(query("page"), "2"))).response("c,d");
+    server.request(and(by(uri("/items")), eq(query("page"), "3"))).response("e");
+    server.request(by(uri("/items"))).response(header("Link", LINKS), with(text("a,b")));
+
+    running(server, () -> {
+      assertThat(Pagination.fetch(new CommonsHttp(), items(server), items -> items.contains("a")), contains("a", "b"));
+      assertThat(Pagination.fetch(new CommonsHttp(), items(server), items -> items.contains("c")), contains("a", "b", "c", "d"));
+    });
+  }
+
+  @Test
+  void fails_when_a_page_other_than_the_first_one_is_missing() throws Exception {
+    HttpServer server = httpServer();
+    server.request(and(by(uri("/items")), eq(query("page"), "2"))).response(status(500));
+    server.request(and(by(uri("/items")), eq(query("page"), "3"))).response("e");
+    server.request(by(uri("/items"))).response(header("Link", LINKS), with(text("a,b")));
+    server.request(by(uri("/missing"))).response(status(404));
+
+    running(server, () -> {
+      assertThrows(HttpException.class, () -> Pagination.fetchAll(new CommonsHttp(), items(server)));
+      assertThat(Pagination.fetchAll(new CommonsHttp(), items(server, "/missing")), is(empty()));
+    });
+  }
+
+  private static Request<List<String>> items(HttpServer server) {
+    return items(server, "/items");
+  }
+
+  private static Request<List<String>> items(HttpServer server, String path) {
+    return Request.get(url("http://localhost:" + server.port() + path))
+        .withQueryParam("per_page", "2")
+        .withMapper(body -> asList(body.split(",")));
+  }
+}
@@ -0,0 +1,113 @@
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static com.github.dreamhead.moco.Moco.by;
+import static com.github.dreamhead.moco.Moco.httpServer;
+import static com.github.dreamhead.moco.Moco.status;
+import static com.github.dreamhead.moco.Moco.uri;
+import static com.github.dreamhead.moco.Runner.running;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
+
+import com.github.dreamhead.moco.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+class PooledHttpTest {
+  private static final int REQUESTS = 20;
+  private static final int WARMUP_REQUESTS = 50;
+  private static final int MEASURED_REQUESTS = 300;
+
+  @Test
+  void maps_responses_like_the_stateless_implementation() throws Exception {
+    HttpServer server = httpServer();
+    server.get(by(uri("/ping"))).response("pong");
+    server.get(by(uri("/missing"))).response(status(404));
+
+    running(server, () -> {
+      try (PooledHttp http = new PooledHttp()) {
+        assertThat(http.execute(get(server, "/ping")).get(), is("pong"));
+        assertThat(http.execute(get(server, "/ping")).get(), is("pong"));
+        assertThat(http.execute(get(server, "/missing")).isNotFound(), is(true));
+      }
+    });
+  }
+
+  @Test
+  void reuses_one_connection_for_consecutive_requests() throws IOException {
+    // Each connection comes from a different client port
+    Set<SocketAddress> pooledClients = ConcurrentHashMap.newKeySet();
+    Set<SocketAddress> commonsClients = ConcurrentHashMap.newKeySet();
+    com.sun.net.httpserver.HttpServer server = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/pooled", exchange -> pong(exchange, pooledClients));
+    server.createContext("/commons", exchange -> pong(exchange, commonsClients));
+    server.start();
+    try (PooledHttp pooledHttp = new PooledHttp()) {
+      String baseUrl = "http://localhost:" + server.getAddress().getPort();
+      Http commonsHttp = new CommonsHttp();
+      for (int i = 0; i < REQUESTS; i++) {
+        assertThat(pooledHttp.execute(Request.get(url(baseUrl + "/pooled"))).get(), is("pong"));
+        assertThat(commonsHttp.execute(Request.get(url(baseUrl + "/commons"))).get(), is("pong"));
+      }
+
+      assertThat(pooledClients.size(), is(1));
+      assertThat(commonsClients.size(), is(REQUESTS));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /**
+   * Compares the average latency of requests made with PooledHttp and with
+   * the stateless implementation. Run it with the benchmark task.
+   */
+  @Test
+  @Tag("benchmark")
+  void measures_the_per_request_latency_against_the_stateless_implementation() throws Exception {
+    HttpServer server = httpServer();
+    server.get(by(uri("/ping"))).response("pong");
+
+    running(server, () -> {
+      try (PooledHttp pooledHttp = new PooledHttp()) {
+        Http commonsHttp = new CommonsHttp();
+        long commonsNanos = averageLatencyNanos(commonsHttp, get(server, "/ping"));
+        long pooledNanos = averageLatencyNanos(pooledHttp, get(server, "/ping"));
+
+        System.out.println(String.format(
+            "Average latency over %d requests: CommonsHttp %.3f ms, PooledHttp %.3f ms",
+            MEASURED_REQUESTS, commonsNanos / 1_000_000D, pooledNanos / 1_000_000D
+        ));
+      }
+    });
+  }
+
+  private static void pong(com.sun.net.httpserver.HttpExchange exchange, Set<SocketAddress> clients) throws IOException {
+    clients.add(exchange.getRemoteAddress());
+    byte[] body = "pong".getBytes(UTF_8);
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private static long averageLatencyNanos(Http http, Request<String> request) {
+    for (int i = 0; i < WARMUP_REQUESTS; i++)
+      http.execute(request);
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_REQUESTS; i++)
+      http.execute(request);
+    return (System.nanoTime() - start) / MEASURED_REQUESTS;
+  }
+
+  private static Request<String> get(HttpServer server, String path) {
+    return Request.get(url("http://localhost:" + server.port() + path));
+  }
+}
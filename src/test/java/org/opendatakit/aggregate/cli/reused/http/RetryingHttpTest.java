@@ -0,0 +1,212 @@
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opendatakit.aggregate.cli.reused.Pair;
+
+class RetryingHttpTest {
+  private static final Request<String> REQUEST = Request.get(url("https://api.github.com/repos/getodk/aggregate/releases"));
+  private MutableClock clock;
+  private List<Duration> sleeps;
+  private LinkedList<Supplier<Response<String>>> script;
+  private int executions;
+  private RetryingHttp http;
+
+  @BeforeEach
+  void setUp() {
+    clock = new MutableClock(Instant.parse("2019-01-15T10:00:00Z"));
+    sleeps = new ArrayList<>();
+    script = new LinkedList<>();
+    executions = 0;
+    Http scripted = new Http() {
+      @SuppressWarnings("unchecked")
+      @Override
+      public <T> Response<T> execute(Request<T> request) {
+        executions++;
+        return (Response<T>) script.removeFirst().get();
+      }
+    };
+    http = new RetryingHttp(scripted, clock, duration -> {
+      sleeps.add(duration);
+      clock.advance(duration);
+    }, new Random(42));
+  }
+
+  @Test
+  void retries_server_errors_with_a_growing_jittered_backoff() {
+    script.add(() -> serverError(503));
+    script.add(() -> serverError(502));
+    script.add(() -> Response.ok("releases"));
+
+    assertThat(http.execute(REQUEST).get(), is("releases"));
+    assertThat(executions, is(3));
+    assertThat(sleeps.size(), is(2));
+    assertThat(sleeps.get(0), lessThanOrEqualTo(RetryingHttp.BASE_DELAY));
+    assertThat(sleeps.get(1), lessThanOrEqualTo(RetryingHttp.BASE_DELAY.multipliedBy(2)));
+  }
+
+  @Test
+  void retries_connection_failures_until_running_out_of_attempts() {
+    for (int i = 0; i < RetryingHttp.MAX_ATTEMPTS; i++)
+      script.add(() -> {
+        throw new HttpException("The connection has timed out");
+      });
+
+    assertThrows(HttpException.class, () -> http.execute(REQUEST));
+    assertThat(executions, is(RetryingHttp.MAX_ATTEMPTS));
+  }
+
+  @Test
+  void does_not_retry_failures_once_the_body_is_being_mapped() {
+    Http failingMidBody = new Http() {
+      @Override
+      public <T> Response<T> execute(Request<T> request) {
+        executions++;
+        request.map(headers(), new ByteArrayInputStream(new byte[0]));
+        throw new HttpException("The connection has timed out");
+      }
+    };
+    RetryingHttp http = new RetryingHttp(failingMidBody, clock, sleeps::add, new Random(42));
+
+    assertThrows(HttpException.class, () -> http.execute(REQUEST));
+    assertThat(executions, is(1));
+    assertThat(sleeps, is(empty()));
+  }
+
+  @Test
+  void does_not_retry_client_errors() {
+    script.add(Response::notFound);
+
+    assertThat(http.execute(REQUEST).isNotFound(), is(true));
+    assertThat(sleeps, is(empty()));
+  }
+
+  @Test
+  void waits_as_long_as_the_retry_after_header_says() {
+    script.add(() -> new Response.ClientError<>(429, "Too Many Requests", headers(Pair.of("Retry-After", "7"))));
+    script.add(() -> Response.ok("releases"));
+
+    assertThat(http.execute(REQUEST).get(), is("releases"));
+    assertThat(sleeps, contains(Duration.ofSeconds(7)));
+  }
+
+  @Test
+  void waits_for_the_reset_of_an_exhausted_rate_limit() {
+    Instant reset = clock.instant().plusSeconds(20);
+    script.add(() -> new Response.ClientError<>(403, "Forbidden", headers(
+        Pair.of("X-RateLimit-Remaining", "0"),
+        Pair.of("X-RateLimit-Reset", String.valueOf(reset.getEpochSecond()))
+    )));
+    script.add(() -> Response.ok("releases"));
+
+    assertThat(http.execute(REQUEST).get(), is("releases"));
+    assertThat(sleeps, contains(Duration.ofSeconds(20)));
+  }
+
+  @Test
+  void fails_fast_when_the_rate_limit_will_not_be_reset_soon() {
+    Instant reset = clock.instant().plus(Duration.ofMinutes(30));
+    script.add(() -> new Response.Success<>(200, "releases", headers(
+        Pair.of("X-RateLimit-Remaining", "0"),
+        Pair.of("X-RateLimit-Reset", String.valueOf(reset.getEpochSecond()))
+    )));
+
+    assertThat(http.execute(REQUEST).get(), is("releases"));
+    assertThrows(HttpException.class, () -> http.execute(REQUEST));
+    assertThat(executions, is(1));
+  }
+
+  @Test
+  void opens_the_circuit_of_a_dead_host_and_lets_a_trial_request_through_after_the_cooldown() {
+    for (int i = 0; i < RetryingHttp.FAILURE_THRESHOLD; i++)
+      script.add(() -> {
+        throw new HttpException("Connection refused");
+      });
+
+    assertThrows(HttpException.class, () -> http.execute(REQUEST));
+    assertThrows(HttpException.class, () -> http.execute(REQUEST));
+    assertThat(executions, is(RetryingHttp.FAILURE_THRESHOLD));
+
+    clock.advance(RetryingHttp.OPEN_CIRCUIT_COOLDOWN);
+    script.add(() -> Response.ok("releases"));
+    assertThat(http.execute(REQUEST).get(), is("releases"));
+  }
+
+  @Test
+  void lets_another_trial_request_through_after_one_fails_unrelated_to_the_host() {
+    for (int i = 0; i < RetryingHttp.FAILURE_THRESHOLD; i++)
+      script.add(() -> {
+        throw new HttpException("Connection refused");
+      });
+    assertThrows(HttpException.class, () -> http.execute(REQUEST));
+    assertThrows(HttpException.class, () -> http.execute(REQUEST));
+
+    clock.advance(RetryingHttp.OPEN_CIRCUIT_COOLDOWN);
+    script.add(() -> {
+      throw new UncheckedIOException(new IOException("Can't write the response"));
+    });
+    assertThrows(UncheckedIOException.class, () -> http.execute(REQUEST));
+    script.add(() -> Response.ok("releases"));
+    assertThat(http.execute(REQUEST).get(), is("releases"));
+  }
+
+  @SafeVarargs
+  private static Headers headers(Pair<String, String>... values) {
+    List<Pair<String, String>> list = new ArrayList<>();
+    for (Pair<String, String> value : values)
+      list.add(value);
+    return new Headers(list);
+  }
+
+  private static Response<String> serverError(int statusCode) {
+    return new Response.ServerError<>(statusCode, "Server Error", headers());
+  }
+
+  private static class MutableClock extends Clock {
+    private Instant instant;
+
+    MutableClock(Instant instant) {
+      this.instant = instant;
+    }
+
+    void advance(Duration duration) {
+      instant = instant.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+  }
+}
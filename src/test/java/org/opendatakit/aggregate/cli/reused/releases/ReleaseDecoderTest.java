@@ -0,0 +1,149 @@
+package org.opendatakit.aggregate.cli.reused.releases;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares {@link ReleaseDecoder} with the generic JSON path it replaced,
+ * which parsed the whole payload into maps and built the releases from them.
+ */
+class ReleaseDecoderTest {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final int WARMUP_ITERATIONS = 200;
+  private static final int MEASURED_ITERATIONS = 200;
+  private static byte[] payload;
+
+  @BeforeAll
+  static void setUp() throws IOException {
+    try (InputStream is = ReleaseDecoderTest.class.getResourceAsStream("releases.json")) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = is.read(buffer)) != -1)
+        out.write(buffer, 0, read);
+      payload = out.toByteArray();
+    }
+  }
+
+  @Test
+  void decodes_the_same_releases_as_the_generic_json_path() {
+    List<Release> releases = ReleaseDecoder.decode(new ByteArrayInputStream(payload));
+
+    assertThat(releases, hasSize(53));
+    assertThat(releases, is(decodeFromMaps(new ByteArrayInputStream(payload))));
+    Release release = releases.stream().filter(r -> r.isVersion(Version.from("v2.7.0"))).findFirst().get();
+    assertThat(release.getWarAsset().get().getName(), is("ODK-Aggregate-v2.7.0.war"));
+    assertThat(release.getWarAsset().get().getSize(), is(48_018_234L));
+  }
+
+  @Test
+  void allocates_less_memory_than_the_generic_json_path() {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    long genericBytes = allocatedBytes(threads, ReleaseDecoderTest::decodeFromMaps);
+    long streamingBytes = allocatedBytes(threads, ReleaseDecoder::decode);
+
+    assertThat(
+        String.format("Bytes allocated to decode %d KB of releases", payload.length / 1024),
+        streamingBytes,
+        lessThan(genericBytes)
+    );
+  }
+
+  /**
+   * Compares the time it takes to decode the release catalog with both paths.
+   * Run it with the benchmark task.
+   */
+  @Test
+  @Tag("benchmark")
+  void measures_the_decoding_latency_against_the_generic_json_path() {
+    double genericMillis = millisPerDecode(ReleaseDecoderTest::decodeFromMaps);
+    double streamingMillis = millisPerDecode(ReleaseDecoder::decode);
+
+    System.out.println(String.format(
+        "Decoding %d KB of releases: generic JSON %.3f ms, streaming decoder %.3f ms",
+        payload.length / 1024, genericMillis, streamingMillis
+    ));
+  }
+
+  /**
+   * Returns the average bytes allocated by this thread to decode the payload.
+   */
+  private static long allocatedBytes(com.sun.management.ThreadMXBean threads, Function<InputStream, List<Release>> decoder) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++)
+      decoder.apply(new ByteArrayInputStream(payload));
+    long threadId = Thread.currentThread().getId();
+    long startBytes = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < MEASURED_ITERATIONS; i++)
+      decoder.apply(new ByteArrayInputStream(payload));
+    return (threads.getThreadAllocatedBytes(threadId) - startBytes) / MEASURED_ITERATIONS;
+  }
+
+  /**
+   * Returns the average milliseconds it takes to decode the payload.
+   */
+  private static double millisPerDecode(Function<InputStream, List<Release>> decoder) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++)
+      decoder.apply(new ByteArrayInputStream(payload));
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; i++)
+      decoder.apply(new ByteArrayInputStream(payload));
+    return (System.nanoTime() - start) / 1_000_000D / MEASURED_ITERATIONS;
+  }
+
+  /**
+   * Decodes the releases the generic way, parsing the whole payload into maps.
+   */
+  private static List<Release> decodeFromMaps(InputStream contents) {
+    try {
+      List<Map<String, Object>> releases = MAPPER.readValue(contents, new TypeReference<List<Map<String, Object>>>() { });
+      return releases.stream().map(ReleaseDecoderTest::releaseFrom).collect(toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Release releaseFrom(Map<String, Object> json) {
+    String tagName = (String) json.get("tag_name");
+    return new Release(
+        tagName,
+        Release.parseVersion(tagName),
+        (Boolean) json.get("draft"),
+        (Boolean) json.get("prerelease"),
+        OffsetDateTime.parse((String) json.get("published_at")).toZonedDateTime(),
+        ((List<Map<String, Object>>) json.get("assets")).stream().map(ReleaseDecoderTest::assetFrom).collect(toList())
+    );
+  }
+
+  private static Asset assetFrom(Map<String, Object> json) {
+    return new Asset(
+        (String) json.get("name"),
+        ((Number) json.get("size")).longValue(),
+        url((String) json.get("browser_download_url"))
+    );
+  }
+}
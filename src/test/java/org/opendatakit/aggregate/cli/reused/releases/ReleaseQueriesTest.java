@@ -0,0 +1,23 @@
+package org.opendatakit.aggregate.cli.reused.releases;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+class ReleaseQueriesTest {
+  private static final String SHA256 = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+  private static final String OTHER_SHA256 = "60303ae22b998861bce3b28f33eec1be758a213c86c93c076dbe9f558c11c752";
+
+  @Test
+  void parses_checksums_in_the_sha256sum_format() {
+    assertThat(ReleaseQueries.parseChecksum(SHA256 + "\n", "ODK-Aggregate-v2.0.0.war"), is(Optional.of(SHA256)));
+    assertThat(ReleaseQueries.parseChecksum(SHA256.toUpperCase() + "  ODK-Aggregate-v2.0.0.war\n", "ODK-Aggregate-v2.0.0.war"), is(Optional.of(SHA256)));
+    assertThat(ReleaseQueries.parseChecksum(
+        OTHER_SHA256 + "  ODK-Aggregate-v2.0.0-linux-x64-installer.run\n" + SHA256 + " *ODK-Aggregate-v2.0.0.war\n",
+        "ODK-Aggregate-v2.0.0.war"
+    ), is(Optional.of(SHA256)));
+    assertThat(ReleaseQueries.parseChecksum(OTHER_SHA256 + "  other.war\n", "ODK-Aggregate-v2.0.0.war"), is(Optional.empty()));
+  }
+}
@@ -0,0 +1,174 @@
+package org.opendatakit.aggregate.cli.reused.http;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.opendatakit.aggregate.cli.reused.http.HttpHelpers.url;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.opendatakit.aggregate.cli.reused.Futures;
+
+/**
+ * Exercises and compares {@link JdkHttp} and {@link PooledHttp} against a
+ * local server that speaks both HTTP/1.1 and cleartext HTTP/2 (h2c), like
+ * GitHub does over TLS.
+ */
+class JdkHttpTest {
+  private static final int CATALOG_PAGES = 10;
+  private static final int CATALOG_ROUNDS = 20;
+  private static final int WAR_SIZE = 64 * 1024 * 1024;
+  private static final byte[] CATALOG_PAGE = new byte[100 * 1024];
+  private static final byte[] WAR_CHUNK = new byte[1024 * 1024];
+  private final Set<String> protocols = ConcurrentHashMap.newKeySet();
+  private Server server;
+  private String baseUrl;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    server = new Server();
+    HttpConfiguration configuration = new HttpConfiguration();
+    ServerConnector connector = new ServerConnector(
+        server,
+        new HttpConnectionFactory(configuration),
+        new HTTP2CServerConnectionFactory(configuration)
+    );
+    server.addConnector(connector);
+    server.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        protocols.add(request.getProtocol());
+        response.setStatus(200);
+        if (target.equals("/war")) {
+          response.setContentLengthLong(WAR_SIZE);
+          for (int i = 0; i < WAR_SIZE / WAR_CHUNK.length; i++)
+            response.getOutputStream().write(WAR_CHUNK);
+        } else {
+          response.setContentLength(CATALOG_PAGE.length);
+          response.getOutputStream().write(CATALOG_PAGE);
+        }
+        baseRequest.setHandled(true);
+      }
+    });
+    server.start();
+    baseUrl = "http://localhost:" + connector.getLocalPort();
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    server.stop();
+  }
+
+  @Test
+  void negotiates_http2_and_maps_responses() {
+    JdkHttp http = new JdkHttp(MetricsSink.NONE);
+
+    assertThat(http.execute(catalogPage(1)).get(), is(CATALOG_PAGE.length));
+    assertThat(Futures.join(http.executeAsync(catalogPage(2))).get(), is(CATALOG_PAGE.length));
+    assertThat(protocols.contains("HTTP/2.0"), is(true));
+  }
+
+  @Test
+  void fetches_the_catalog_and_downloads_with_both_backends() throws IOException {
+    try (PooledHttp pooledHttp = new PooledHttp()) {
+      JdkHttp jdkHttp = new JdkHttp(MetricsSink.NONE);
+      fetchCatalog(pooledHttp);
+      fetchCatalog(jdkHttp);
+      download(pooledHttp);
+      download(jdkHttp);
+    }
+  }
+
+  /**
+   * Compares the latency of fetching the release catalog and the throughput
+   * of downloading the WAR package. Run it with the benchmark task.
+   */
+  @Test
+  @Tag("benchmark")
+  void measures_the_catalog_latency_and_download_throughput() throws IOException {
+    try (PooledHttp pooledHttp = new PooledHttp()) {
+      JdkHttp jdkHttp = new JdkHttp(MetricsSink.NONE);
+      // Warm up both backends
+      fetchCatalog(pooledHttp);
+      fetchCatalog(jdkHttp);
+      download(pooledHttp);
+      download(jdkHttp);
+
+      report("PooledHttp (HTTP/1.1)", measureCatalog(pooledHttp), measureDownload(pooledHttp));
+      report("JdkHttp (HTTP/2)", measureCatalog(jdkHttp), measureDownload(jdkHttp));
+    }
+  }
+
+  private double measureCatalog(Http http) {
+    long start = System.nanoTime();
+    for (int i = 0; i < CATALOG_ROUNDS; i++)
+      fetchCatalog(http);
+    return (System.nanoTime() - start) / 1_000_000D / CATALOG_ROUNDS;
+  }
+
+  private double measureDownload(Http http) throws IOException {
+    long start = System.nanoTime();
+    download(http);
+    return WAR_SIZE / ((System.nanoTime() - start) / 1_000_000_000D);
+  }
+
+  private void fetchCatalog(Http http) {
+    List<CompletableFuture<Integer>> pages = IntStream.rangeClosed(1, CATALOG_PAGES)
+        .mapToObj(page -> http.executeAsync(catalogPage(page)).thenApply(Response::get))
+        .collect(toList());
+    Futures.join(Futures.allOf(pages)).forEach(size -> assertThat(size, is(CATALOG_PAGE.length)));
+  }
+
+  private void download(Http http) throws IOException {
+    Path file = Files.createTempFile("aggregate-cli-benchmark", ".war");
+    try {
+      new Downloader(http).download(url(baseUrl + "/war"), file, progress -> { });
+      assertThat(Files.size(file), is((long) WAR_SIZE));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private Request<Integer> catalogPage(int page) {
+    return Request.get(url(baseUrl + "/releases"), (headers, body) -> countBytes(body))
+        .withQueryParam("page", String.valueOf(page));
+  }
+
+  private static int countBytes(InputStream body) {
+    try {
+      return body.readAllBytes().length;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void report(String backend, double catalogMillis, double bytesPerSecond) {
+    System.out.println(String.format(
+        "%s: catalog of %d pages in %.2f ms, download at %s/s",
+        backend,
+        CATALOG_PAGES,
+        catalogMillis,
+        DownloadProgress.humanReadable((long) bytesPerSecond)
+    ));
+  }
+}